@@ -31,12 +31,11 @@ package net.md_5.specialsource;
 import net.md_5.specialsource.util.FileLocator;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.Getter;
 
 /**
@@ -71,7 +70,7 @@ public class AccessMap {
     @Getter
     private Map<String, AccessChange> map = new HashMap<String, AccessChange>();
     @Getter
-    private Set<String> appliedMaps = new HashSet<String>();
+    private Set<String> appliedMaps = ConcurrentHashMap.newKeySet();
 
     public AccessMap() {
     }
@@ -97,7 +96,7 @@ public class AccessMap {
     }
 
     public void loadAccessTransformer(File file) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+        try (BufferedReader reader = FileLocator.openReader(file)) {
             loadAccessTransformer(reader);
         }
     }
@@ -105,8 +104,9 @@ public class AccessMap {
     /**
      * Load an access transformer into this AccessMap.
      *
-     * @param filename Location of AT data, one of: - local filename - remote
-     * HTTP URL - "pattern:" followed by one transformer line
+     * @param filename Location of AT data, one of: - local filename, which may
+     * be gzip or zip compressed - remote HTTP URL - "pattern:" followed by one
+     * transformer line
      * @throws IOException
      */
     public void loadAccessTransformer(String filename) throws IOException {
@@ -0,0 +1,624 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import com.google.common.primitives.Ints;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import net.md_5.specialsource.provider.InheritanceProvider;
+import net.md_5.specialsource.provider.MappingProvider;
+
+/**
+ * A read only mapping stored in a compact binary file, which is memory mapped
+ * rather than parsed. All names are stored once in a string table, packages
+ * are kept in order and classes, fields and methods are open addressed hash
+ * tables of string ids, keyed exactly as in {@link JarMapping}, with fields
+ * also indexed by owner and name. Looking up an entry only constructs the
+ * returned name.
+ *
+ * Files are written with {@link #write(JarMapping, File)}, and may also be
+ * passed anywhere a text mapping file is accepted. As a
+ * {@link MappingProvider}, a compiled mapping can also be used to remap
+ * directly, keeping the mappings off the heap. Parents found through its
+ * inheritance provider are cached, and it is safe to use from many threads.
+ */
+public class CompiledMapping implements MappingProvider {
+
+    /**
+     * Cache compiled copies of text mapping files next to the source file, and
+     * load those instead when the source is unchanged.
+     */
+    public static boolean useCache = false;
+    //
+    private static final int MAGIC = 0x5353434D; // SSCM
+    /**
+     * The version of the compiled file format, files of any other version are
+     * rejected.
+     */
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 52;
+    private static final int FLAG_SRG = 1;
+    private static final int STRINGS = 0, PACKAGES = 1, CLASSES = 2, FIELDS = 3, METHODS = 4, FIELD_NAMES = 5;
+    private static final int SLOT_SIZE = 12;
+    //
+    private final ByteBuffer buffer;
+    private final byte[] key;
+    private final int flags;
+    private final int stringCount;
+    private final int stringOffsets;
+    private final int stringData;
+    private final int[] sections = new int[6];
+    private final Map<String, String> packages;
+    private InheritanceProvider inheritanceProvider;
+    private final ConcurrentMap<String, Collection<String>> parents = new ConcurrentHashMap<>();
+
+    private CompiledMapping(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled mapping file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported compiled mapping version " + buffer.getInt(4));
+        }
+
+        this.key = new byte[16];
+        ByteBuffer header = buffer.duplicate();
+        header.position(8);
+        header.get(key);
+        this.flags = header.getInt();
+        for (int i = 0; i < sections.length; i++) {
+            sections[i] = header.getInt();
+        }
+
+        this.stringCount = buffer.getInt(sections[STRINGS]);
+        this.stringOffsets = sections[STRINGS] + 4;
+        this.stringData = stringOffsets + (stringCount + 1) * 4;
+
+        final Map<String, String> packages = new LinkedHashMap<>();
+        forEachPackage(packages::put);
+        this.packages = Collections.unmodifiableMap(packages);
+    }
+
+    /**
+     * Memory map a compiled mapping file.
+     *
+     * @throws IOException if the file could not be read, or is not a compiled
+     * mapping
+     */
+    public static CompiledMapping open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new CompiledMapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Compile a mapping in memory, for when it cannot be written to a file.
+     */
+    public static CompiledMapping compile(JarMapping mapping) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeTo(mapping, out, new byte[16]);
+            return new CompiledMapping(ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Check whether the file starts with the compiled mapping header.
+     */
+    public static boolean isCompiled(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        channel.read(magic, 0);
+        return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Get the key this file was written with, or all zeros if none was given.
+     */
+    public byte[] getKey() {
+        return key.clone();
+    }
+
+    /**
+     * Whether the mapping came from a standard srg file, and so should be
+     * checked for conflicting entries when loaded.
+     */
+    public boolean isSrg() {
+        return (flags & FLAG_SRG) != 0;
+    }
+
+    public int getClassCount() {
+        return buffer.getInt(sections[CLASSES]);
+    }
+
+    public int getFieldCount() {
+        return buffer.getInt(sections[FIELDS]);
+    }
+
+    public int getMethodCount() {
+        return buffer.getInt(sections[METHODS]);
+    }
+
+    public String getClass(String name) {
+        return get(CLASSES, name);
+    }
+
+    /**
+     * Get a field mapping, see {@link JarMapping#fields} for the key format.
+     */
+    public String getField(String key) {
+        return get(FIELDS, key);
+    }
+
+    /**
+     * Get a method mapping, see {@link JarMapping#methods} for the key format.
+     */
+    public String getMethod(String key) {
+        return get(METHODS, key);
+    }
+
+    /**
+     * Set the provider used to find the parents of classes when climbing the
+     * inheritance tree, see
+     * {@link #tryClimb(NodeType, String, String, String, int)}.
+     */
+    public void setInheritanceProvider(InheritanceProvider inheritanceProvider) {
+        this.inheritanceProvider = inheritanceProvider;
+        parents.clear();
+    }
+
+    @Override
+    public String getClassMapping(String className) {
+        return getClass(className);
+    }
+
+    @Override
+    public Map<String, String> getPackageMappings() {
+        return packages;
+    }
+
+    @Override
+    public String getFieldMapping(String owner, String name, String desc) {
+        return getField((desc == null) ? owner + "/" + name : owner + "/" + name + "/" + desc);
+    }
+
+    /**
+     * Fields with descriptors are also indexed by owner and name, each entry
+     * listing the full keys and values of the fields with that name.
+     */
+    @Override
+    public String getFieldMappingByName(String owner, String name, Predicate<String> descFilter) {
+        String prefix = owner + "/" + name;
+        int list = find(FIELD_NAMES, prefix);
+        if (list == -1) {
+            return null;
+        }
+
+        int offset = sections[FIELD_NAMES];
+        int entries = offset + 8 + buffer.getInt(offset + 4) * SLOT_SIZE + list * 4;
+        int count = buffer.getInt(entries);
+        String bestDesc = null;
+        String best = null;
+        for (int i = 0; i < count; i++) {
+            int entry = entries + 4 + i * 8;
+            String desc = getString(buffer.getInt(entry)).substring(prefix.length() + 1);
+            if (descFilter.test(desc) && (bestDesc == null || desc.compareTo(bestDesc) < 0)) {
+                bestDesc = desc;
+                best = getString(buffer.getInt(entry + 4));
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String getMethodMapping(String owner, String name, String desc) {
+        return getMethod(owner + "/" + name + " " + desc);
+    }
+
+    @Override
+    public String tryClimb(NodeType type, String owner, String name, String desc, int access) {
+        String mapped;
+        if (type == NodeType.FIELD) {
+            mapped = (desc != null) ? getFieldMapping(owner, name, desc) : null;
+            if (mapped == null) {
+                mapped = getFieldMapping(owner, name, null);
+            }
+        } else {
+            mapped = getMethodMapping(owner, name, desc);
+        }
+
+        if (mapped == null && inheritanceProvider != null && (access == -1 || (!Modifier.isPrivate(access) && !Modifier.isStatic(access)))) {
+            // climb the inheritance tree
+            for (String parent : getParents(owner)) {
+                mapped = tryClimb(type, parent, name, desc, access);
+                if (mapped != null) {
+                    return mapped;
+                }
+            }
+        }
+        return mapped;
+    }
+
+    private Collection<String> getParents(String owner) {
+        Collection<String> cached = parents.get(owner);
+        if (cached == null) {
+            Collection<String> found = inheritanceProvider.getParents(owner);
+            cached = (found == null) ? Collections.<String>emptyList() : new ArrayList<String>(found);
+            parents.put(owner, cached);
+        }
+        return cached;
+    }
+
+    public void forEachPackage(BiConsumer<String, String> consumer) {
+        forEach(PACKAGES, consumer);
+    }
+
+    public void forEachClass(BiConsumer<String, String> consumer) {
+        forEach(CLASSES, consumer);
+    }
+
+    public void forEachField(BiConsumer<String, String> consumer) {
+        forEach(FIELDS, consumer);
+    }
+
+    public void forEachMethod(BiConsumer<String, String> consumer) {
+        forEach(METHODS, consumer);
+    }
+
+    private String get(int section, String name) {
+        int valueId = find(section, name);
+        return (valueId == -1) ? null : getString(valueId);
+    }
+
+    /**
+     * Find the value stored for a key in one of the hash table sections.
+     *
+     * @return the value, or -1 if the key is not present
+     */
+    private int find(int section, String name) {
+        int offset = sections[section];
+        int capacity = buffer.getInt(offset + 4);
+        int slots = offset + 8;
+
+        int hash = name.hashCode();
+        for (int i = mix(hash) & (capacity - 1);; i = (i + 1) & (capacity - 1)) {
+            int slot = slots + i * SLOT_SIZE;
+            int keyId = buffer.getInt(slot + 4);
+            if (keyId == -1) {
+                return -1;
+            }
+            if (buffer.getInt(slot) == hash && stringEquals(keyId, name)) {
+                return buffer.getInt(slot + 8);
+            }
+        }
+    }
+
+    private void forEach(int section, BiConsumer<String, String> consumer) {
+        int offset = sections[section];
+        String[] strings = new String[stringCount];
+        if (section == PACKAGES) {
+            int count = buffer.getInt(offset);
+            for (int i = 0; i < count; i++) {
+                int entry = offset + 4 + i * 8;
+                consumer.accept(getString(strings, buffer.getInt(entry)), getString(strings, buffer.getInt(entry + 4)));
+            }
+        } else {
+            int capacity = buffer.getInt(offset + 4);
+            for (int i = 0; i < capacity; i++) {
+                int slot = offset + 8 + i * SLOT_SIZE;
+                int keyId = buffer.getInt(slot + 4);
+                if (keyId != -1) {
+                    consumer.accept(getString(strings, keyId), getString(strings, buffer.getInt(slot + 8)));
+                }
+            }
+        }
+    }
+
+    private String getString(String[] strings, int id) {
+        String string = strings[id];
+        if (string == null) {
+            string = strings[id] = getString(id);
+        }
+        return string;
+    }
+
+    private String getString(int id) {
+        int start = stringData + buffer.getInt(stringOffsets + id * 4);
+        int end = stringData + buffer.getInt(stringOffsets + id * 4 + 4);
+
+        byte[] bytes = new byte[end - start];
+        ByteBuffer data = buffer.duplicate();
+        data.position(start);
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean stringEquals(int id, String value) {
+        int start = stringData + buffer.getInt(stringOffsets + id * 4);
+        int end = stringData + buffer.getInt(stringOffsets + id * 4 + 4);
+        if (end - start != value.length()) {
+            // Could still be equal if there are multibyte characters
+            return end - start > value.length() && getString(id).equals(value);
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                return getString(id).equals(value);
+            }
+            if (buffer.get(start + i) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Write a mapping to a compiled mapping file.
+     */
+    public static void write(JarMapping mapping, File file) throws IOException {
+        write(mapping, file, new byte[16]);
+    }
+
+    /**
+     * Write a mapping to a compiled mapping file, recording the given 16 byte
+     * key. The file is written to a uniquely named temporary file first and
+     * then atomically moved into place, so readers never see a partial file,
+     * even with several writers at once. The file is created with the same
+     * permissions as any other new file.
+     */
+    public static void write(JarMapping mapping, File file, byte[] key) throws IOException {
+        if (key.length != 16) {
+            throw new IllegalArgumentException("Key must be 16 bytes, not " + key.length);
+        }
+
+        Path temp;
+        OutputStream stream;
+        while (true) {
+            temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp").toPath();
+            try {
+                stream = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException ex) {
+                // Taken by another writer, try another name
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            writeTo(mapping, out, key);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+
+        try {
+            try {
+                Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+    }
+
+    private static void writeTo(JarMapping mapping, DataOutputStream out, byte[] key) throws IOException {
+        mapping.loadAllMembers();
+
+        StringTable strings = new StringTable();
+        int[] packages = strings.pairs(mapping.packages);
+        int[] classes = strings.table(mapping.classes);
+        int[] fields = strings.table(mapping.fields);
+        int[] methods = strings.table(mapping.methods);
+        FieldNameIndex fieldNames = new FieldNameIndex(mapping.getFieldMap(), strings);
+
+        int[] sections = new int[6];
+        sections[STRINGS] = HEADER_SIZE;
+        sections[PACKAGES] = sections[STRINGS] + 4 + (strings.size() + 1) * 4 + strings.byteCount;
+        sections[CLASSES] = sections[PACKAGES] + 4 + packages.length * 4;
+        sections[FIELDS] = sections[CLASSES] + 8 + classes.length * 4;
+        sections[METHODS] = sections[FIELDS] + 8 + fields.length * 4;
+        sections[FIELD_NAMES] = sections[METHODS] + 8 + methods.length * 4;
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(key);
+        out.writeInt(mapping.isSrgLoaded() ? FLAG_SRG : 0);
+        for (int section : sections) {
+            out.writeInt(section);
+        }
+
+        out.writeInt(strings.size());
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] bytes : strings.bytes) {
+            offset += bytes.length;
+            out.writeInt(offset);
+        }
+        for (byte[] bytes : strings.bytes) {
+            out.write(bytes);
+        }
+
+        out.writeInt(packages.length / 2);
+        writeInts(out, packages);
+        writeTable(out, classes, mapping.classes.size());
+        writeTable(out, fields, mapping.fields.size());
+        writeTable(out, methods, mapping.methods.size());
+        writeTable(out, fieldNames.slots, fieldNames.names.size());
+        writeInts(out, Ints.toArray(fieldNames.entries));
+    }
+
+    private static void writeTable(DataOutputStream out, int[] slots, int count) throws IOException {
+        out.writeInt(count);
+        out.writeInt(slots.length / 3);
+        writeInts(out, slots);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    private static class StringTable {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<byte[]> bytes = new ArrayList<>();
+        private int byteCount;
+
+        private int id(String string) {
+            Integer id = ids.get(string);
+            if (id == null) {
+                byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+                id = bytes.size();
+                ids.put(string, id);
+                bytes.add(encoded);
+                byteCount += encoded.length;
+            }
+            return id;
+        }
+
+        private int size() {
+            return bytes.size();
+        }
+
+        private int[] pairs(Map<String, String> map) {
+            int[] pairs = new int[map.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                pairs[i++] = id(entry.getKey());
+                pairs[i++] = id(entry.getValue());
+            }
+            return pairs;
+        }
+
+        private int[] table(Map<String, String> map) {
+            int[] slots = emptyTable(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                insert(slots, entry.getKey(), id(entry.getValue()));
+            }
+            return slots;
+        }
+
+        private int[] emptyTable(int size) {
+            // Keep the load factor at or below one half, so probes stay short and always find a free slot
+            int capacity = Integer.highestOneBit(Math.max(size * 2, 2) - 1) << 1;
+            int[] slots = new int[capacity * 3];
+            for (int i = 0; i < capacity; i++) {
+                slots[i * 3 + 1] = -1;
+            }
+            return slots;
+        }
+
+        private void insert(int[] slots, String key, int value) {
+            int capacity = slots.length / 3;
+            int hash = key.hashCode();
+            int i = mix(hash) & (capacity - 1);
+            while (slots[i * 3 + 1] != -1) {
+                i = (i + 1) & (capacity - 1);
+            }
+            slots[i * 3] = hash;
+            slots[i * 3 + 1] = id(key);
+            slots[i * 3 + 2] = value;
+        }
+    }
+
+    /**
+     * The fields with descriptors, grouped by owner and name. Each slot holds
+     * the index of a list of the full key and value ids of those fields.
+     */
+    private static class FieldNameIndex {
+
+        private final Map<String, List<String[]>> names = new LinkedHashMap<>();
+        private final int[] slots;
+        private final List<Integer> entries = new ArrayList<>();
+
+        private FieldNameIndex(MemberMap fields, StringTable strings) {
+            fields.forEachMember((owner, name, desc, value) -> {
+                if (desc != null) {
+                    add(owner + "/" + name, fields.toKey(owner, name, desc), value);
+                }
+            });
+            // Keys which could not be split are found by any prefix, as in MemberMap#getByName
+            for (Map.Entry<String, String> entry : fields.getUnsplit().entrySet()) {
+                String key = entry.getKey();
+                for (int slash = key.indexOf('/'); slash != -1; slash = key.indexOf('/', slash + 1)) {
+                    add(key.substring(0, slash), key, entry.getValue());
+                }
+            }
+
+            slots = strings.emptyTable(names.size());
+            for (Map.Entry<String, List<String[]>> entry : names.entrySet()) {
+                strings.insert(slots, entry.getKey(), entries.size());
+                entries.add(entry.getValue().size());
+                for (String[] field : entry.getValue()) {
+                    entries.add(strings.id(field[0]));
+                    entries.add(strings.id(field[1]));
+                }
+            }
+        }
+
+        private void add(String name, String key, String value) {
+            names.computeIfAbsent(name, k -> new ArrayList<>()).add(new String[]{key, value});
+        }
+    }
+}
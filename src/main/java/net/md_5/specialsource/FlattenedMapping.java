@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import net.md_5.specialsource.provider.MappingProvider;
+
+/**
+ * A mapping with the field and method mappings of every class copied down to
+ * the classes which inherit them, so that looking up a member of a known
+ * class never has to climb the inheritance tree. Members are copied in the
+ * same order {@link JarMapping#tryClimb(NodeType, String, String, String, int)}
+ * would find them, and lookups which are not allowed to climb, for private
+ * or static members, still only see the class's own mappings.
+ *
+ * Fields are resolved class by class up the tree just as climbing does, so a
+ * field mapping without a descriptor in a nearer class is found before one
+ * with a descriptor further up.
+ *
+ * The copies are worked out once, with the classes done in parallel.
+ * Afterwards the mapping is not changed, so it can be shared by any number
+ * of remappers.
+ * Members of classes it was not built for are found by climbing as usual.
+ * Field keys which could not be split into owner, name and descriptor are
+ * not copied.
+ */
+public class FlattenedMapping implements MappingProvider {
+
+    private final JarMapping mapping;
+    private final Set<String> owners;
+    // Mappings each class inherits, but does not declare itself
+    private final MemberMap inheritedFields;
+    private final MemberMap inheritedMethods;
+
+    /**
+     * Flatten a mapping for the given classes and all their super classes
+     * and interfaces. Any members still pending are loaded first, and the
+     * mapping should not be changed afterwards.
+     *
+     * @param classes internal names of the classes which will be looked up
+     */
+    public FlattenedMapping(JarMapping mapping, Collection<String> classes) {
+        this.mapping = mapping;
+        mapping.loadAllMembers();
+
+        // Found up front, as inheritance providers might not be thread safe
+        Map<String, Collection<String>> parents = new HashMap<String, Collection<String>>();
+        Deque<String> queue = new ArrayDeque<String>(classes);
+        while (!queue.isEmpty()) {
+            String owner = queue.pop();
+            if (!parents.containsKey(owner)) {
+                Collection<String> found = mapping.getParents(owner);
+                found = (found == null) ? Collections.<String>emptyList() : new ArrayList<String>(found);
+                parents.put(owner, found);
+                queue.addAll(found);
+            }
+        }
+        this.owners = new HashSet<String>(parents.keySet());
+
+        this.inheritedFields = flatten(mapping.getFieldMap(), parents);
+        this.inheritedMethods = flatten(mapping.getMethodMap(), parents);
+    }
+
+    /**
+     * Get the super classes and interfaces of a class in the order they are
+     * climbed, depth first in the order they are declared, each only once.
+     */
+    private static List<String> ancestors(String owner, Map<String, Collection<String>> parents) {
+        List<String> ancestors = new ArrayList<String>();
+        Set<String> visited = new HashSet<String>();
+        Deque<String> stack = new ArrayDeque<String>();
+        visited.add(owner);
+        pushParents(stack, owner, parents);
+        while (!stack.isEmpty()) {
+            String current = stack.pop();
+            if (visited.add(current)) {
+                ancestors.add(current);
+                pushParents(stack, current, parents);
+            }
+        }
+        return ancestors;
+    }
+
+    private static void pushParents(Deque<String> stack, String owner, Map<String, Collection<String>> parents) {
+        // Reversed, so that the first parent is taken first
+        List<String> list = new ArrayList<String>(parents.get(owner));
+        for (int i = list.size() - 1; i >= 0; i--) {
+            stack.push(list.get(i));
+        }
+    }
+
+    private MemberMap flatten(MemberMap declared, final Map<String, Collection<String>> parents) {
+        final Map<String, List<Member>> direct = new HashMap<String, List<Member>>();
+        declared.forEachMember((owner, name, desc, value) -> {
+            if (parents.containsKey(owner)) {
+                direct.computeIfAbsent(owner, k -> new ArrayList<Member>()).add(new Member(name, desc, value));
+            }
+        });
+
+        final Map<String, Collection<Member>> inherited = new ConcurrentHashMap<String, Collection<Member>>();
+        parents.keySet().parallelStream().forEach(owner -> {
+            Set<String> seen = new HashSet<String>();
+            for (Member member : direct.getOrDefault(owner, Collections.<Member>emptyList())) {
+                seen.add(member.key());
+            }
+
+            // The nearest class declaring each member, and how far up it is
+            Map<String, Member> found = new LinkedHashMap<String, Member>();
+            Map<String, Integer> ranks = new HashMap<String, Integer>();
+            List<String> ancestors = ancestors(owner, parents);
+            for (int rank = 0; rank < ancestors.size(); rank++) {
+                for (Member member : direct.getOrDefault(ancestors.get(rank), Collections.<Member>emptyList())) {
+                    String key = member.key();
+                    if (!seen.contains(key) && !found.containsKey(key)) {
+                        found.put(key, member);
+                        ranks.put(key, rank);
+                    }
+                }
+            }
+            if (found.isEmpty()) {
+                return;
+            }
+
+            // Climbing tries the descriptor and then no descriptor at each class in turn
+            for (Map.Entry<String, Member> entry : found.entrySet()) {
+                Member member = entry.getValue();
+                if (member.desc != null) {
+                    String nameOnly = new Member(member.name, null, null).key();
+                    Integer nameOnlyRank = ranks.get(nameOnly);
+                    if (nameOnlyRank != null && nameOnlyRank < ranks.get(entry.getKey())) {
+                        entry.setValue(new Member(member.name, member.desc, found.get(nameOnly).value));
+                    }
+                }
+            }
+            inherited.put(owner, found.values());
+        });
+
+        MemberMap table = new MemberMap(declared.getType(), mapping.classes);
+        for (Map.Entry<String, Collection<Member>> entry : inherited.entrySet()) {
+            for (Member member : entry.getValue()) {
+                table.put(entry.getKey(), member.name, member.desc, member.value);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get the mapping this was built from.
+     */
+    public JarMapping getMapping() {
+        return mapping;
+    }
+
+    @Override
+    public String getClassMapping(String className) {
+        return mapping.getClassMapping(className);
+    }
+
+    @Override
+    public Map<String, String> getPackageMappings() {
+        return mapping.getPackageMappings();
+    }
+
+    @Override
+    public String getFieldMapping(String owner, String name, String desc) {
+        return mapping.getFieldMapping(owner, name, desc);
+    }
+
+    @Override
+    public String getFieldMappingByName(String owner, String name, Predicate<String> descFilter) {
+        return mapping.getFieldMappingByName(owner, name, descFilter);
+    }
+
+    @Override
+    public String getMethodMapping(String owner, String name, String desc) {
+        return mapping.getMethodMapping(owner, name, desc);
+    }
+
+    @Override
+    public String tryClimb(NodeType type, String owner, String name, String desc, int access) {
+        if (!owners.contains(owner)) {
+            return mapping.tryClimb(type, owner, name, desc, access);
+        }
+
+        String mapped = find(type, mapping.getFieldMap(), mapping.getMethodMap(), owner, name, desc);
+        if (mapped == null && (access == -1 || (!Modifier.isPrivate(access) && !Modifier.isStatic(access)))) {
+            mapped = find(type, inheritedFields, inheritedMethods, owner, name, desc);
+        }
+        return mapped;
+    }
+
+    private static String find(NodeType type, MemberMap fields, MemberMap methods, String owner, String name, String desc) {
+        if (type == NodeType.FIELD) {
+            String mapped = (desc != null) ? fields.get(owner, name, desc) : null;
+            return (mapped != null) ? mapped : fields.get(owner, name, null);
+        }
+        return methods.get(owner, name, desc);
+    }
+
+    @Override
+    public int getClassModCount() {
+        return mapping.getClassModCount();
+    }
+
+    @Override
+    public boolean mightMapClass(String className) {
+        return mapping.mightMapClass(className);
+    }
+
+    @Override
+    public boolean mightMapMember(NodeType type, String name) {
+        return mapping.mightMapMember(type, name);
+    }
+
+    private static class Member {
+
+        private final String name;
+        private final String desc;
+        private final String value;
+
+        private Member(String name, String desc, String value) {
+            this.name = name;
+            this.desc = desc;
+            this.value = value;
+        }
+
+        private String key() {
+            return name + " " + desc;
+        }
+    }
+}
@@ -29,6 +29,10 @@
 package net.md_5.specialsource;
 
 import net.md_5.specialsource.provider.InheritanceProvider;
+import net.md_5.specialsource.provider.MappingProvider;
+import net.md_5.specialsource.util.FileLocator;
+import net.md_5.specialsource.util.IntIntMap;
+import net.md_5.specialsource.util.SymbolTable;
 import com.google.common.base.Joiner;
 import com.google.common.collect.BiMap;
 
@@ -37,12 +41,35 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.function.Function;
 
+/**
+ * The parents of each class, stored as ids of a {@link SymbolTable}. Each
+ * class maps to an offset in a shared pool of ints, holding the number of
+ * parents followed by their ids.
+ */
 public class InheritanceMap implements InheritanceProvider {
 
-    private final Map<String, ArrayList<String>> inheritanceMap = new HashMap<String, ArrayList<String>>();
+    private final SymbolTable symbols;
+    private final IntIntMap inheritanceMap = new IntIntMap();
+    private int[] pool = new int[256];
+    private int poolSize;
+    // Changes made by setParents, which putAll and load both go through
+    private int modCount;
     public static final InheritanceMap EMPTY = new InheritanceMap();
 
+    public InheritanceMap() {
+        this(new SymbolTable());
+    }
+
+    /**
+     * Create an inheritance map which keeps its class names in the given
+     * symbol table, so they can be shared with a {@link JarMapping}.
+     */
+    public InheritanceMap(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
     /**
      * Generate an inheritance map for the given classes
      */
@@ -71,7 +98,10 @@ public class InheritanceMap implements InheritanceProvider {
     }
 
     public void save(PrintWriter writer) {
-        List<String> classes = new ArrayList<String>(inheritanceMap.keySet());
+        List<String> classes = new ArrayList<String>(inheritanceMap.size());
+        for (int id : inheritanceMap.keys()) {
+            classes.add(symbols.get(id));
+        }
         Collections.sort(classes);
 
         for (String className : classes) {
@@ -83,7 +113,39 @@ public class InheritanceMap implements InheritanceProvider {
         }
     }
 
+    /**
+     * Load an inheritance map file, which may be gzip or zip compressed.
+     *
+     * @param classMap if not null, remap the class names from the file
+     * through this map
+     */
+    public void load(File file, BiMap<String, String> classMap) throws IOException {
+        try (BufferedReader reader = FileLocator.openReader(file)) {
+            load(reader, classMap);
+        }
+    }
+
+    /**
+     * Load an inheritance map file, which may be gzip or zip compressed.
+     *
+     * @param mapping remap the class names from the file through this
+     * mapping, including its package mappings
+     */
+    public void load(File file, MappingProvider mapping) throws IOException {
+        try (BufferedReader reader = FileLocator.openReader(file)) {
+            load(reader, mapping);
+        }
+    }
+
     public void load(BufferedReader reader, BiMap<String, String> classMap) throws IOException {
+        load(reader, (classMap == null) ? null : className -> JarRemapper.mapTypeName(className, /*packageMap*/ null, classMap, /*defaultIfUnmapped*/ null));
+    }
+
+    public void load(BufferedReader reader, final MappingProvider mapping) throws IOException {
+        load(reader, className -> JarRemapper.mapTypeName(className, mapping, /*defaultIfUnmapped*/ null));
+    }
+
+    private void load(BufferedReader reader, Function<String, String> classMap) throws IOException {
         String line;
 
         while ((line = reader.readLine()) != null) {
@@ -106,14 +168,14 @@ public class InheritanceMap implements InheritanceProvider {
             if (classMap == null) {
                 setParents(className, new ArrayList<String>(parents));
             } else {
-                String remappedClassName = JarRemapper.mapTypeName(className, /*packageMap*/ null, classMap, /*defaultIfUnmapped*/ null);
+                String remappedClassName = classMap.apply(className);
                 if (remappedClassName == null) {
                     throw new IOException("Inheritance map input class not remapped: " + className);
                 }
 
                 ArrayList<String> remappedParents = new ArrayList<String>();
                 for (String parent : parents) {
-                    String remappedParent = JarRemapper.mapTypeName(parent, /*packageMap*/ null, classMap, /*defaultIfUnmapped*/ null);
+                    String remappedParent = classMap.apply(parent);
                     if (remappedParent == null) {
                         throw new IOException("Inheritance map parent class not remapped: " + parent);
                     }
@@ -127,22 +189,82 @@ public class InheritanceMap implements InheritanceProvider {
     }
 
     public boolean hasParents(String className) {
-        return inheritanceMap.containsKey(className);
+        int id = symbols.find(className);
+        return id >= 0 && inheritanceMap.containsKey(id);
     }
 
+    /**
+     * Get the parents of a class, as a read only list.
+     *
+     * @return the parents, or null if the class is not in the map
+     */
     public List<String> getParents(String className) {
-        return inheritanceMap.get(className);
+        int id = symbols.find(className);
+        int offset = (id < 0) ? -1 : inheritanceMap.get(id);
+        return (offset < 0) ? null : new Parents(pool, offset);
     }
 
     public void setParents(String className, Collection<String> parents) {
-        if (parents == null) {
-            inheritanceMap.put(className, new ArrayList<String>());
-        } else {
-            inheritanceMap.put(className, new ArrayList<String>(parents));
+        int count = (parents == null) ? 0 : parents.size();
+        if (poolSize + count + 1 > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + count + 1));
+        }
+
+        // Parents which are replaced are left in the pool, as lists of them may still be in use
+        int offset = poolSize;
+        pool[poolSize++] = count;
+        if (parents != null) {
+            for (String parent : parents) {
+                pool[poolSize++] = symbols.intern(parent);
+            }
+        }
+        inheritanceMap.put(symbols.intern(className), offset);
+        modCount++;
+    }
+
+    /**
+     * Copy the parents of every class in another inheritance map.
+     */
+    public void putAll(InheritanceMap other) {
+        for (int id : other.inheritanceMap.keys()) {
+            String className = other.symbols.get(id);
+            setParents(className, other.getParents(className));
         }
     }
 
     public int size() {
         return inheritanceMap.size();
     }
+
+    /**
+     * Get the number of times parents have been set, so results derived from
+     * this map can tell when they are out of date.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    private class Parents extends AbstractList<String> implements RandomAccess {
+
+        private final int[] pool;
+        private final int offset;
+
+        private Parents(int[] pool, int offset) {
+            this.pool = pool;
+            this.offset = offset;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return symbols.get(pool[offset + 1 + index]);
+        }
+
+        @Override
+        public int size() {
+            return pool[offset];
+        }
+    }
 }
@@ -33,6 +33,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -66,7 +67,7 @@ public class Jar implements Closeable {
     @Getter
     private final String filename;
     private final LinkedHashMap<String, JarFile> jarForResource;
-    private final Set<String> contains = new HashSet<String>();
+    private final Set<String> contains = ConcurrentHashMap.newKeySet();
 
     /**
      * Check if this jar contains the given class. Takes the internal name of a
@@ -135,6 +136,19 @@ public class Jar implements Closeable {
         return e == null ? null : new Pair2<>(e, jarFile.getInputStream(e));
     }
 
+    /**
+     * Get the uncompressed size of a file in this jar.
+     *
+     * @param name
+     * @return the size, or -1 if it is not known
+     */
+    @SuppressWarnings("resource") // closed when the this Jar is closed
+    public long getSize(String name) {
+        JarFile jarFile = jarForResource.get(name);
+        ZipEntry e = (jarFile == null) ? null : jarFile.getEntry(name);
+        return e == null ? -1 : e.getSize();
+    }
+
     /**
      * Takes the internal name of a class (/).
      *
@@ -187,6 +201,21 @@ public class Jar implements Closeable {
         return jarForResource.keySet(); // This is safe as LinkedHashMap.keySet is ordered
     }
 
+    /**
+     * Get the internal names of all classes in the jar, in archive order.
+     *
+     * @return
+     */
+    public List<String> getClassNames() {
+        List<String> classes = new ArrayList<String>();
+        for (String name : jarForResource.keySet()) {
+            if (name.endsWith(".class")) {
+                classes.add(name.substring(0, name.length() - ".class".length()));
+            }
+        }
+        return classes;
+    }
+
     /**
      * Read and collect jar files so resources can override those in earlier
      * files.
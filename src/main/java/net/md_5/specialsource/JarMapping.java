@@ -28,36 +28,218 @@
  */
 package net.md_5.specialsource;
 
+import com.google.common.base.Throwables;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import net.md_5.specialsource.format.MappingFormat;
+import net.md_5.specialsource.format.MappingFormats;
+import net.md_5.specialsource.format.MappingParser;
+import net.md_5.specialsource.format.MappingSink;
+import net.md_5.specialsource.format.RecordedMappings;
+import net.md_5.specialsource.util.BloomFilter;
 import net.md_5.specialsource.util.FileLocator;
+import net.md_5.specialsource.util.LineTokenizer;
+import net.md_5.specialsource.util.ModCountMap;
+import net.md_5.specialsource.util.PrefixMatcher;
+import net.md_5.specialsource.util.SymbolMap;
+import net.md_5.specialsource.util.SymbolTable;
 import net.md_5.specialsource.transformer.MavenShade;
 import net.md_5.specialsource.writer.CompactSearge;
 import net.md_5.specialsource.writer.Searge;
 import net.md_5.specialsource.writer.MappingWriter;
 import net.md_5.specialsource.provider.InheritanceProvider;
+import net.md_5.specialsource.provider.MappingProvider;
 import net.md_5.specialsource.transformer.MinecraftCodersPack;
 import net.md_5.specialsource.transformer.MethodDescriptor;
 import net.md_5.specialsource.transformer.ChainingTransformer;
 import net.md_5.specialsource.transformer.MappingTransformer;
 import java.io.*;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.objectweb.asm.commons.Remapper;
 
-public class JarMapping {
-
-    public final LinkedHashMap<String, String> packages = new LinkedHashMap<String, String>();
-    public final Map<String, String> classes = new HashMap<String, String>();
-    public final SortedMap<String, String> fields = new TreeMap<String, String>();
-    public final Map<String, String> methods = new HashMap<String, String>();
-    private InheritanceMap inheritanceMap = new InheritanceMap();
+public class JarMapping implements MappingProvider {
+
+    public final LinkedHashMap<String, String> packages;
+    // The same map as packages, which counts its changes for the remap caches
+    private final ModCountMap<String, String> packageMap;
+    // Class, member and descriptor names shared by all the tables below
+    private final SymbolTable symbols;
+    public final Map<String, String> classes;
+    private final MemberMap fieldMap;
+    private final MemberMap methodMap;
+    public final SortedMap<String, String> fields;
+    public final Map<String, String> methods;
+    private InheritanceMap inheritanceMap;
+    // Only set when frozen, to cache parents from the fallback provider
+    private final ConcurrentMap<String, Collection<String>> fallbackParents;
     private InheritanceProvider fallbackInheritanceProvider = null;
     private Set<String> excludedPackages = new HashSet<String>();
-    private String currentClass = null;
+    private volatile PrefixMatcher excludedMatcher;
+    // Set once any standard srg line has been loaded, so that merging keeps its duplicate checks
+    private boolean loadedSrg = false;
+    private boolean lazyMembers = false;
+    private int threads = 1;
+    // Mapping files whose members have not all been loaded yet, in load order
+    private final List<LazyMembers> pendingMembers = new CopyOnWriteArrayList<LazyMembers>();
+    // Reverse of this mapping, and the state of this mapping when it was built
+    private JarMapping inverse;
+    private int inverseModCount;
+    private Map<String, String> inversePackages;
+    // Filters over the mapped names, rebuilt when the tables change
+    private volatile LookupFilter lookupFilter;
+    // Results of climbing the inheritance tree, including those with no mapping
+    private volatile ClimbCache climbCache;
+    // Changes made by loading lazy members, which never affect earlier climbs
+    private int lazyModCount;
+    // Parents cached from the fallback provider, which were already used by the climb that found them
+    private int fallbackModCount;
+    private static final String UNMAPPED = new String();
+    // Part of the key of compiled mapping caches, bump whenever loading a text mapping file changes
+    private static final int PARSER_VERSION = 1;
 
     public JarMapping() {
+        this(new SymbolTable());
+    }
+
+    private JarMapping(SymbolTable symbols) {
+        packages = packageMap = new ModCountMap<String, String>();
+        this.symbols = symbols;
+        classes = new SymbolMap(symbols);
+        fieldMap = new MemberMap(NodeType.FIELD, classes, symbols);
+        methodMap = new MemberMap(NodeType.METHOD, classes, symbols);
+        fields = fieldMap.sortedView();
+        methods = methodMap;
+        inheritanceMap = new InheritanceMap(symbols);
+        fallbackParents = null;
+    }
+
+    private JarMapping(JarMapping source) {
+        packages = packageMap = new ModCountMap<String, String>(source.packages);
+        symbols = source.symbols.freeze();
+        classes = ((SymbolMap) source.classes).freeze(symbols);
+        fieldMap = source.fieldMap.freeze(symbols, classes);
+        methodMap = source.methodMap.freeze(symbols, classes);
+        fields = fieldMap.sortedView();
+        methods = methodMap;
+        inheritanceMap = new InheritanceMap();
+        inheritanceMap.putAll(source.inheritanceMap);
+        fallbackParents = new ConcurrentHashMap<String, Collection<String>>();
+        fallbackInheritanceProvider = source.fallbackInheritanceProvider;
+        excludedPackages = Collections.unmodifiableSet(new HashSet<String>(source.excludedPackages));
+        loadedSrg = source.loadedSrg;
+    }
+
+    /**
+     * Get an immutable copy of this mapping, which can be shared by any
+     * number of threads and remappers. Any members still pending are loaded
+     * first. Lookups go through perfect hash tables built over the loaded
+     * names, so each needs a single probe. The inheritance map is copied, and
+     * parents later found through the fallback inheritance provider are
+     * cached in a concurrent map instead.
+     *
+     * Loading or merging into the copy throws an exception. Its
+     * {@link #packages} are a plain copy, and must not be modified.
+     */
+    public JarMapping freeze() {
+        if (isFrozen()) {
+            return this;
+        }
+        loadAllMembers();
+        return new JarMapping(this);
+    }
+
+    public boolean isFrozen() {
+        return fallbackParents != null;
+    }
+
+    /**
+     * Get the reverse of this mapping, from the new names back to the old,
+     * as if the same files had been loaded with reverse set. It is indexed
+     * once, sharing this mapping's symbol table so that the descriptors of
+     * both sides are only stored once, and then returned as is until either
+     * mapping is changed. Reversing the result gives back this mapping.
+     *
+     * Member owners and descriptors are mapped through both the class and
+     * the package mappings. Field keys which could not be split into owner,
+     * name and descriptor are left out. The reverse of a frozen mapping is
+     * frozen too.
+     */
+    public synchronized JarMapping reverse() {
+        loadAllMembers();
+        if (inverse != null && isPairedWith(inverse) && inverse.isPairedWith(this)) {
+            return inverse;
+        }
+
+        JarMapping reversed = isFrozen() ? new JarMapping() : new JarMapping(symbols);
+        final JarRemapper remapper = new JarRemapper(this);
+        for (Map.Entry<String, String> entry : packages.entrySet()) {
+            reversed.packages.put(entry.getValue(), entry.getKey());
+        }
+        for (Map.Entry<String, String> entry : classes.entrySet()) {
+            reversed.classes.put(entry.getValue(), entry.getKey());
+        }
+        final MemberMap reversedFields = reversed.fieldMap;
+        fieldMap.forEachMember((owner, name, desc, value) -> reversedFields.put(
+                remapper.map(owner), value, (desc == null) ? null : remapper.mapDesc(desc), name));
+        final MemberMap reversedMethods = reversed.methodMap;
+        methodMap.forEachMember((owner, name, desc, value) -> reversedMethods.put(
+                remapper.map(owner), value, remapper.mapMethodDesc(desc), name));
+        reversed.excludedPackages.addAll(excludedPackages);
+        reversed.loadedSrg = loadedSrg;
+        if (isFrozen()) {
+            reversed = reversed.freeze();
+        }
+
+        pairWith(reversed);
+        reversed.pairWith(this);
+        return reversed;
+    }
+
+    private void pairWith(JarMapping other) {
+        inverse = other;
+        inverseModCount = modCount();
+        inversePackages = new LinkedHashMap<String, String>(packages);
+    }
+
+    private boolean isPairedWith(JarMapping other) {
+        return inverse == other && inverseModCount == modCount() && inversePackages.equals(packages);
+    }
+
+    private int modCount() {
+        int classCount = (classes instanceof SymbolMap) ? ((SymbolMap) classes).getModCount() : 0;
+        return classCount + fieldMap.getModCount() + methodMap.getModCount();
+    }
+
+    @Override
+    public int getClassModCount() {
+        int classCount = (classes instanceof SymbolMap) ? ((SymbolMap) classes).getModCount() : 0;
+        return classCount + packageMap.getModCount();
+    }
+
+    private void checkNotFrozen() {
+        if (isFrozen()) {
+            throw new IllegalStateException("Mapping is frozen");
+        }
     }
 
     /**
@@ -65,6 +247,7 @@ public class JarMapping {
      * be omitted to use a local cache, or set to your own global cache.
      */
     public void setInheritanceMap(InheritanceMap inheritanceMap) {
+        checkNotFrozen();
         this.inheritanceMap = inheritanceMap;
     }
 
@@ -77,26 +260,344 @@ public class JarMapping {
         this.fallbackInheritanceProvider = fallbackInheritanceProvider;
     }
 
+    /**
+     * Only load the field and method mappings of a class from mapping files
+     * when they are first needed. Class and package mappings are still loaded
+     * up front, but while members are pending {@link #fields} and
+     * {@link #methods} only contain the classes which have been looked up, see
+     * {@link #loadMembers(String)} and {@link #loadAllMembers()}.
+     */
+    public void setLazyMembers(boolean lazyMembers) {
+        checkNotFrozen();
+        this.lazyMembers = lazyMembers;
+    }
+
+    /**
+     * Set the number of threads mapping files are parsed on. With more than
+     * one, large files are split into chunks which are parsed concurrently,
+     * as are the files given to
+     * {@link #loadMappings(List, boolean, boolean, String, String)}. By
+     * default everything is parsed on the calling thread.
+     */
+    public void setThreads(int threads) {
+        checkNotFrozen();
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Run a task which uses parallel streams on a pool of {@link #threads}
+     * threads, rather than on the common fork join pool. Tasks started from
+     * within a pool already run there.
+     */
+    private <T> T parallel(Callable<T> task) throws IOException {
+        if (ForkJoinTask.inForkJoinPool()) {
+            try {
+                return task.call();
+            } catch (IOException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            Throwables.throwIfInstanceOf(ex.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Make sure the field and method mappings of a class have been loaded,
+     * when lazily loading members.
+     *
+     * @param owner the class name, as used in the keys of {@link #fields} and
+     * {@link #methods}
+     */
+    @Override
+    public void loadMembers(String owner) {
+        if (pendingMembers.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            int before = modCount();
+            for (LazyMembers source : pendingMembers) {
+                source.load(this, owner);
+            }
+            lazyModCount += modCount() - before;
+        }
+    }
+
+    /**
+     * Load all field and method mappings still pending from lazily loaded
+     * mapping files.
+     */
+    public synchronized void loadAllMembers() {
+        int before = modCount();
+        for (LazyMembers source : pendingMembers) {
+            for (String owner : new ArrayList<String>(source.ranges.keySet())) {
+                source.load(this, owner);
+            }
+        }
+        lazyModCount += modCount() - before;
+        pendingMembers.clear();
+    }
+
     /**
      * Add a class name prefix to the mapping ignore list. Note: this only
      * applies before loading mappings, not after
      */
     public void addExcludedPackage(String packageName) {
+        checkNotFrozen();
         SpecialSource.log("Protecting Package: " + packageName);
         excludedPackages.add(packageName);
     }
 
     private boolean isExcludedPackage(String desc) {
-        for (String packageName : excludedPackages) {
-            if (desc.startsWith(packageName)) {
-                return true;
+        if (excludedPackages.isEmpty()) {
+            return false;
+        }
+
+        // Packages are only ever added, so a change in size means the matcher is out of date
+        PrefixMatcher matcher = excludedMatcher;
+        if (matcher == null || matcher.size() != excludedPackages.size()) {
+            matcher = new PrefixMatcher(excludedPackages, false);
+            excludedMatcher = matcher;
+        }
+        return matcher.matches(desc);
+    }
+
+    /**
+     * Get the symbol table holding the names used by this mapping, which can
+     * be shared with other tables such as an {@link InheritanceMap}.
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Get the field mappings, indexed by owner.
+     */
+    public MemberMap getFieldMap() {
+        return fieldMap;
+    }
+
+    /**
+     * Get the method mappings, indexed by owner.
+     */
+    public MemberMap getMethodMap() {
+        return methodMap;
+    }
+
+    @Override
+    public String getClassMapping(String className) {
+        return classes.get(className);
+    }
+
+    @Override
+    public Map<String, String> getPackageMappings() {
+        return packages;
+    }
+
+    @Override
+    public String getFieldMapping(String owner, String name, String desc) {
+        loadMembers(owner);
+        return fieldMap.get(owner, name, desc);
+    }
+
+    @Override
+    public String getFieldMappingByName(String owner, String name, Predicate<String> descFilter) {
+        loadMembers(owner);
+        return fieldMap.getByName(owner, name, descFilter);
+    }
+
+    @Override
+    public String getMethodMapping(String owner, String name, String desc) {
+        loadMembers(owner);
+        return methodMap.get(owner, name, desc);
+    }
+
+    @Override
+    public boolean mightMapClass(String className) {
+        LookupFilter filter = getLookupFilter();
+        return filter == null || filter.classes.mightContain(outerHash(className));
+    }
+
+    @Override
+    public boolean mightMapMember(NodeType type, String name) {
+        LookupFilter filter = getLookupFilter();
+        BloomFilter names = (filter == null) ? null : (type == NodeType.FIELD) ? filter.fieldNames : filter.methodNames;
+        return names == null || names.mightContain(name.hashCode());
+    }
+
+    /**
+     * Get the lookup filters, building them again if the tables have changed
+     * since, or null while members are still pending.
+     */
+    private LookupFilter getLookupFilter() {
+        if (!pendingMembers.isEmpty()) {
+            return null;
+        }
+
+        LookupFilter filter = lookupFilter;
+        int modCount = modCount();
+        if (filter == null || filter.modCount != modCount) {
+            filter = new LookupFilter(this, modCount);
+            lookupFilter = filter;
+        }
+        return filter;
+    }
+
+    /**
+     * Hash the outermost class of a name, so that nested classes which are
+     * only mapped through their outer class are found by the class filter.
+     * Equal to {@link String#hashCode()} of the part before the first '$'.
+     */
+    private static int outerHash(String className) {
+        int index = className.indexOf('$');
+        if (index == -1) {
+            return className.hashCode();
+        }
+
+        int hash = 0;
+        for (int i = 0; i < index; i++) {
+            hash = 31 * hash + className.charAt(i);
+        }
+        return hash;
+    }
+
+    @Override
+    public String tryClimb(NodeType type, String owner, String name, String desc, int access) {
+        loadMembers(owner);
+
+        String mapped = findMember(type, owner, name, desc);
+        if (mapped != null || (access != -1 && (Modifier.isPrivate(access) || Modifier.isStatic(access)))) {
+            return mapped;
+        }
+
+        ConcurrentMap<ClimbKey, String> cache = getClimbCache();
+        ClimbKey key = new ClimbKey(type, owner, name, desc);
+        mapped = cache.get(key);
+        if (mapped == null) {
+            mapped = climb(type, owner, name, desc);
+            cache.put(key, (mapped == null) ? UNMAPPED : mapped);
+        }
+        return (mapped == UNMAPPED) ? null : mapped;
+    }
+
+    private String findMember(NodeType type, String owner, String name, String desc) {
+        if (type == NodeType.FIELD) {
+            String mapped = (desc != null) ? fieldMap.get(owner, name, desc) : null;
+            return (mapped != null) ? mapped : fieldMap.get(owner, name, null);
+        }
+        return methodMap.get(owner, name, desc);
+    }
+
+    /**
+     * Look for a member through the super classes and interfaces of a class,
+     * depth first in the order they are declared, visiting each at most once
+     * even where interfaces are inherited along more than one path.
+     */
+    private String climb(NodeType type, String owner, String name, String desc) {
+        Set<String> visited = new HashSet<String>();
+        Deque<String> stack = new ArrayDeque<String>();
+        visited.add(owner);
+        pushParents(stack, owner);
+        while (!stack.isEmpty()) {
+            String current = stack.pop();
+            if (!visited.add(current)) {
+                continue;
+            }
+
+            loadMembers(current);
+            String mapped = findMember(type, current, name, desc);
+            if (mapped != null) {
+                return mapped;
             }
+            pushParents(stack, current);
         }
+        return null;
+    }
 
-        return false;
+    private void pushParents(Deque<String> stack, String owner) {
+        Collection<String> parents = getParents(owner);
+        if (parents != null) {
+            // Reversed, so that the first parent is taken first
+            List<String> list = (parents instanceof List) ? (List<String>) parents : new ArrayList<String>(parents);
+            for (int i = list.size() - 1; i >= 0; i--) {
+                stack.push(list.get(i));
+            }
+        }
     }
 
+    /**
+     * Get the results of climbing, which are kept until any mappings are
+     * added or removed, other than by loading lazy members, or the
+     * inheritance map is changed or replaced, or the fallback provider is
+     * replaced.
+     */
+    private ConcurrentMap<ClimbKey, String> getClimbCache() {
+        ClimbCache cache = climbCache;
+        int modCount = modCount() - lazyModCount;
+        int inheritanceModCount = inheritanceMap.getModCount() - fallbackModCount;
+        if (cache == null || cache.modCount != modCount || cache.inheritanceMap != inheritanceMap || cache.inheritanceModCount != inheritanceModCount || cache.provider != fallbackInheritanceProvider) {
+            cache = new ClimbCache(modCount, inheritanceMap, inheritanceModCount, fallbackInheritanceProvider);
+            climbCache = cache;
+        }
+        return cache.results;
+    }
+
+    /**
+     * Get the super class and interfaces of a class, from the inheritance map
+     * or else the fallback inheritance provider.
+     *
+     * @return the parents, or null if they are not known
+     */
+    Collection<String> getParents(String owner) {
+        Collection<String> parents = null;
+        if (inheritanceMap.hasParents(owner)) {
+            parents = inheritanceMap.getParents(owner);
+        } else if (fallbackInheritanceProvider != null && isFrozen()) {
+            parents = fallbackParents.get(owner);
+            if (parents == null) {
+                parents = fallbackInheritanceProvider.getParents(owner);
+                fallbackParents.put(owner, (parents == null) ? Collections.<String>emptyList() : new ArrayList<String>(parents));
+            }
+        } else if (fallbackInheritanceProvider != null) {
+            parents = fallbackInheritanceProvider.getParents(owner);
+            int before = inheritanceMap.getModCount();
+            inheritanceMap.setParents(owner, parents);
+            fallbackModCount += inheritanceMap.getModCount() - before;
+        }
+        return parents;
+    }
+
+    /**
+     * Find a mapping by its string key, see
+     * {@link #tryClimb(NodeType, String, String, String, int)}.
+     *
+     * @param name the member name, followed by a space and the descriptor for
+     * methods
+     */
     public String tryClimb(Map<String, String> map, NodeType type, String owner, String name, String desc, int access) {
+        if (map == fields && type == NodeType.FIELD) {
+            return tryClimb(type, owner, name, desc, access);
+        }
+        if (map == methods && type == NodeType.METHOD && desc == null && name.indexOf(' ') != -1) {
+            int space = name.indexOf(' ');
+            return tryClimb(type, owner, name.substring(0, space), name.substring(space + 1), access);
+        }
+
+        loadMembers(owner);
         String key = owner + "/" + name;
 
         String mapped = (desc != null) ? map.get(key + "/" + desc) : null;
@@ -104,15 +605,7 @@ public class JarMapping {
             mapped = map.get(key);
         }
         if (mapped == null && (access == -1 || (!Modifier.isPrivate(access) && !Modifier.isStatic(access)))) {
-            Collection<String> parents = null;
-
-            if (inheritanceMap.hasParents(owner)) {
-                parents = inheritanceMap.getParents(owner);
-            } else if (fallbackInheritanceProvider != null) {
-                parents = fallbackInheritanceProvider.getParents(owner);
-                inheritanceMap.setParents(owner, parents);
-            }
-
+            Collection<String> parents = getParents(owner);
             if (parents != null) {
                 // climb the inheritance tree
                 for (String parent : parents) {
@@ -171,41 +664,198 @@ public class JarMapping {
         File methodsCsv = FileLocator.getFile(dirname + sep + "methods.csv");
         File packagesCsv = FileLocator.getFile(dirname + sep + "packages.csv"); // FML repackaging, optional
 
-        MinecraftCodersPack outputTransformer;
-        MappingTransformer inputTransformer;
-
-        if (numericSrgNames) {
-            // Wants numeric "srg" names -> descriptive "csv" names. To accomplish this:
-            // 1. load obf->mcp (descriptive "csv") as chainMappings
-            // 2. load again but chaining input (obf) through mcp, and ignoring csv on output
-            // 3. result: mcp->srg, similar to MCP ./reobfuscate --srgnames
-            JarMapping chainMappings = new JarMapping();
-            chainMappings.loadMappingsDir(dirname, reverse, false/*ignoreCsv*/, false/*numeric*/);
-            inputTransformer = new ChainingTransformer(new JarRemapper(chainMappings));
-            ignoreCsv = true; // keep numeric srg as output
-        } else {
-            inputTransformer = null;
-        }
-
+        MinecraftCodersPack outputTransformer = null;
         if (fieldsCsv.exists() && methodsCsv.exists()) {
             outputTransformer = new MinecraftCodersPack(ignoreCsv ? null : fieldsCsv, ignoreCsv ? null : methodsCsv, packagesCsv);
-        } else {
-            outputTransformer = null;
         }
 
+        if (!numericSrgNames) {
+            for (File srg : srgFiles) {
+                loadMappings(srg, null, outputTransformer, reverse);
+            }
+            return;
+        }
+
+        // Wants numeric "srg" names -> descriptive "csv" names. To accomplish this:
+        // 1. load obf->mcp (descriptive "csv") as chainMappings
+        // 2. load again but chaining input (obf) through mcp, and ignoring csv on output
+        // 3. result: mcp->srg, similar to MCP ./reobfuscate --srgnames
+        // Each srg and csv file is only parsed once, and used for both steps.
+        List<RecordedMappings> recorded = new ArrayList<RecordedMappings>();
         for (File srg : srgFiles) {
-            loadMappings(new BufferedReader(new FileReader(srg)), inputTransformer, outputTransformer, reverse);
+            recorded.add(RecordedMappings.read(srg));
+        }
+
+        JarMapping chainMappings = new JarMapping();
+        for (RecordedMappings srg : recorded) {
+            chainMappings.loadMappings(srg, null, outputTransformer, reverse);
         }
+
+        MappingTransformer inputTransformer = new ChainingTransformer(new JarRemapper(chainMappings));
+        // keep numeric srg as output
+        MinecraftCodersPack numericOutputTransformer = (outputTransformer == null) ? null : outputTransformer.withoutNames();
+        for (RecordedMappings srg : recorded) {
+            loadMappings(srg, inputTransformer, numericOutputTransformer, reverse);
+        }
+    }
+
+    private void loadMappings(RecordedMappings recorded, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse) {
+        loadAllMembers();
+        LoadContext context = new LoadContext(this, recorded.getFormat(), inputTransformer, outputTransformer, reverse);
+        recorded.replay(context);
+        context.completeClasses();
     }
 
     public void loadMappings(File file) throws IOException {
-        loadMappings(new FileInputStream(file));
+        loadMappings(file, null, null, false);
     }
 
     public void loadMappings(InputStream stream) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
-            loadMappings(reader, null, null, false);
+        try (ReadableByteChannel channel = Channels.newChannel(stream)) {
+            loadMappings(channel, null, null, false);
+        }
+    }
+
+    /**
+     * Load a mapping file directly from disk, which may be gzip or zip
+     * compressed, see
+     * {@link #loadMappings(BufferedReader, MappingTransformer, MappingTransformer, boolean)}
+     */
+    public void loadMappings(File file, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (CompiledMapping.isCompiled(channel)) {
+                if (inputTransformer != null || outputTransformer != null || reverse) {
+                    throw new IllegalArgumentException("loadMappings(" + file + "): compiled mappings cannot be transformed or reversed");
+                }
+
+                loadMappings(CompiledMapping.open(file));
+                return;
+            } else if (!FileLocator.isCompressed(file)) {
+                loadMappings(channel, inputTransformer, outputTransformer, reverse);
+                return;
+            }
+        }
+
+        // Decompress straight into the parser
+        try (ReadableByteChannel channel = Channels.newChannel(FileLocator.openStream(file))) {
+            loadMappings(channel, inputTransformer, outputTransformer, reverse);
+        }
+    }
+
+    /**
+     * Add all the entries of a compiled mapping, with the same duplicate
+     * checks as {@link #merge(JarMapping)}.
+     */
+    public void loadMappings(CompiledMapping compiled) {
+        checkNotFrozen();
+        loadAllMembers();
+        final boolean checkDuplicates = compiled.isSrg();
+        compiled.forEachPackage((key, value) -> mergeEntry("package", packages, key, value, checkDuplicates));
+        compiled.forEachClass((key, value) -> mergeEntry("class", classes, key, value, checkDuplicates));
+        compiled.forEachField((key, value) -> mergeEntry("field", fields, key, value, checkDuplicates));
+        compiled.forEachMethod((key, value) -> mergeEntry("method", methods, key, value, checkDuplicates));
+        loadedSrg |= checkDuplicates;
+    }
+
+    /**
+     * Load a text mapping file through a compiled copy kept next to it, which
+     * is rebuilt whenever the file contents, loading options or the version
+     * of the parser or compiled format change.
+     */
+    private void loadMappingsCached(File file, boolean reverse, String inShadeRelocation, String outShadeRelocation) throws IOException {
+        byte[] key = cacheKey(file, reverse, inShadeRelocation, outShadeRelocation);
+        File cacheFile = new File(file.getPath() + ".ssm");
+        CompiledMapping compiled = openCache(cacheFile, key);
+        if (compiled != null) {
+            loadMappings(compiled);
+        } else {
+            merge(compileCache(file, reverse, inShadeRelocation, outShadeRelocation, cacheFile, key));
+        }
+    }
+
+    /**
+     * Open a mapping file as a {@link CompiledMapping}, to remap with directly
+     * rather than loading it into this mapping. Text files are compiled
+     * through the same cache as
+     * {@link #loadMappings(String, boolean, boolean, String, String)}, with
+     * the packages excluded from this mapping, and are compiled in memory
+     * whenever they are not already in the cache.
+     *
+     * @param filename a mapping file, local or remote
+     */
+    public CompiledMapping openCompiled(String filename, boolean reverse, String inShadeRelocation, String outShadeRelocation) throws IOException {
+        File file = FileLocator.getFile(filename);
+        if (isCompiled(file)) {
+            if (inShadeRelocation != null || outShadeRelocation != null || reverse) {
+                throw new IllegalArgumentException("openCompiled(" + filename + "): compiled mappings cannot be transformed or reversed");
+            }
+            return CompiledMapping.open(file);
+        }
+
+        byte[] key = cacheKey(file, reverse, inShadeRelocation, outShadeRelocation);
+        File cacheFile = new File(file.getPath() + ".ssm");
+        CompiledMapping compiled = CompiledMapping.useCache ? openCache(cacheFile, key) : null;
+        if (compiled == null) {
+            // Mapped from the cache next time, and compiled in memory this time
+            compiled = CompiledMapping.compile(compileCache(file, reverse, inShadeRelocation, outShadeRelocation, CompiledMapping.useCache ? cacheFile : null, key));
+        }
+        return compiled;
+    }
+
+    private byte[] cacheKey(File file, boolean reverse, String inShadeRelocation, String outShadeRelocation) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(CompiledMapping.VERSION);
+        hasher.putInt(PARSER_VERSION);
+        try (InputStream in = new FileInputStream(file)) {
+            ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+        }
+        hasher.putBoolean(reverse);
+        hasher.putString(String.valueOf(inShadeRelocation), StandardCharsets.UTF_8);
+        hasher.putString(String.valueOf(outShadeRelocation), StandardCharsets.UTF_8);
+        for (String excluded : new TreeSet<>(excludedPackages)) {
+            hasher.putString(excluded, StandardCharsets.UTF_8);
+        }
+        return hasher.hash().asBytes();
+    }
+
+    /**
+     * Open a cached compiled mapping, if there is one with the given key.
+     */
+    private static CompiledMapping openCache(File cacheFile, byte[] key) {
+        if (cacheFile.isFile()) {
+            try {
+                CompiledMapping compiled = CompiledMapping.open(cacheFile);
+                if (Arrays.equals(key, compiled.getKey())) {
+                    SpecialSource.log("Using compiled mappings " + cacheFile);
+                    return compiled;
+                }
+            } catch (IOException ex) {
+                SpecialSource.log("Ignoring unreadable compiled mappings " + cacheFile + ": " + ex);
+            }
         }
+        return null;
+    }
+
+    /**
+     * Parse a text mapping file on its own, and write it to the cache.
+     *
+     * @param cacheFile the cached copy to write, or null to only parse
+     */
+    private JarMapping compileCache(File file, boolean reverse, String inShadeRelocation, String outShadeRelocation, File cacheFile, byte[] key) throws IOException {
+        JarMapping partial = new JarMapping();
+        partial.excludedPackages.addAll(excludedPackages);
+        partial.loadMappings(file,
+                (inShadeRelocation == null) ? null : new MavenShade(inShadeRelocation),
+                (outShadeRelocation == null) ? null : new MavenShade(outShadeRelocation),
+                reverse);
+        if (cacheFile != null) {
+            try {
+                CompiledMapping.write(partial, cacheFile, key);
+            } catch (IOException ex) {
+                SpecialSource.log("Unable to write compiled mappings " + cacheFile + ": " + ex);
+            }
+        }
+        return partial;
     }
 
     /**
@@ -220,6 +870,7 @@ public class JarMapping {
      * @throws IOException
      */
     public void loadMappings(String filename, boolean reverse, boolean numericSrgNames, String inShadeRelocation, String outShadeRelocation) throws IOException {
+        checkNotFrozen();
         // Optional shade relocation, on input or output names
         MappingTransformer inputTransformer = null;
         MappingTransformer outputTransformer = null;
@@ -247,347 +898,642 @@ public class JarMapping {
                 throw new IllegalArgumentException("loadMappings(" + filename + "): numeric only supported on directories, not files");
             }
 
-            try (BufferedReader reader = new BufferedReader(new FileReader(FileLocator.getFile(filename)))) {
-                loadMappings(reader, inputTransformer, outputTransformer, reverse);
+            File file = FileLocator.getFile(filename);
+            if (CompiledMapping.useCache && !lazyMembers && !isCompiled(file)) {
+                loadMappingsCached(file, reverse, inShadeRelocation, outShadeRelocation);
+            } else {
+                loadMappings(file, inputTransformer, outputTransformer, reverse);
             }
         }
     }
 
+    private static boolean isCompiled(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return CompiledMapping.isCompiled(channel);
+        }
+    }
+
     /**
-     * Load a mapping given a .csrg file
+     * Load several mappings, as if each were passed to
+     * {@link #loadMappings(String, boolean, boolean, String, String)} in turn.
+     * With more than one thread, see {@link #setThreads(int)}, the files are
+     * parsed concurrently into separate mappings, which are then merged into
+     * this one in the order given.
      *
-     * @param reader Mapping file reader
-     * @param inputTransformer Transformation to apply on input
-     * @param outputTransformer Transformation to apply on output
-     * @param reverse Swap input and output mappings (after applying any
-     * input/output transformations)
-     * @throws IOException
+     * @param filenames Filenames of .srg/.csrg files or MCP directories
+     * @see #loadMappings(String, boolean, boolean, String, String)
      */
-    public void loadMappings(BufferedReader reader, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse) throws IOException {
-        if (inputTransformer == null) {
-            inputTransformer = MavenShade.IDENTITY;
+    public void loadMappings(List<String> filenames, final boolean reverse, final boolean numericSrgNames, final String inShadeRelocation, final String outShadeRelocation) throws IOException {
+        if (filenames.size() == 1 || threads == 1) {
+            for (String filename : filenames) {
+                loadMappings(filename, reverse, numericSrgNames, inShadeRelocation, outShadeRelocation);
+            }
+            return;
         }
-        if (outputTransformer == null) {
-            outputTransformer = MavenShade.IDENTITY;
+
+        List<JarMapping> partials;
+        try {
+            partials = parallel(() -> filenames.parallelStream().map(filename -> {
+                JarMapping partial = new JarMapping();
+                partial.excludedPackages.addAll(excludedPackages);
+                partial.lazyMembers = lazyMembers;
+                partial.threads = threads;
+                try {
+                    partial.loadMappings(filename, reverse, numericSrgNames, inShadeRelocation, outShadeRelocation);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return partial;
+            }).collect(Collectors.toList()));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
         }
 
-        List<String> lines = new ArrayList<>();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            int commentIndex = line.indexOf('#');
-            if (commentIndex != -1) {
-                line = line.substring(0, commentIndex);
-            }
-            if (line.isEmpty()) {
-                continue;
-            }
-            lines.add(line);
+        for (JarMapping partial : partials) {
+            merge(partial);
         }
+    }
 
-        ProgressMeter meter = new ProgressMeter(lines.size() * 2, "Loading mappings... %2.0f%%");
+    /**
+     * Add all the mappings of another mapping to this one, with later mappings
+     * replacing earlier ones. If the other mapping was loaded from a standard
+     * srg file, conflicting entries are rejected just as they would have been
+     * when loading it directly.
+     */
+    public void merge(JarMapping other) {
+        checkNotFrozen();
+        if (!other.fields.isEmpty() || !other.methods.isEmpty()) {
+            // Members loaded later must replace any which are still pending
+            loadAllMembers();
+        }
 
-        //Gather class mappings here so that we can support reversing csrg/tsrg.
-        final Map<String, String> clsMap = new HashMap<>();
-        final Map<String, String> prgMap = new HashMap<>();
-        for (String l : lines) {
-            if (l.endsWith(":")) {
-                String[] parts = l.split(" -> ");
-                String orig = parts[0].replace('.', '/');
-                String obf = parts[1].substring(0, parts[1].length() - 1).replace('.', '/');
+        mergeMap("package", packages, other.packages, other.loadedSrg);
+        mergeMap("class", classes, other.classes, other.loadedSrg);
+        mergeMembers("field", fieldMap, other.fieldMap, other.loadedSrg);
+        mergeMembers("method", methodMap, other.methodMap, other.loadedSrg);
+        loadedSrg |= other.loadedSrg;
+        pendingMembers.addAll(other.pendingMembers);
+    }
 
-                clsMap.put(obf, orig);
-                prgMap.put(orig, obf);
-            } else if (l.contains(":")) {
-                if (!l.startsWith("CL:")) {
-                    continue;
-                }
-                String[] tokens = l.split(" ");
-                clsMap.put(tokens[0], tokens[1]);
-            } else {
-                if (l.startsWith("\t")) {
-                    continue;
-                }
-                String[] tokens = l.split(" ");
-                if (tokens.length == 2) {
-                    clsMap.put(tokens[0], tokens[1]);
-                }
+    private static void mergeMap(String kind, Map<String, String> target, Map<String, String> source, boolean checkDuplicates) {
+        if (checkDuplicates) {
+            for (Map.Entry<String, String> entry : source.entrySet()) {
+                checkDuplicate(kind, target, entry.getKey(), entry.getValue());
             }
-            meter.makeProgress();
         }
 
-        // We use a Remapper so that we don't have to duplicate the logic of remapping method descriptors.
-        Remapper reverseMapper = new Remapper() {
-            @Override
-            public String map(String cls) {
-                return clsMap.getOrDefault(cls, cls);
-            }
-        };
+        target.putAll(source);
+    }
 
-        for (String l : lines) {
-            if (l.startsWith("tsrg2")) {
-                continue;
+    private static void mergeMembers(final String kind, final MemberMap target, MemberMap source, final boolean checkDuplicates) {
+        source.forEachMember((owner, name, desc, value) -> {
+            if (checkDuplicates) {
+                checkDuplicate(kind, target, owner, name, desc, value);
             }
-            if (l.contains(" -> ")) {
-                parseProguardLine(l, inputTransformer, outputTransformer, reverse, reverseMapper, prgMap);
-            } else if (l.contains(":")) {
-                // standard srg
-                parseSrgLine(l, inputTransformer, outputTransformer, reverse);
-            } else {
-                // better 'compact' srg format
-                parseCsrgLine(l, inputTransformer, outputTransformer, reverse, reverseMapper);
-            }
-            meter.makeProgress();
+            target.put(owner, name, desc, value);
+        });
+        mergeMap(kind, target, source.getUnsplit(), checkDuplicates);
+    }
+
+    private static void checkDuplicate(String kind, MemberMap target, String owner, String name, String desc, String value) {
+        String existing = target.get(owner, name, desc);
+        if (existing != null && !existing.equals(value)) {
+            throw new IllegalArgumentException("Duplicate " + kind + " mapping: " + target.toKey(owner, name, desc) + " -> " + value
+                    + " but already mapped to " + existing);
+        }
+    }
+
+    private static void mergeEntry(String kind, Map<String, String> target, String key, String value, boolean checkDuplicates) {
+        if (checkDuplicates) {
+            checkDuplicate(kind, target, key, value);
+        }
+
+        target.put(key, value);
+    }
+
+    private static void checkDuplicate(String kind, Map<String, String> target, String key, String value) {
+        String existing = target.get(key);
+        if (existing != null && !existing.equals(value)) {
+            throw new IllegalArgumentException("Duplicate " + kind + " mapping: " + key + " -> " + value
+                    + " but already mapped to " + existing);
         }
+    }
+
+    /**
+     * Remove the class, field and method mappings which can never be used
+     * when remapping the jar the references were collected from. Package
+     * mappings and field keys which could not be split into owner, name and
+     * descriptor are kept. Any members still pending are loaded first.
+     *
+     * @return the number of mappings removed
+     */
+    public int prune(final JarReferences references) {
+        checkNotFrozen();
+        loadAllMembers();
+        int before = classes.size() + fields.size() + methods.size();
+
+        classes.entrySet().removeIf(entry -> !references.isClassReferenced(entry.getKey()));
+        pruneMembers(fieldMap, references);
+        pruneMembers(methodMap, references);
 
-        currentClass = null;
+        return before - (classes.size() + fields.size() + methods.size());
     }
 
-    private static final Pattern MEMBER_PATTERN = Pattern.compile("(?:\\d+:\\d+:)?(.*?) (.*?) \\-> (.*)");
-    private void parseProguardLine(String line, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse, Remapper reverseMap, Map<String, String> prgMap) throws IOException {
-        //Tsrg format, identical to Csrg, except the field and method lines start with \t and should use the last class the was parsed.
-        if (line.startsWith("    ")) {
-            if (this.currentClass == null) {
-                throw new IOException("Invalid proguard file, tsrg field/method line before class line: " + line);
+    private static void pruneMembers(MemberMap map, final JarReferences references) {
+        final List<String[]> unused = new ArrayList<String[]>();
+        map.forEachMember((owner, name, desc, value) -> {
+            if (!references.isMemberReferenced(owner, name, desc)) {
+                unused.add(new String[]{owner, name, desc});
             }
-            line = line.trim();
+        });
+        for (String[] member : unused) {
+            map.remove(member[0], member[1], member[2]);
         }
+    }
 
-        if (line.endsWith(":")) {
-            String[] parts = line.split(" -> ");
-            String orig = parts[0].replace('.', '/');
-            String obf = parts[1].substring(0, parts[1].length() - 1).replace('.', '/');
+    /**
+     * Write out every package, class, field and method mapping, with the new
+     * owners and descriptors of members worked out from the class mappings.
+     * Package mappings are only written when there are any. Field keys which
+     * could not be split into owner, name and descriptor are left out.
+     */
+    public void writeTo(final MappingWriter writer) {
+        loadAllMembers();
+        final JarRemapper remapper = new JarRemapper(this);
 
-            String oldClassName = inputTransformer.transformClassName(obf);
-            String newClassName = outputTransformer.transformClassName(orig);
+        for (Map.Entry<String, String> entry : packages.entrySet()) {
+            writer.addPackageMap(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : classes.entrySet()) {
+            writer.addClassMap(entry.getKey(), entry.getValue());
+        }
+        fieldMap.forEachMember((owner, name, desc, value) -> writer.addFieldMap(
+                new Ownable(NodeType.FIELD, owner, name, desc, 0),
+                new Ownable(NodeType.FIELD, remapper.map(owner), value, (desc == null) ? null : remapper.mapDesc(desc), 0)));
+        methodMap.forEachMember((owner, name, desc, value) -> writer.addMethodMap(
+                new Ownable(NodeType.METHOD, owner, name, desc, 0),
+                new Ownable(NodeType.METHOD, remapper.map(owner), value, remapper.mapMethodDesc(desc), 0)));
+    }
 
-            if (oldClassName.endsWith("/")) {
-                // Special case: mapping an entire hierarchy of classes
-                if (reverse) {
-                    packages.put(newClassName, oldClassName.substring(0, oldClassName.length() - 1));
-                } else {
-                    packages.put(oldClassName.substring(0, oldClassName.length() - 1), newClassName);
-                }
-            } else {
-                if (reverse) {
-                    classes.put(newClassName, oldClassName);
-                } else {
-                    classes.put(oldClassName, newClassName);
-                }
-                currentClass = obf;
+    boolean isSrgLoaded() {
+        return loadedSrg;
+    }
+
+    /**
+     * Load a mapping given a .srg/.csrg/.tsrg/proguard file, the format is
+     * worked out from the start of the file, see {@link MappingFormats}.
+     *
+     * @param reader Mapping file reader
+     * @param inputTransformer Transformation to apply on input
+     * @param outputTransformer Transformation to apply on output
+     * @param reverse Swap input and output mappings (after applying any
+     * input/output transformations)
+     * @throws IOException
+     */
+    public void loadMappings(BufferedReader reader, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse) throws IOException {
+        loadMappings(new LineTokenizer(reader), inputTransformer, outputTransformer, reverse, null);
+    }
+
+    /**
+     * Load a mapping from a channel of .srg/.csrg/.tsrg/proguard data, which
+     * is read in a single pass without decoding the whole file into lines.
+     *
+     * @see #loadMappings(BufferedReader, MappingTransformer, MappingTransformer, boolean)
+     */
+    public void loadMappings(ReadableByteChannel channel, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse) throws IOException {
+        checkNotFrozen();
+        ProgressMeter meter = null;
+        if (channel instanceof FileChannel) {
+            long size = ((FileChannel) channel).size();
+            if (lazyMembers && size <= Integer.MAX_VALUE) {
+                loadMappingsLazy(((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, 0, size), inputTransformer, outputTransformer, reverse);
+                return;
             }
-        } else {
-            Matcher matcher = MEMBER_PATTERN.matcher(line);
-            matcher.find();
-
-            String obfName = matcher.group(3);
-            String nameDesc = matcher.group(2);
-            if (nameDesc.contains("(")) {
-                String desc = ProguardUtil.csrgDesc(prgMap, nameDesc.substring(nameDesc.indexOf('(')), matcher.group(1));
-                String newName = nameDesc.substring(0, nameDesc.indexOf('('));
-
-                // System.out.println( lastClass + " " + matcher.group( 3 ) + " " + sig + " " + mojName );
-                String oldClassName = inputTransformer.transformClassName(currentClass);
-                String oldMethodName = inputTransformer.transformMethodName(currentClass, obfName, desc);
-                String oldMethodDescriptor = inputTransformer.transformMethodDescriptor(desc);
-                String newMethodName = outputTransformer.transformMethodName(currentClass, newName, desc);
-
-                if (reverse) {
-                    String newClassName = reverseMap.map(oldClassName);
-                    if (newClassName.equals(oldClassName)) {
-                        // throw new IOException("Invalid csrg file line, could not be reversed: " + line);
-                    }
-                    oldClassName = newClassName;
-                    oldMethodDescriptor = reverseMap.mapMethodDesc(oldMethodDescriptor);
 
-                    String temp = newMethodName;
-                    newMethodName = oldMethodName;
-                    oldMethodName = temp;
-                }
+            meter = new ProgressMeter((int) Math.min(Math.max(size, 1), Integer.MAX_VALUE), "Loading mappings... %2.0f%%");
 
-                methods.put(oldClassName + "/" + oldMethodName + " " + oldMethodDescriptor, newMethodName);
-            } else {
-                String desc = ProguardUtil.toJVMType(prgMap, matcher.group(1));
+            if (threads > 1 && size >= PARALLEL_THRESHOLD && size <= Integer.MAX_VALUE) {
+                loadMappingsParallel(((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, 0, size), inputTransformer, outputTransformer, reverse, meter);
+                return;
+            }
+        }
 
-                String oldClassName = inputTransformer.transformClassName(currentClass);
-                String oldFieldName = inputTransformer.transformFieldName(currentClass, obfName);
-                String oldFieldDescriptor = inputTransformer.transformMethodDescriptor(desc);
-                String newFieldName = outputTransformer.transformFieldName(currentClass, nameDesc);
+        loadMappings(new LineTokenizer(channel), inputTransformer, outputTransformer, reverse, meter);
+    }
 
-                if (reverse) {
-                    String newClassName = reverseMap.map(oldClassName);
-                    if (newClassName.equals(oldClassName)) {
-                        // throw new IOException("Invalid csrg file line, could not be reversed: " + line);
-                    }
-                    oldClassName = newClassName;
-                    oldFieldDescriptor = reverseMap.mapDesc(oldFieldDescriptor);
+    private void loadMappings(LineTokenizer line, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse, ProgressMeter meter) throws IOException {
+        checkNotFrozen();
+        loadAllMembers();
+        MappingFormat format = MappingFormats.detect(line.peek(MappingFormats.HEADER_SIZE));
+        LoadContext context = new LoadContext(this, format, inputTransformer, outputTransformer, reverse);
 
-                    String temp = newFieldName;
-                    newFieldName = oldFieldName;
-                    oldFieldName = temp;
-                }
+        parseLines(line, format.newParser(context), meter);
 
-                fields.put(oldClassName + "/" + oldFieldName + "/" + oldFieldDescriptor, newFieldName);
+        // Now that every class has been seen, finish off the members which needed the full class map
+        context.completeClasses();
+    }
+
+    private static void parseLines(LineTokenizer line, MappingParser parser, ProgressMeter meter) throws IOException {
+        long consumed = 0;
+        while (line.next()) {
+            parser.parseLine(line);
+
+            if (meter != null) {
+                meter.makeProgress((int) (line.getConsumed() - consumed));
+                consumed = line.getConsumed();
             }
         }
     }
 
     /**
-     * Parse a 'csrg' mapping format line and populate the data structures
+     * Files larger than this are split into chunks which are parsed
+     * concurrently, when parsing on more than one thread.
      */
-    private void parseCsrgLine(String line, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse, Remapper reverseMap) throws IOException {
-        //Tsrg format, identical to Csrg, except the field and method lines start with \t and should use the last class the was parsed.
-        if (line.startsWith("\t\t")) {
-            // Two tabs means the format is Tsrgv2 with parameters and extra data that isn't needed.
-            return;
+    private static final int PARALLEL_THRESHOLD = 1 << 22;
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Parse a whole mapping file on {@link #threads} threads. The file is
+     * cut into chunks at class lines (any line which is not indented), so that
+     * every tsrg/proguard member line stays in the same chunk as its class.
+     * Each chunk is parsed into its own mapping, and these are merged back in
+     * file order once the members which need the complete class map have been
+     * added.
+     */
+    private void loadMappingsParallel(ByteBuffer buffer, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse, final ProgressMeter meter) throws IOException {
+        final MappingFormat format = MappingFormats.detect(header(buffer));
+        int chunkCount = (int) Math.min(threads * 4L, buffer.limit() / MIN_CHUNK_SIZE);
+        List<ByteBuffer> chunks = splitAtClasses(buffer, Math.max(chunkCount, 1));
+
+        List<JarMapping> partials = new ArrayList<>();
+        List<LoadContext> contexts = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            JarMapping partial = new JarMapping();
+            partial.excludedPackages.addAll(excludedPackages);
+            partials.add(partial);
+            contexts.add(new LoadContext(partial, format, inputTransformer, outputTransformer, reverse));
         }
-        if (line.startsWith("\t")) {
-            if (this.currentClass == null) {
-                throw new IOException("Invalid tsrg file, tsrg field/method line before class line: " + line);
-            }
-            line = currentClass + " " + line.substring(1);
+
+        try {
+            parallel(() -> {
+                IntStream.range(0, chunks.size()).parallel().forEach(i -> {
+                    LineTokenizer line = new LineTokenizer(chunks.get(i));
+                    try {
+                        parseLines(line, format.newParser(contexts.get(i)), null);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+
+                    synchronized (meter) {
+                        meter.makeProgress(chunks.get(i).limit());
+                    }
+                });
+                return null;
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        // Deferred members are looked up against the classes of the whole file
+        final LoadContext combined = new LoadContext(this, format, inputTransformer, outputTransformer, reverse);
+        for (LoadContext context : contexts) {
+            combined.clsMap.putAll(context.clsMap);
+            combined.oldClassNames.putAll(context.oldClassNames);
         }
+        for (LoadContext context : contexts) {
+            context.classSource = combined;
+        }
+        parallel(() -> {
+            IntStream.range(0, chunks.size()).parallel().forEach(i -> contexts.get(i).completeClasses());
+            return null;
+        });
 
-        String[] tokens = line.split(" ");
+        for (JarMapping partial : partials) {
+            merge(partial);
+        }
+    }
 
-        if (tokens.length == 2) {
-            String oldClassName = inputTransformer.transformClassName(tokens[0]);
-            String newClassName = outputTransformer.transformClassName(tokens[1]);
+    private static ByteBuffer header(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate();
+        header.position(0).limit(Math.min(buffer.limit(), MappingFormats.HEADER_SIZE));
+        return header.slice();
+    }
 
-            if (reverse) {
-                String temp = newClassName;
-                newClassName = oldClassName;
-                oldClassName = temp;
+    private static List<ByteBuffer> splitAtClasses(ByteBuffer buffer, int chunkCount) {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        int limit = buffer.limit();
+        int start = 0;
+        for (int i = 1; i <= chunkCount && start < limit; i++) {
+            int end = (i == chunkCount) ? limit : nextClassLine(buffer, Math.max(start, (int) ((long) limit * i / chunkCount)));
+            if (end > start) {
+                ByteBuffer chunk = buffer.duplicate();
+                chunk.position(start).limit(end);
+                chunks.add(chunk.slice());
+                start = end;
             }
+        }
+        return chunks;
+    }
 
-            if (oldClassName.endsWith("/")) {
-                if (isExcludedPackage(oldClassName)) {
-                    SpecialSource.log("Ignored PK: " + oldClassName + " " + newClassName);
-                    return;
-                }
+    /**
+     * Find the start of the first line at or after the given position which
+     * begins with a token, skipping indented lines, comments and blank lines.
+     */
+    private static int nextClassLine(ByteBuffer buffer, int position) {
+        int limit = buffer.limit();
+        int i = position;
+        // Move to the start of a line
+        if (i > 0) {
+            while (i < limit && buffer.get(i - 1) != '\n') {
+                i++;
+            }
+        }
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t' && b != '#' && b != '\r' && b != '\n') {
+                return i;
+            }
+            // Skip this line
+            while (i < limit && buffer.get(i) != '\n') {
+                i++;
+            }
+            i++;
+        }
+        return limit;
+    }
 
-                // #96: Add backwards compatibility for './' mappings signifying default package
-                if (newClassName.equals("./")) {
-                    newClassName = ".";
+    /**
+     * Load the packages and classes of a mapping file, and index where the
+     * members of each class are so they can be parsed on first use. Indented
+     * member lines are only tokenized, not parsed, and consecutive lines with
+     * the same owner (such as a tsrg or proguard class block) are kept as a
+     * single range of the file.
+     */
+    private void loadMappingsLazy(ByteBuffer buffer, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse) throws IOException {
+        loadAllMembers();
+        MappingFormat format = MappingFormats.detect(header(buffer));
+        LoadContext context = new LoadContext(this, format, inputTransformer, outputTransformer, reverse);
+        MappingParser parser = format.newParser(context);
+
+        List<MemberRange> ranges = new ArrayList<>();
+        MemberRange range = null;
+        // The class line whose indented member lines are being read, if any
+        MemberRange block = null;
+
+        LineTokenizer line = new LineTokenizer(buffer);
+        int lineStart = 0;
+        while (line.next()) {
+            int lineEnd = (int) line.getConsumed();
+
+            if (line.getIndent() > 0 && block != null) {
+                if (block.end == block.start) {
+                    ranges.add(block);
                 }
-                if (oldClassName.equals("./")) {
-                    oldClassName = ".";
+                block.end = lineEnd;
+            } else {
+                context.indexing = line.getIndent() == 0;
+                context.indexedOwner = null;
+                context.lastClass = null;
+                parser.parseLine(line);
+                context.indexing = false;
+
+                block = null;
+                if (context.indexedOwner != null) {
+                    if (range == null || range.end != lineStart || !range.owner.equals(context.indexedOwner) || !Objects.equals(range.newOwner, context.indexedNewOwner)) {
+                        range = new MemberRange(context.indexedOwner, context.indexedNewOwner, lineStart, lineEnd);
+                        ranges.add(range);
+                    }
+                    range.end = lineEnd;
+                } else if (context.lastClass != null) {
+                    block = new MemberRange(context.lastClass, null, lineStart, lineStart);
                 }
+            }
+            lineStart = lineEnd;
+        }
 
-                // package names always either 1) suffixed with '/', or 2) equal to '.' to signify default package
-                if (!newClassName.equals(".") && !newClassName.endsWith("/")) {
-                    newClassName += "/";
-                }
+        // Every class has been seen now, so reversed owners can be worked out
+        context.completeClasses();
 
-                if (!oldClassName.equals(".") && !oldClassName.endsWith("/")) {
-                    oldClassName += "/";
-                }
+        LazyMembers lazy = new LazyMembers(buffer, format, context);
+        Map<String, List<MemberRange>> byOwner = new HashMap<>();
+        for (MemberRange member : ranges) {
+            byOwner.computeIfAbsent(context.memberOwner(member.owner, member.newOwner), k -> new ArrayList<>()).add(member);
+        }
+        for (Map.Entry<String, List<MemberRange>> entry : byOwner.entrySet()) {
+            lazy.ranges.put(entry.getKey(), entry.getValue());
+        }
 
-                // Special case: mapping an entire hierarchy of classes
-                packages.put(oldClassName, newClassName);
-            } else {
-                currentClass = tokens[0];
-       
-                if (isExcludedPackage(oldClassName)) {
-                    SpecialSource.log("Ignored CL: " + oldClassName + " " + newClassName);
-                    return;
-                }
+        pendingMembers.add(lazy);
+    }
 
-                classes.put(oldClassName, newClassName);
-            }
-        } else if (tokens.length == 3) {
-            String oldClassName = inputTransformer.transformClassName(tokens[0]);
-            String oldFieldName = inputTransformer.transformFieldName(tokens[0], tokens[1]);
-            String newFieldName = outputTransformer.transformFieldName(tokens[0], tokens[2]);
+    /**
+     * Results of climbing, with the state of the mapping they were found in.
+     */
+    private static class ClimbCache {
+
+        private final int modCount;
+        private final InheritanceMap inheritanceMap;
+        private final int inheritanceModCount;
+        private final InheritanceProvider provider;
+        private final ConcurrentMap<ClimbKey, String> results = new ConcurrentHashMap<ClimbKey, String>();
+
+        private ClimbCache(int modCount, InheritanceMap inheritanceMap, int inheritanceModCount, InheritanceProvider provider) {
+            this.modCount = modCount;
+            this.inheritanceMap = inheritanceMap;
+            this.inheritanceModCount = inheritanceModCount;
+            this.provider = provider;
+        }
+    }
 
-            if (reverse) {
-                String newClassName = reverseMap.map(oldClassName);
-                if (newClassName.equals(oldClassName)) {
-                    // throw new IOException("Invalid csrg file line, could not be reversed: " + line);
-                }
-                oldClassName = newClassName;
+    /**
+     * A member looked up by climbing, compared by the names themselves so
+     * that no key string has to be built.
+     */
+    private static final class ClimbKey {
+
+        private final NodeType type;
+        private final String owner;
+        private final String name;
+        private final String desc;
+        private final int hash;
+
+        private ClimbKey(NodeType type, String owner, String name, String desc) {
+            this.type = type;
+            this.owner = owner;
+            this.name = name;
+            this.desc = desc;
+            this.hash = ((type.ordinal() * 31 + owner.hashCode()) * 31 + name.hashCode()) * 31 + Objects.hashCode(desc);
+        }
 
-                String temp = newFieldName;
-                newFieldName = oldFieldName;
-                oldFieldName = temp;
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ClimbKey)) {
+                return false;
             }
+            ClimbKey other = (ClimbKey) obj;
+            return hash == other.hash && type == other.type && owner.equals(other.owner) && name.equals(other.name) && Objects.equals(desc, other.desc);
+        }
 
-            if (isExcludedPackage(oldClassName)) {
-                SpecialSource.log("Ignored FD: " + oldClassName + "/" + oldFieldName + " -> " + newFieldName);
-                return;
-            }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 
-            fields.put(oldClassName + "/" + oldFieldName, newFieldName);
-        } else if (tokens.length == 4) {
-            String oldClassName = inputTransformer.transformClassName(tokens[0]);
-            String oldMethodName = inputTransformer.transformMethodName(tokens[0], tokens[1], tokens[2]);
-            String oldMethodDescriptor = inputTransformer.transformMethodDescriptor(tokens[2]);
-            String newMethodName = outputTransformer.transformMethodName(tokens[0], tokens[3], tokens[2]);
+    private static class LookupFilter {
 
-            if (reverse) {
-                String newClassName = reverseMap.map(oldClassName);
-                if (newClassName.equals(oldClassName)) {
-                    // throw new IOException("Invalid csrg file line, could not be reversed: " + line);
-                }
-                oldClassName = newClassName;
-                oldMethodDescriptor = reverseMap.mapMethodDesc(oldMethodDescriptor);
+        private final int modCount;
+        private final BloomFilter classes;
+        // Null if there are fields which could not be split by name
+        private final BloomFilter fieldNames;
+        private final BloomFilter methodNames;
 
-                String temp = newMethodName;
-                newMethodName = oldMethodName;
-                oldMethodName = temp;
+        private LookupFilter(JarMapping mapping, int modCount) {
+            this.modCount = modCount;
+            this.classes = new BloomFilter(mapping.classes.size());
+            for (String className : mapping.classes.keySet()) {
+                classes.add(outerHash(className));
             }
+            this.fieldNames = mapping.fieldMap.getUnsplit().isEmpty() ? names(mapping.fieldMap) : null;
+            this.methodNames = names(mapping.methodMap);
+        }
 
-            if (isExcludedPackage(oldClassName)) {
-                SpecialSource.log("Ignored MD: " + oldClassName + "/" + oldMethodName + " -> " + newMethodName);
+        private static BloomFilter names(MemberMap map) {
+            final BloomFilter filter = new BloomFilter(map.size());
+            map.forEachMember((owner, name, desc, value) -> filter.add(name.hashCode()));
+            return filter;
+        }
+    }
+
+    /**
+     * The member lines of one lazily loaded mapping file, by owner.
+     */
+    private static class LazyMembers {
+
+        private final ByteBuffer buffer;
+        private final MappingFormat format;
+        // Holds the class maps of the whole file, for resolving members
+        private final LoadContext context;
+        private final Map<String, List<MemberRange>> ranges = new ConcurrentHashMap<>();
+
+        private LazyMembers(ByteBuffer buffer, MappingFormat format, LoadContext context) {
+            this.buffer = buffer;
+            this.format = format;
+            this.context = context;
+        }
+
+        private void load(JarMapping target, String owner) {
+            List<MemberRange> list = ranges.remove(owner);
+            if (list == null) {
                 return;
             }
 
-            methods.put(oldClassName + "/" + oldMethodName + " " + oldMethodDescriptor, newMethodName);
-        } else {
-            throw new IOException("Invalid csrg file line, token count " + tokens.length + " unexpected in " + line);
+            LoadContext replay = new LoadContext(target, format, context.inputTransformer, context.outputTransformer, context.reverse);
+            replay.classSource = context;
+            replay.membersOnly = true;
+            replay.classesComplete = true;
+            for (MemberRange range : list) {
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(range.start).limit(range.end);
+                try {
+                    parseLines(new LineTokenizer(slice.slice()), format.newParser(replay), null);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
         }
     }
 
-    /**
-     * Parse a standard 'srg' mapping format line and populate the data
-     * structures
-     */
-    private void parseSrgLine(String line, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse) throws IOException {
-        String[] tokens = line.split(" ");
-        String kind = tokens[0];
+    private static class MemberRange {
 
-        if (kind.equals("CL:")) {
-            String oldClassName = inputTransformer.transformClassName(tokens[1]);
-            String newClassName = outputTransformer.transformClassName(tokens[2]);
+        // Owner and new owner exactly as written in the file
+        private final String owner;
+        private final String newOwner;
+        // Indented members also include their class line, so the parser knows which class they belong to
+        private final int start;
+        private int end;
 
-            if (reverse) {
-                String temp = newClassName;
-                newClassName = oldClassName;
-                oldClassName = temp;
+        private MemberRange(String owner, String newOwner, int start, int end) {
+            this.owner = owner;
+            this.newOwner = newOwner;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * State for a single call to loadMappings, which adds the entries sent by
+     * the parser to the target mapping.
+     */
+    private static class LoadContext implements MappingSink {
+
+        private final JarMapping target;
+        private final MappingTransformer inputTransformer;
+        private final MappingTransformer outputTransformer;
+        private final boolean reverse;
+        private final boolean checkDuplicates;
+        // Class mappings exactly as read from the file, so that we can support reversing csrg/tsrg.
+        private final Map<String, String> clsMap = new HashMap<>();
+        private final Map<String, String> oldClassNames = new HashMap<>();
+        // The context holding the class mappings of the whole file, which differs when loading a chunk or lazy members
+        private LoadContext classSource = this;
+        private boolean classesComplete;
+        // Only add fields and methods, when replaying lazily loaded members
+        private boolean membersOnly;
+        // Members which can only be added once all the class mappings have been read.
+        private final List<Runnable> deferred = new ArrayList<>();
+        // While indexing lazy members, the raw owner of the last member seen instead of adding it
+        private boolean indexing;
+        private String indexedOwner;
+        private String indexedNewOwner;
+        private String lastClass;
+        // We use a Remapper so that we don't have to duplicate the logic of remapping method descriptors.
+        private final Remapper reverseMapper = new Remapper() {
+            @Override
+            public String map(String cls) {
+                return classSource.clsMap.getOrDefault(cls, cls);
             }
+        };
 
-            if (isExcludedPackage(oldClassName)) {
-                SpecialSource.log("Ignored CL: " + oldClassName + " " + newClassName);
-                return;
+        private LoadContext(JarMapping target, MappingFormat format, MappingTransformer inputTransformer, MappingTransformer outputTransformer, boolean reverse) {
+            this.target = target;
+            this.inputTransformer = (inputTransformer == null) ? MavenShade.IDENTITY : inputTransformer;
+            this.outputTransformer = (outputTransformer == null) ? MavenShade.IDENTITY : outputTransformer;
+            this.reverse = reverse;
+            this.checkDuplicates = format.rejectsDuplicates();
+            target.loadedSrg |= checkDuplicates;
+        }
+
+        private void completeClasses() {
+            classesComplete = true;
+            for (Runnable task : deferred) {
+                task.run();
             }
+            deferred.clear();
+        }
 
-            if (classes.containsKey(oldClassName) && !newClassName.equals(classes.get(oldClassName))) {
-                throw new IllegalArgumentException("Duplicate class mapping: " + oldClassName + " -> " + newClassName
-                        + " but already mapped to " + classes.get(oldClassName) + " in line=" + line);
+        @Override
+        public void afterClasses(Runnable task) {
+            if (classesComplete) {
+                task.run();
+            } else {
+                deferred.add(task);
             }
+        }
 
-            if (oldClassName.endsWith("/*") && newClassName.endsWith("/*")) {
-                // extension for remapping class name prefixes
-                oldClassName = oldClassName.substring(0, oldClassName.length() - 1);
-                newClassName = newClassName.substring(0, newClassName.length() - 1);
+        @Override
+        public String getOldClassName(String newName) {
+            return classSource.oldClassNames.get(newName);
+        }
 
-                packages.put(oldClassName, newClassName);
-            } else {
-                classes.put(oldClassName, newClassName);
-                currentClass = tokens[0];
+        @Override
+        public void visitPackage(String oldName, String newName) {
+            if (membersOnly) {
+                return;
             }
-        } else if (kind.equals("PK:")) {
-            String oldPackageName = inputTransformer.transformClassName(tokens[1]);
-            String newPackageName = outputTransformer.transformClassName(tokens[2]);
+
+            String oldPackageName = inputTransformer.transformClassName(oldName);
+            String newPackageName = outputTransformer.transformClassName(newName);
 
             if (reverse) {
                 String temp = newPackageName;
@@ -595,11 +1541,19 @@ public class JarMapping {
                 oldPackageName = temp;
             }
 
-            if (isExcludedPackage(oldPackageName)) {
+            if (target.isExcludedPackage(oldPackageName)) {
                 SpecialSource.log("Ignored PK: " + oldPackageName + " -> " + newPackageName);
                 return;
             }
 
+            // #96: Add backwards compatibility for './' mappings signifying default package
+            if (newPackageName.equals("./")) {
+                newPackageName = ".";
+            }
+            if (oldPackageName.equals("./")) {
+                oldPackageName = ".";
+            }
+
             // package names always either 1) suffixed with '/', or 2) equal to '.' to signify default package
             if (!newPackageName.equals(".") && !newPackageName.endsWith("/")) {
                 newPackageName += "/";
@@ -609,92 +1563,137 @@ public class JarMapping {
                 oldPackageName += "/";
             }
 
-            if (packages.containsKey(oldPackageName) && !newPackageName.equals(packages.get(oldPackageName))) {
-                throw new IllegalArgumentException("Duplicate package mapping: " + oldPackageName + " ->" + newPackageName
-                        + " but already mapped to " + packages.get(oldPackageName) + " in line=" + line);
+            add("package", target.packages, oldPackageName, newPackageName);
+        }
+
+        @Override
+        public void visitClass(String oldName, String newName) {
+            if (membersOnly) {
+                return;
             }
+            clsMap.put(oldName, newName);
+            oldClassNames.put(newName, oldName);
 
-            packages.put(oldPackageName, newPackageName);
-        } else if (kind.equals("FD:")) {
-            String oldFull = tokens[1];
-            String newFull = tokens[2];
+            if (oldName.endsWith("/")) {
+                // Special case: mapping an entire hierarchy of classes
+                visitPackage(oldName, newName);
+                return;
+            }
+            lastClass = oldName;
+
+            String oldClassName = inputTransformer.transformClassName(oldName);
+            String newClassName = outputTransformer.transformClassName(newName);
+
+            if (reverse) {
+                String temp = newClassName;
+                newClassName = oldClassName;
+                oldClassName = temp;
+            }
 
-            // Split the qualified field names into their classes and actual names
-            int splitOld = oldFull.lastIndexOf('/');
-            int splitNew = newFull.lastIndexOf('/');
-            if (splitOld == -1 || splitNew == -1) {
-                throw new IllegalArgumentException("Field name is invalid, not fully-qualified: " + oldFull
-                        + " -> " + newFull + " in line=" + line);
+            if (target.isExcludedPackage(oldClassName)) {
+                SpecialSource.log("Ignored CL: " + oldClassName + " " + newClassName);
+                return;
             }
 
-            String oldClassName = inputTransformer.transformClassName(oldFull.substring(0, splitOld));
-            String oldFieldName = inputTransformer.transformFieldName(oldFull.substring(0, splitOld), oldFull.substring(splitOld + 1));
-            String newClassName = outputTransformer.transformClassName(newFull.substring(0, splitNew)); // TODO: verify with existing class map? (only used for reverse)
-            String newFieldName = outputTransformer.transformFieldName(oldFull.substring(0, splitOld), newFull.substring(splitNew + 1));
+            add("class", target.classes, oldClassName, newClassName);
+        }
+
+        @Override
+        public void visitField(final String owner, final String name, final String desc, final String newOwner, final String newName) {
+            if (indexing) {
+                indexedOwner = owner;
+                indexedNewOwner = newOwner;
+                return;
+            }
+            if (reverse && newOwner == null && !classesComplete) {
+                // Reversing needs the mapping of every class, wait until the whole file has been read
+                deferred.add(() -> visitField(owner, name, desc, newOwner, newName));
+                return;
+            }
+
+            String oldClassName = memberOwner(owner, newOwner);
+            String oldFieldName = inputTransformer.transformFieldName(owner, name);
+            String oldFieldDescriptor = (desc == null) ? null : inputTransformer.transformMethodDescriptor(desc);
+            String newFieldName = outputTransformer.transformFieldName(owner, newName);
 
             if (reverse) {
-                oldClassName = newClassName;
+                if (oldFieldDescriptor != null) {
+                    oldFieldDescriptor = reverseMapper.mapDesc(oldFieldDescriptor);
+                }
 
                 String temp = newFieldName;
                 newFieldName = oldFieldName;
                 oldFieldName = temp;
             }
 
-            if (isExcludedPackage(oldClassName)) {
+            if (target.isExcludedPackage(oldClassName)) {
                 SpecialSource.log("Ignored FD: " + oldClassName + "/" + oldFieldName + " -> " + newFieldName);
                 return;
             }
 
-            String oldEntry = oldClassName + "/" + oldFieldName;
-            if (fields.containsKey(oldEntry) && !newFieldName.equals(fields.get(oldEntry))) {
-                throw new IllegalArgumentException("Duplicate field mapping: " + oldEntry + " ->" + newFieldName
-                        + " but already mapped to " + fields.get(oldEntry) + " in line=" + line);
-            }
-
-            fields.put(oldEntry, newFieldName);
-        } else if (kind.equals("MD:")) {
-            String oldFull = tokens[1];
-            String newFull = tokens[3];
+            addMember("field", target.fieldMap, oldClassName, oldFieldName, oldFieldDescriptor, newFieldName);
+        }
 
-            // Split the qualified field names into their classes and actual names TODO: refactor with below
-            int splitOld = oldFull.lastIndexOf('/');
-            int splitNew = newFull.lastIndexOf('/');
-            if (splitOld == -1 || splitNew == -1) {
-                throw new IllegalArgumentException("Field name is invalid, not fully-qualified: " + oldFull
-                        + " -> " + newFull + " in line=" + line);
+        @Override
+        public void visitMethod(final String owner, final String name, final String desc, final String newOwner, final String newName, final String newDesc) {
+            if (indexing) {
+                indexedOwner = owner;
+                indexedNewOwner = newOwner;
+                return;
+            }
+            if (reverse && (newOwner == null || newDesc == null) && !classesComplete) {
+                // Reversing needs the mapping of every class, wait until the whole file has been read
+                deferred.add(() -> visitMethod(owner, name, desc, newOwner, newName, newDesc));
+                return;
             }
 
-            String oldClassName = inputTransformer.transformClassName(oldFull.substring(0, splitOld));
-            String oldMethodName = inputTransformer.transformMethodName(oldFull.substring(0, splitOld), oldFull.substring(splitOld + 1), tokens[2]);
-            String oldMethodDescriptor = inputTransformer.transformMethodDescriptor(tokens[2]);
-            String newClassName = outputTransformer.transformClassName(newFull.substring(0, splitNew)); // TODO: verify with existing class map? (only used for reverse)
-            String newMethodName = outputTransformer.transformMethodName(oldFull.substring(0, splitOld), newFull.substring(splitNew + 1), tokens[2]);
-            String newMethodDescriptor = outputTransformer.transformMethodDescriptor(tokens[4]); // TODO: verify with existing class map? (only used for reverse)
-            // TODO: support isClassIgnored() on reversed method descriptors
+            String oldClassName = memberOwner(owner, newOwner);
+            String oldMethodName = inputTransformer.transformMethodName(owner, name, desc);
+            String oldMethodDescriptor = inputTransformer.transformMethodDescriptor(desc);
+            String newMethodName = outputTransformer.transformMethodName(owner, newName, desc);
 
             if (reverse) {
-                oldClassName = newClassName;
-                oldMethodDescriptor = newMethodDescriptor;
+                oldMethodDescriptor = (newDesc != null) ? outputTransformer.transformMethodDescriptor(newDesc) : reverseMapper.mapMethodDesc(oldMethodDescriptor);
 
                 String temp = newMethodName;
                 newMethodName = oldMethodName;
                 oldMethodName = temp;
             }
 
-            if (isExcludedPackage(oldClassName)) {
+            if (target.isExcludedPackage(oldClassName)) {
                 SpecialSource.log("Ignored MD: " + oldClassName + "/" + oldMethodName + " -> " + newMethodName);
                 return;
             }
 
-            String oldEntry = oldClassName + "/" + oldMethodName + " " + oldMethodDescriptor;
-            if (methods.containsKey(oldEntry) && !newMethodName.equals(methods.get(oldEntry))) {
-                throw new IllegalArgumentException("Duplicate method mapping: " + oldEntry + " ->" + newMethodName
-                        + " but already mapped to " + methods.get(oldEntry) + " in line=" + line);
+            addMember("method", target.methodMap, oldClassName, oldMethodName, oldMethodDescriptor, newMethodName);
+        }
+
+        /**
+         * Get the class a member will be added under, from its owner as
+         * written in the file.
+         */
+        private String memberOwner(String owner, String newOwner) {
+            if (!reverse) {
+                return inputTransformer.transformClassName(owner);
+            }
+            if (newOwner != null) {
+                return outputTransformer.transformClassName(newOwner);
+            }
+            return reverseMapper.map(inputTransformer.transformClassName(owner));
+        }
+
+        private void add(String kind, Map<String, String> map, String key, String value) {
+            if (checkDuplicates) {
+                checkDuplicate(kind, map, key, value);
             }
+            map.put(key, value);
+        }
 
-            methods.put(oldEntry, newMethodName);
-        } else {
-            throw new IllegalArgumentException("Unable to parse srg file, unrecognized mapping type in line=" + line);
+        private void addMember(String kind, MemberMap map, String owner, String name, String desc, String value) {
+            if (checkDuplicates) {
+                checkDuplicate(kind, map, owner, name, desc, value);
+            }
+            map.put(owner, name, desc, value);
         }
     }
 
@@ -714,6 +1713,7 @@ public class JarMapping {
      * @throws IOException
      */
     public JarMapping(JarComparer oldJar, JarComparer newJar, File logfile, boolean compact, boolean full) throws IOException {
+        this();
         SpecialSource.validate(oldJar, newJar);
 
         this.newJar = newJar;
@@ -732,8 +1732,7 @@ public class JarMapping {
         for (int i = 0; i < oldJar.fields.size(); i++) {
             Ownable oldField = oldJar.fields.get(i);
             Ownable newField = newJar.fields.get(i);
-            String key = oldField.owner + "/" + oldField.name;
-            fields.put(key, newField.name);
+            fieldMap.put(oldField.owner, oldField.name, null, newField.name);
 
             if (full || !oldField.name.equals(newField.name)) {
                 srgWriter.addFieldMap(oldField, newField);
@@ -742,8 +1741,7 @@ public class JarMapping {
         for (int i = 0; i < oldJar.methods.size(); i++) {
             Ownable oldMethod = oldJar.methods.get(i);
             Ownable newMethod = newJar.methods.get(i);
-            String key = oldMethod.owner + "/" + oldMethod.name + " " + oldMethod.descriptor;
-            methods.put(key, newMethod.name);
+            methodMap.put(oldMethod.owner, oldMethod.name, oldMethod.descriptor, newMethod.name);
 
             MethodDescriptor methodDescriptorTransformer = new MethodDescriptor(null, classes);
             String oldDescriptor = methodDescriptorTransformer.transform(oldMethod.descriptor);
@@ -757,52 +1755,4 @@ public class JarMapping {
             srgWriter.write(out);
         }
     }
-
-    private static class ProguardUtil {
-
-        private static String csrgDesc(Map<String, String> data, String args, String ret) {
-            String[] parts = args.substring(1, args.length() - 1).split(",");
-            StringBuilder desc = new StringBuilder("(");
-            for (String part : parts) {
-                if (part.isEmpty()) {
-                    continue;
-                }
-                desc.append(toJVMType(data, part));
-            }
-            desc.append(")");
-            desc.append(toJVMType(data, ret));
-            return desc.toString();
-        }
-
-        private static String toJVMType(Map<String, String> data, String type) {
-            switch (type) {
-                case "byte":
-                    return "B";
-                case "char":
-                    return "C";
-                case "double":
-                    return "D";
-                case "float":
-                    return "F";
-                case "int":
-                    return "I";
-                case "long":
-                    return "J";
-                case "short":
-                    return "S";
-                case "boolean":
-                    return "Z";
-                case "void":
-                    return "V";
-                default:
-                    if (type.endsWith("[]")) {
-                        return "[" + toJVMType(data, type.substring(0, type.length() - 2));
-                    }
-                    String clazzType = type.replace('.', '/');
-                    String mappedType = data.get(clazzType);
-
-                    return "L" + ((mappedType != null) ? mappedType : clazzType) + ";";
-            }
-        }
-    }
 }
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import net.md_5.specialsource.provider.InheritanceProvider;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * The names a jar can ask a mapping for, collected from the constant pools of
+ * its classes without visiting any code. Every string constant counts as a
+ * possible class, member name or descriptor, and the class names inside
+ * descriptors and signatures are picked out too. Members are only looked up
+ * by owners the jar declares or refers to, plus their super classes and
+ * interfaces, so mappings for anything else can never be hit when the jar is
+ * remapped.
+ */
+public class JarReferences {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    //
+    private final Set<String> strings = new HashSet<String>();
+    private final Set<String> classes = new HashSet<String>();
+    private final Set<String> owners = new HashSet<String>();
+
+    private JarReferences() {
+    }
+
+    /**
+     * Scan every class of a jar.
+     *
+     * @param inheritance used to find the super classes and interfaces of
+     * member owners, which may be outside the jar
+     */
+    public static JarReferences scan(Jar jar, InheritanceProvider inheritance) throws IOException {
+        JarReferences references = new JarReferences();
+        for (String name : jar.getEntryNames()) {
+            if (name.endsWith(".class")) {
+                try (InputStream is = jar.getResource(name)) {
+                    references.scanClass(ByteStreams.toByteArray(is));
+                }
+            }
+        }
+        references.addSuperTypes(inheritance);
+        references.addOuterClasses();
+        return references;
+    }
+
+    private void scanClass(byte[] bytes) throws IOException {
+        ClassReader reader = new ClassReader(bytes);
+        char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            if (offset == 0) {
+                // Second slot of a long or double
+                continue;
+            }
+
+            switch (bytes[offset - 1]) {
+                case CONSTANT_UTF8:
+                    String value = new DataInputStream(new ByteArrayInputStream(bytes, offset, bytes.length - offset)).readUTF();
+                    strings.add(value);
+                    addTypeNames(value);
+                    break;
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                    owners.add(reader.readClass(offset, buffer));
+                    break;
+                case CONSTANT_CLASS:
+                    classes.add(reader.readUTF8(offset, buffer));
+                    break;
+            }
+        }
+        owners.add(reader.getClassName());
+    }
+
+    /**
+     * Add the class names of any object types within a descriptor or
+     * signature. Other strings are scanned the same way, which may add names
+     * that are never used as classes, but never misses one that is.
+     */
+    private void addTypeNames(String value) {
+        int start = -1;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ';' || c == '<' || c == '.') {
+                if (start >= 0 && i > start) {
+                    classes.add(value.substring(start, i));
+                }
+                start = -1;
+            } else if (c == 'L' && start < 0) {
+                start = i + 1;
+            }
+        }
+    }
+
+    private void addSuperTypes(InheritanceProvider inheritance) {
+        if (inheritance == null) {
+            return;
+        }
+
+        Deque<String> queue = new ArrayDeque<String>(owners);
+        while (!queue.isEmpty()) {
+            Collection<String> parents = inheritance.getParents(queue.pop());
+            if (parents != null) {
+                for (String parent : parents) {
+                    if (owners.add(parent)) {
+                        queue.add(parent);
+                    }
+                }
+            }
+        }
+        classes.addAll(owners);
+    }
+
+    /**
+     * Inner classes without a mapping of their own are remapped through their
+     * outer class, so it is referenced too.
+     */
+    private void addOuterClasses() {
+        for (String name : new HashSet<String>(classes)) {
+            for (int i = name.lastIndexOf('$'); i > 0; i = name.lastIndexOf('$', i - 1)) {
+                classes.add(name.substring(0, i));
+            }
+        }
+    }
+
+    /**
+     * Check if a class mapping can be used by the jar.
+     */
+    public boolean isClassReferenced(String className) {
+        return classes.contains(className) || strings.contains(className);
+    }
+
+    /**
+     * Check if a field or method mapping can be used by the jar.
+     *
+     * @param desc the member descriptor, or null for a field mapping without
+     * one
+     */
+    public boolean isMemberReferenced(String owner, String name, String desc) {
+        return owners.contains(owner) && strings.contains(name) && (desc == null || strings.contains(desc));
+    }
+}
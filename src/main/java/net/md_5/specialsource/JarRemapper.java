@@ -28,30 +28,54 @@
  */
 package net.md_5.specialsource;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
 import lombok.Setter;
+import net.md_5.specialsource.provider.MappingProvider;
 import net.md_5.specialsource.repo.ClassRepo;
 import net.md_5.specialsource.repo.JarRepo;
 import net.md_5.specialsource.util.Pair2;
+import net.md_5.specialsource.util.PrefixMatcher;
 import net.md_5.specialsource.writer.LogWriter;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.tree.ClassNode;
 import static org.objectweb.asm.ClassWriter.*;
 
 public class JarRemapper extends CustomRemapper {
 
     private static final int CLASS_LEN = ".class".length();
+    private static final int CACHE_SIZE = 1 << 16;
     private RemapperProcessor preProcessor;
+    private final MappingProvider mapping;
+    // Looks up exact class mappings, kept to avoid a lambda per lookup
+    private final Function<String, String> classLookup;
+    /**
+     * The mapping being applied, or null if it is not a {@link JarMapping}.
+     *
+     * @deprecated only set for a {@link JarMapping}, use {@link #getMapping()}
+     */
+    @Deprecated
     public final JarMapping jarMapping;
     private RemapperProcessor postProcessor;
     @Setter
@@ -60,19 +84,45 @@ public class JarRemapper extends CustomRemapper {
     private int readerFlags = 0;
     private boolean copyResources = true;
     private boolean copyEmptyDirectories = true;
-
-    public JarRemapper(RemapperProcessor preProcessor, JarMapping jarMapping, RemapperProcessor postProcessor) {
+    private int threads = 1;
+    // Lookups ruled out by the mapping's filters, see MappingProvider#mightMapClass
+    private final LongAdder skippedClassLookups = new LongAdder();
+    private final LongAdder skippedMemberLookups = new LongAdder();
+    // Remapped names, descriptors and signatures, replaced whenever the class or package mappings change
+    private volatile RemapCaches caches;
+    // Statistics of caches which have been replaced
+    private Map<String, CacheStats> retiredStats = Collections.emptyMap();
+
+    public JarRemapper(RemapperProcessor preProcessor, MappingProvider mapping, RemapperProcessor postProcessor) {
         this.preProcessor = preProcessor;
-        this.jarMapping = jarMapping;
+        this.mapping = mapping;
+        this.classLookup = mapping::getClassMapping;
+        this.jarMapping = (mapping instanceof JarMapping) ? (JarMapping) mapping : null;
         this.postProcessor = postProcessor;
     }
 
+    public JarRemapper(RemapperProcessor remapperPreprocessor, MappingProvider mapping) {
+        this(remapperPreprocessor, mapping, null);
+    }
+
+    public JarRemapper(MappingProvider mapping) {
+        this(null, mapping);
+    }
+
+    public JarRemapper(RemapperProcessor preProcessor, JarMapping jarMapping, RemapperProcessor postProcessor) {
+        this(preProcessor, (MappingProvider) jarMapping, postProcessor);
+    }
+
     public JarRemapper(RemapperProcessor remapperPreprocessor, JarMapping jarMapping) {
-        this(remapperPreprocessor, jarMapping, null);
+        this(remapperPreprocessor, (MappingProvider) jarMapping);
     }
 
     public JarRemapper(JarMapping jarMapping) {
-        this(null, jarMapping);
+        this((MappingProvider) jarMapping);
+    }
+
+    public MappingProvider getMapping() {
+        return mapping;
     }
 
     /**
@@ -95,60 +145,166 @@ public class JarRemapper extends CustomRemapper {
         this.copyEmptyDirectories = copyEmptyDirectories;
     }
 
+    /**
+     * Set the number of threads classes are remapped on by
+     * {@link #remapJar(Jar, File, Set)}. The output is the same whatever the
+     * number of threads, entries are still written in the order of the input.
+     *
+     * With more than one thread the mapping and processors must be safe to use
+     * from several threads at once, such as a frozen {@link JarMapping} and
+     * processors which do not extract inheritance. Remapping with a log file
+     * always uses a single thread, so that the log stays in order.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
     public void setLogFile(File file) throws FileNotFoundException {
         this.logWriter = new LogWriter(file);
     }
 
+    /**
+     * Get the number of class lookups skipped so far because the mapping could
+     * rule them out without a lookup.
+     */
+    public long getSkippedClassLookups() {
+        return skippedClassLookups.sum();
+    }
+
+    /**
+     * Get the number of field and method lookups skipped so far because no
+     * class has a mapping for a member of that name.
+     */
+    public long getSkippedMemberLookups() {
+        return skippedMemberLookups.sum();
+    }
+
+    /**
+     * Get the statistics of the caches in front of {@link #map(String)},
+     * {@link #mapDesc(String)}, {@link #mapMethodDesc(String)} and
+     * {@link #mapSignature(String, boolean)}, in that order.
+     */
+    public synchronized Map<String, CacheStats> getCacheStats() {
+        return (caches == null) ? retiredStats : caches.stats(retiredStats);
+    }
+
+    /**
+     * Get the caches for the current class and package mappings. Caches from
+     * before a change are replaced as a whole, so values worked out from the
+     * old mappings are never seen afterwards.
+     */
+    private RemapCaches getCaches() {
+        int version = mapping.getClassModCount();
+        RemapCaches current = caches;
+        if (current == null || current.version != version) {
+            synchronized (this) {
+                current = caches;
+                if (current == null || current.version != version) {
+                    if (current != null) {
+                        retiredStats = current.stats(retiredStats);
+                    }
+                    current = new RemapCaches(version);
+                    caches = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static String cached(LoadingCache<String, String> cache, String key) {
+        try {
+            return cache.getUnchecked(key);
+        } catch (UncheckedExecutionException ex) {
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw ex;
+        }
+    }
+
     @Override
     public String map(String typeName) {
-        return mapTypeName(typeName, jarMapping.packages, jarMapping.classes, typeName);
+        return cached(getCaches().types, typeName);
+    }
+
+    @Override
+    public String mapDesc(String desc) {
+        return cached(getCaches().descs, desc);
+    }
+
+    @Override
+    public String mapMethodDesc(String desc) {
+        return cached(getCaches().methodDescs, desc);
+    }
+
+    @Override
+    public String mapSignature(String signature, boolean typeSignature) {
+        if (signature == null || signature.contains("!*")) {
+            // Not remapped, and null can't be cached
+            return super.mapSignature(signature, typeSignature);
+        }
+        RemapCaches current = getCaches();
+        return cached(typeSignature ? current.typeSignatures : current.signatures, signature);
+    }
+
+    /**
+     * Map a class name without going through the cache.
+     */
+    private String mapUncached(String typeName, Map<String, String> packageMap, PrefixMatcher packages) {
+        Function<String, String> lookup = classLookup;
+        if (!mapping.mightMapClass(typeName)) {
+            // Only the package mappings can apply
+            skippedClassLookups.increment();
+            lookup = null;
+        }
+        String mapped = mapClassName(typeName, packageMap, packages, lookup);
+        return mapped != null ? mapped : typeName;
+    }
+
+    private static PrefixMatcher compilePackages(Map<String, String> packageMap) {
+        return new PrefixMatcher((packageMap == null) ? Collections.<String>emptySet() : packageMap.keySet(), true);
     }
 
     public static String mapTypeName(String typeName, Map<String, String> packageMap, Map<String, String> classMap, String defaultIfUnmapped) {
-        String mapped = mapClassName(typeName, packageMap, classMap);
+        String mapped = mapClassName(typeName, packageMap, compilePackages(packageMap), (classMap == null) ? null : classMap::get);
+        return mapped != null ? mapped : defaultIfUnmapped;
+    }
+
+    public static String mapTypeName(String typeName, MappingProvider mapping, String defaultIfUnmapped) {
+        Map<String, String> packageMap = mapping.getPackageMappings();
+        String mapped = mapClassName(typeName, packageMap, compilePackages(packageMap), mapping::getClassMapping);
         return mapped != null ? mapped : defaultIfUnmapped;
     }
 
     /**
      * Helper method to map a class name by package (prefix) or class (exact)
      */
-    private static String mapClassName(String className, Map<String, String> packageMap, Map<String, String> classMap) {
-        if (classMap != null && classMap.containsKey(className)) {
-            return classMap.get(className);
+    private static String mapClassName(String className, Map<String, String> packageMap, PrefixMatcher packages, Function<String, String> classMap) {
+        if (classMap != null) {
+            String mapped = classMap.apply(className);
+            if (mapped != null) {
+                return mapped;
+            }
         }
 
         int index = className.lastIndexOf('$');
         if (index != -1)
         {
             String outer = className.substring(0, index);
-            String mapped = mapClassName(outer, packageMap, classMap);
+            String mapped = mapClassName(outer, packageMap, packages, classMap);
             if  (mapped == null) return null;
             return mapped + className.substring(index);
         }
 
-        if (packageMap != null) {
-            Iterator<String> iter = packageMap.keySet().iterator();
-            while (iter.hasNext()) {
-                String oldPackage = iter.next();
-                if (matchClassPackage(oldPackage, className)) {
-                    String newPackage = packageMap.get(oldPackage);
+        int match = packages.match(className);
+        if (match != -1) {
+            String oldPackage = packages.getPrefix(match);
+            String newPackage = packageMap.get(oldPackage);
 
-                    return moveClassPackage(newPackage, getSimpleName(oldPackage, className));
-                }
-            }
+            return moveClassPackage(newPackage, getSimpleName(oldPackage, className));
         }
 
         return null;
     }
 
-    private static boolean matchClassPackage(String packageName, String className) {
-        if (packageName.equals(".")) {
-            return isDefaultPackage(className);
-        }
-
-        return className.startsWith(packageName);
-    }
-
     private static String moveClassPackage(String packageName, String classSimpleName) {
         if (packageName.equals(".")) {
             return classSimpleName;
@@ -157,10 +313,6 @@ public class JarRemapper extends CustomRemapper {
         return packageName + classSimpleName;
     }
 
-    private static boolean isDefaultPackage(String className) {
-        return className.indexOf('/') == -1;
-    }
-
     private static String getSimpleName(String oldPackage, String className) {
         if (oldPackage.equals(".")) {
             return className;
@@ -171,13 +323,21 @@ public class JarRemapper extends CustomRemapper {
 
     @Override
     public String mapFieldName(String owner, String name, String desc, int access) {
-        String mapped = jarMapping.tryClimb(jarMapping.fields, NodeType.FIELD, owner, name, desc, access);
+        if (!mapping.mightMapMember(NodeType.FIELD, name)) {
+            skippedMemberLookups.increment();
+            return name;
+        }
+        String mapped = mapping.tryClimb(NodeType.FIELD, owner, name, desc, access);
         return mapped == null ? name : mapped;
     }
 
     @Override
     public String mapMethodName(String owner, String name, String desc, int access) {
-        String mapped = jarMapping.tryClimb(jarMapping.methods, NodeType.METHOD, owner, name + " " + desc, null, access);
+        if (!mapping.mightMapMember(NodeType.METHOD, name)) {
+            skippedMemberLookups.increment();
+            return name;
+        }
+        String mapped = mapping.tryClimb(NodeType.METHOD, owner, name, desc, access);
         return mapped == null ? name : mapped;
     }
 
@@ -196,8 +356,11 @@ public class JarRemapper extends CustomRemapper {
             target.getParentFile().mkdirs();
         }
         ClassRepo repo = new JarRepo(jar);
+        PrefixMatcher only = includes.isEmpty() ? null : new PrefixMatcher(includes, true);
+        ForkJoinPool pool = (threads > 1 && logWriter == null) ? new ForkJoinPool(threads) : null;
         try (JarOutputStream out = new JarOutputStream(new FileOutputStream(target))) {
             Set<String> jarEntries = jar.getEntryNames();
+            Map<String, ForkJoinTask<byte[]>> remapped = (pool == null) ? null : submitClasses(pool, jar, repo, only);
             ProgressMeter meter = new ProgressMeter(jarEntries.size(), "Remapping jar... %2.0f%%");
 
             for (String name : jarEntries) {
@@ -206,11 +369,11 @@ public class JarRemapper extends CustomRemapper {
                 Pair2<ZipEntry, InputStream> pair = jar.getEntry(name);
                 try (InputStream is = pair.second) {
                     byte[] data;
-                    if (name.endsWith(".class") && shouldHandle(name, includes)) {
+                    if (name.endsWith(".class") && shouldHandle(name, only)) {
                         // remap classes
                         name = name.substring(0, name.length() - CLASS_LEN);
 
-                        data = remapClassFile(is, repo);
+                        data = (remapped == null) ? remapClassFile(is, repo) : join(remapped.remove(name));
                         String newName = map(name);
 
                         entry = new JarEntry(newName == null ? name : newName + ".class");
@@ -243,6 +406,10 @@ public class JarRemapper extends CustomRemapper {
                     meter.makeProgress();
                 }
             }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
         }
         if (logWriter != null) {
             try {
@@ -253,21 +420,47 @@ public class JarRemapper extends CustomRemapper {
         }
     }
 
-    private static boolean shouldHandle(String name, Set<String> includes) {
-        if (includes.isEmpty()) {
-            return true;
+    /**
+     * Start remapping every class in the jar on the pool, largest first so
+     * that no single big class is left running at the end.
+     *
+     * @return the remapped classes by name, without the .class extension
+     */
+    private Map<String, ForkJoinTask<byte[]>> submitClasses(ForkJoinPool pool, final Jar jar, final ClassRepo repo, PrefixMatcher only) {
+        List<String> classes = new ArrayList<String>();
+        for (String name : jar.getEntryNames()) {
+            if (name.endsWith(".class") && shouldHandle(name, only)) {
+                classes.add(name);
+            }
         }
+        classes.sort(Comparator.comparingLong(jar::getSize).reversed());
 
-        for (String match : includes) {
-            if (match.equals(".") && !name.contains("/")) {
-                return true;
-            }
-            if (name.startsWith(match)) {
-                return true;
-            }
+        Map<String, ForkJoinTask<byte[]>> remapped = new HashMap<String, ForkJoinTask<byte[]>>();
+        for (final String name : classes) {
+            remapped.put(name.substring(0, name.length() - CLASS_LEN), pool.submit(() -> {
+                try (InputStream is = jar.getResource(name)) {
+                    return remapClassFile(is, repo);
+                }
+            }));
         }
+        return remapped;
+    }
 
-        return false;
+    private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            Throwables.throwIfInstanceOf(ex.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    private static boolean shouldHandle(String name, PrefixMatcher includes) {
+        return includes == null || includes.matches(name);
     }
 
     /**
@@ -281,28 +474,64 @@ public class JarRemapper extends CustomRemapper {
         return remapClassFile(new ClassReader(in), repo);
     }
 
-    @SuppressWarnings("unchecked")
     private byte[] remapClassFile(ClassReader reader, final ClassRepo repo) {
-        if (preProcessor != null) {
-            byte[] pre = preProcessor.process(reader);
-            if (pre != null) {
-                reader = new ClassReader(pre);
-            }
-        }
-
-        ClassNode node = new ClassNode();
-        RemappingClassAdapter mapper = new RemappingClassAdapter(node, this, repo);
+        // Not given the reader, as the remapped class shares little of its constant pool
+        ClassWriter wr = new ClassWriter(writerFlags);
+        // The processors see the class before and after remapping, all in the one pass
+        ClassVisitor post = (postProcessor != null) ? postProcessor.createVisitor(wr) : wr;
+        RemappingClassAdapter mapper = new RemappingClassAdapter(post, this, repo);
         if (logWriter != null) {
             mapper.setLogWriter(logWriter);
         }
-        reader.accept(mapper, readerFlags);
-
-        ClassWriter wr = new ClassWriter(writerFlags);
-        node.accept(wr);
+        reader.accept((preProcessor != null) ? preProcessor.createVisitor(mapper) : mapper, readerFlags);
         if (SpecialSource.identifier != null) {
             wr.newUTF8(SpecialSource.identifier);
         }
 
-        return (postProcessor != null) ? postProcessor.process(wr.toByteArray()) : wr.toByteArray();
+        return wr.toByteArray();
+    }
+
+    /**
+     * The caches for one version of the class and package mappings, along
+     * with the package mappings compiled into a matcher.
+     */
+    private class RemapCaches {
+
+        private final int version;
+        private final LoadingCache<String, String> types;
+        private final LoadingCache<String, String> descs;
+        private final LoadingCache<String, String> methodDescs;
+        private final LoadingCache<String, String> signatures;
+        private final LoadingCache<String, String> typeSignatures;
+
+        private RemapCaches(int version) {
+            this.version = version;
+            final Map<String, String> packageMap = mapping.getPackageMappings();
+            final PrefixMatcher packages = compilePackages(packageMap);
+            this.types = newCache(typeName -> mapUncached(typeName, packageMap, packages));
+            this.descs = newCache(JarRemapper.super::mapDesc);
+            this.methodDescs = newCache(JarRemapper.super::mapMethodDesc);
+            this.signatures = newCache(signature -> JarRemapper.super.mapSignature(signature, false));
+            this.typeSignatures = newCache(signature -> JarRemapper.super.mapSignature(signature, true));
+        }
+
+        private LoadingCache<String, String> newCache(Function<String, String> loader) {
+            return CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).recordStats().build(CacheLoader.from(loader::apply));
+        }
+
+        /**
+         * Add the statistics of these caches to earlier ones.
+         */
+        private Map<String, CacheStats> stats(Map<String, CacheStats> earlier) {
+            Map<String, CacheStats> stats = new LinkedHashMap<String, CacheStats>();
+            stats.put("type", types.stats());
+            stats.put("descriptor", descs.stats());
+            stats.put("method descriptor", methodDescs.stats());
+            stats.put("signature", signatures.stats().plus(typeSignatures.stats()));
+            for (Map.Entry<String, CacheStats> entry : earlier.entrySet()) {
+                stats.put(entry.getKey(), stats.get(entry.getKey()).plus(entry.getValue()));
+            }
+            return stats;
+        }
     }
 }
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Composes chained mappings into a single mapping ahead of time. Given a
+ * mapping from A to B and another from B to C, the result maps straight from
+ * A to C, so remapping through it costs the same as through any one mapping,
+ * rather than a lookup in each of them for every name.
+ *
+ * Every entry of the first mapping is carried through the second, including
+ * members found there by climbing its inheritance, if it has a fallback
+ * inheritance provider. Entries of the second mapping for names the first
+ * leaves alone are then added, with their class names and descriptors mapped
+ * back to the first mapping's input names. Members are told apart from the
+ * output of the first mapping by owner and name, plus descriptor for methods.
+ * Field keys which could not be split into owner, name and descriptor are left
+ * out.
+ */
+public class MappingComposer {
+
+    private final JarMapping first;
+    private final JarMapping second;
+    private final JarRemapper firstRemapper;
+    private final JarRemapper secondRemapper;
+    private final Map<String, String> firstInverse = new HashMap<String, String>();
+    private final JarMapping result = new JarMapping();
+
+    private MappingComposer(JarMapping first, JarMapping second) {
+        this.first = first;
+        this.second = second;
+        this.firstRemapper = new JarRemapper(first);
+        this.secondRemapper = new JarRemapper(second);
+        for (Map.Entry<String, String> entry : first.classes.entrySet()) {
+            firstInverse.put(entry.getValue(), entry.getKey());
+        }
+    }
+
+    /**
+     * Compose mappings which are applied one after another.
+     *
+     * @param mappings at least one mapping, where the output names of each are
+     * the input names of the next
+     * @return a new mapping from the input names of the first to the output
+     * names of the last
+     */
+    public static JarMapping compose(JarMapping... mappings) {
+        return compose(Arrays.asList(mappings));
+    }
+
+    public static JarMapping compose(List<JarMapping> mappings) {
+        if (mappings.isEmpty()) {
+            throw new IllegalArgumentException("No mappings to compose");
+        }
+
+        JarMapping composed = mappings.get(0);
+        for (JarMapping next : mappings.subList(1, mappings.size())) {
+            composed = new MappingComposer(composed, next).compose();
+        }
+        if (mappings.size() == 1) {
+            // Still return a new mapping
+            composed = compose(composed, new JarMapping());
+        }
+        return composed;
+    }
+
+    private JarMapping compose() {
+        first.loadAllMembers();
+        second.loadAllMembers();
+
+        composePackages();
+        composeClasses();
+        composeFields();
+        composeMethods();
+        return result;
+    }
+
+    private void composePackages() {
+        for (Map.Entry<String, String> entry : first.packages.entrySet()) {
+            result.packages.put(entry.getKey(), mapPackage(entry.getValue(), second.packages));
+        }
+        for (Map.Entry<String, String> entry : second.packages.entrySet()) {
+            String oldPackage = entry.getKey();
+            if (!result.packages.containsKey(oldPackage) && mapPackage(oldPackage, first.packages).equals(oldPackage)) {
+                result.packages.put(oldPackage, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Map a package name through the first matching package mapping.
+     */
+    private static String mapPackage(String packageName, Map<String, String> packages) {
+        for (Map.Entry<String, String> entry : packages.entrySet()) {
+            String oldPackage = entry.getKey();
+            boolean matches = oldPackage.equals(".") ? packageName.equals(".") : packageName.startsWith(oldPackage);
+            if (matches) {
+                String rest = oldPackage.equals(".") ? "" : packageName.substring(oldPackage.length());
+                String mapped = entry.getValue().equals(".") ? rest : entry.getValue() + rest;
+                return mapped.isEmpty() ? "." : mapped;
+            }
+        }
+        return packageName;
+    }
+
+    private void composeClasses() {
+        for (Map.Entry<String, String> entry : first.classes.entrySet()) {
+            result.classes.put(entry.getKey(), secondRemapper.map(entry.getValue()));
+        }
+        for (Map.Entry<String, String> entry : second.classes.entrySet()) {
+            String oldClass = unmapClass(entry.getKey());
+            if (oldClass != null && !result.classes.containsKey(oldClass)) {
+                result.classes.put(oldClass, entry.getValue());
+            }
+        }
+    }
+
+    private void composeFields() {
+        final MemberMap fields = result.getFieldMap();
+        final Set<String> images = new HashSet<String>();
+        first.getFieldMap().forEachMember((owner, name, desc, value) -> {
+            String newOwner = firstRemapper.map(owner);
+            String newDesc = (desc == null) ? null : firstRemapper.mapDesc(desc);
+            images.add(newOwner + "/" + value);
+            String mapped = second.tryClimb(NodeType.FIELD, newOwner, value, newDesc, -1);
+            if (mapped == null && desc == null) {
+                mapped = second.getFieldMappingByName(newOwner, value, d -> true);
+            }
+            fields.put(owner, name, desc, (mapped != null) ? mapped : value);
+        });
+
+        final Remapper unmapper = new Unmapper();
+        second.getFieldMap().forEachMember((owner, name, desc, value) -> {
+            String oldOwner = unmapClass(owner);
+            if (oldOwner == null || images.contains(owner + "/" + name)) {
+                return;
+            }
+            String oldDesc = (desc == null) ? null : unmapper.mapDesc(desc);
+            if (!hasField(first.getFieldMap(), oldOwner, name, oldDesc) && !hasField(fields, oldOwner, name, oldDesc)) {
+                fields.put(oldOwner, name, oldDesc, value);
+            }
+        });
+    }
+
+    /**
+     * Check for a field mapping, with or without the descriptor.
+     */
+    private static boolean hasField(MemberMap fields, String owner, String name, String desc) {
+        return fields.get(owner, name, desc) != null || (desc != null && fields.get(owner, name, null) != null);
+    }
+
+    private void composeMethods() {
+        final MemberMap methods = result.getMethodMap();
+        final Set<String> images = new HashSet<String>();
+        first.getMethodMap().forEachMember((owner, name, desc, value) -> {
+            String newOwner = firstRemapper.map(owner);
+            String newDesc = firstRemapper.mapMethodDesc(desc);
+            images.add(newOwner + "/" + value + " " + newDesc);
+            String mapped = second.tryClimb(NodeType.METHOD, newOwner, value, newDesc, -1);
+            methods.put(owner, name, desc, (mapped != null) ? mapped : value);
+        });
+
+        final Remapper unmapper = new Unmapper();
+        second.getMethodMap().forEachMember((owner, name, desc, value) -> {
+            String oldOwner = unmapClass(owner);
+            if (oldOwner == null || images.contains(owner + "/" + name + " " + desc)) {
+                return;
+            }
+            String oldDesc = unmapper.mapMethodDesc(desc);
+            if (first.getMethodMapping(oldOwner, name, oldDesc) == null && methods.get(oldOwner, name, oldDesc) == null) {
+                methods.put(oldOwner, name, oldDesc, value);
+            }
+        });
+    }
+
+    /**
+     * Find the class which the first mapping maps to the given name.
+     *
+     * @return the class name, or null if there is none
+     */
+    private String unmapClass(String newName) {
+        List<String> candidates = new ArrayList<String>(3);
+        String inverse = firstInverse.get(newName);
+        if (inverse != null) {
+            candidates.add(inverse);
+        }
+
+        int index = newName.lastIndexOf('$');
+        if (index != -1) {
+            String outer = unmapClass(newName.substring(0, index));
+            if (outer != null) {
+                candidates.add(outer + newName.substring(index));
+            }
+        }
+
+        for (Map.Entry<String, String> entry : first.packages.entrySet()) {
+            String newPackage = entry.getValue();
+            String simpleName = null;
+            if (newPackage.equals(".")) {
+                if (newName.indexOf('/') == -1) {
+                    simpleName = newName;
+                }
+            } else if (newName.startsWith(newPackage)) {
+                simpleName = newName.substring(newPackage.length());
+            }
+            if (simpleName != null) {
+                candidates.add(entry.getKey().equals(".") ? simpleName : entry.getKey() + simpleName);
+            }
+        }
+        candidates.add(newName);
+
+        for (String candidate : candidates) {
+            if (firstRemapper.map(candidate).equals(newName)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps class names back to the input names of the first mapping, leaving
+     * any without one as they are.
+     */
+    private class Unmapper extends Remapper {
+
+        private Unmapper() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public String map(String internalName) {
+            String oldName = unmapClass(internalName);
+            return (oldName != null) ? oldName : internalName;
+        }
+    }
+}
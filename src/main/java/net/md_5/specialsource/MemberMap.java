@@ -0,0 +1,1229 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Predicate;
+import net.md_5.specialsource.util.IntIntMap;
+import net.md_5.specialsource.util.PerfectHash;
+import net.md_5.specialsource.util.SymbolTable;
+
+/**
+ * Field or method mappings, kept in a table per owner class keyed by member
+ * name and descriptor, so that they can be looked up without building key
+ * strings. Names and descriptors are stored as ids of a {@link SymbolTable},
+ * which is usually shared with the other tables of the same mapping.
+ *
+ * This is also a map using the string keys {@link JarMapping} has always used:
+ * "owner/name" or "owner/name/desc" for fields and "owner/name desc" for
+ * methods. Field keys with a descriptor cannot always be split back up, as
+ * both class names and descriptors contain '/'. Such keys are split using the
+ * owners already known, and are otherwise kept as they are, in which case they
+ * can still be found through the map but lookups by owner need to build the
+ * key string. Members are iterated one owner at a time in no particular order,
+ * followed by any unsplit keys. See {@link #sortedView()} for a
+ * {@link SortedMap} in key order.
+ */
+public class MemberMap extends AbstractMap<String, String> {
+
+    private final NodeType type;
+    // Class mappings of the same JarMapping, to help split ambiguous keys
+    private final Map<String, String> classes;
+    private final SymbolTable symbols;
+    // Indexed by the symbol id of the owner
+    private MemberTable[] owners = new MemberTable[0];
+    // Keys given through the map which could not be split unambiguously
+    private final Map<String, String> unsplit = new HashMap<String, String>();
+    private int size;
+    private int modCount;
+    private Set<Entry<String, String>> entrySet;
+    // Built for the sorted views, and again only once the map has changed
+    private volatile SortedIndex sortedIndex;
+
+    public MemberMap(NodeType type, Map<String, String> classes) {
+        this(type, classes, new SymbolTable());
+    }
+
+    public MemberMap(NodeType type, Map<String, String> classes, SymbolTable symbols) {
+        this.type = type;
+        this.classes = classes;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Receives each member of a {@link MemberMap}.
+     */
+    public interface MemberConsumer {
+
+        void accept(String owner, String name, String desc, String value);
+    }
+
+    /**
+     * Get an immutable copy of this map, which finds members with a
+     * {@link net.md_5.specialsource.util.PerfectHash} and is safe to share
+     * between threads.
+     *
+     * @param frozenSymbols a frozen copy of this map's symbol table
+     * @param frozenClasses the class mappings of the frozen copy
+     */
+    public MemberMap freeze(SymbolTable frozenSymbols, Map<String, String> frozenClasses) {
+        if (!frozenSymbols.isFrozen() || frozenSymbols.size() < symbols.size()) {
+            throw new IllegalArgumentException("Symbol table is not a frozen copy of this map's");
+        }
+        return new Frozen(this, frozenSymbols, frozenClasses);
+    }
+
+    /**
+     * Get the mapping of a single member.
+     *
+     * @param desc the member descriptor, which is null for fields mapped
+     * without one
+     */
+    public String get(String owner, String name, String desc) {
+        String value = lookup(owner, name, desc);
+        if (value == null && !unsplit.isEmpty()) {
+            value = unsplit.get(toKey(owner, name, desc));
+        }
+        return value;
+    }
+
+    /**
+     * Find the mapping of a member with the given name and any descriptor
+     * accepted by the filter. If there is more than one, the lowest
+     * descriptor is used.
+     */
+    public String getByName(String owner, String name, Predicate<String> descFilter) {
+        String[] found = findByName(owner, name, descFilter);
+        String bestDesc = (found == null) ? null : found[0];
+        String best = (found == null) ? null : found[1];
+
+        if (!unsplit.isEmpty()) {
+            String prefix = toKey(owner, name, null) + "/";
+            for (Entry<String, String> entry : unsplit.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    String desc = entry.getKey().substring(prefix.length());
+                    if (descFilter.test(desc) && (bestDesc == null || desc.compareTo(bestDesc) < 0)) {
+                        bestDesc = desc;
+                        best = entry.getValue();
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the member with the given name and lowest accepted descriptor,
+     * ignoring keys which could not be split.
+     *
+     * @return the descriptor and value, or null if there is none
+     */
+    String[] findByName(String owner, String name, Predicate<String> descFilter) {
+        String[] best = null;
+
+        MemberTable table = table(owner);
+        int nameId = symbols.find(name);
+        int[] descs = (table == null || nameId < 0) ? null : table.descriptors(nameId);
+        if (descs != null) {
+            for (int descId : descs) {
+                String desc = symbols.get(descId);
+                if (descFilter.test(desc) && (best == null || desc.compareTo(best[0]) < 0)) {
+                    best = new String[]{desc, symbols.get(table.get(nameId, descId))};
+                }
+            }
+        }
+        return best;
+    }
+
+    public String put(String owner, String name, String desc, String value) {
+        Objects.requireNonNull(value, "value");
+        modCount++;
+        String old = null;
+        if (!unsplit.isEmpty()) {
+            old = unsplit.remove(toKey(owner, name, desc));
+        }
+
+        int ownerId = symbols.intern(owner);
+        if (ownerId >= owners.length) {
+            owners = Arrays.copyOf(owners, Math.max(ownerId + 1, owners.length * 2));
+        }
+        MemberTable table = owners[ownerId];
+        if (table == null) {
+            table = new MemberTable(type == NodeType.FIELD);
+            owners[ownerId] = table;
+        }
+        int replaced = table.put(symbols.intern(name), (desc == null) ? -1 : symbols.intern(desc), symbols.intern(value));
+        if (replaced < 0) {
+            size++;
+            return old;
+        }
+        return symbols.get(replaced);
+    }
+
+    public String remove(String owner, String name, String desc) {
+        int ownerId = symbols.find(owner);
+        int descId = symbols.find(desc);
+        MemberTable table = (ownerId < 0 || ownerId >= owners.length || (descId < 0 && desc != null)) ? null : owners[ownerId];
+        modCount++;
+        int removedId = (table == null) ? -1 : table.remove(symbols.find(name), descId);
+        String removed = null;
+        if (removedId >= 0) {
+            removed = symbols.get(removedId);
+            size--;
+            if (table.size == 0) {
+                owners[ownerId] = null;
+            }
+        } else if (!unsplit.isEmpty()) {
+            removed = unsplit.remove(toKey(owner, name, desc));
+        }
+        return removed;
+    }
+
+    public NodeType getType() {
+        return type;
+    }
+
+    /**
+     * Get the number of changes made to this map, so anything built from it
+     * can tell when it is out of date. Never decreases.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Check if there are any members of the given class, other than those
+     * only added through keys which could not be split.
+     */
+    public boolean hasOwner(String owner) {
+        return table(owner) != null;
+    }
+
+    private MemberTable table(String owner) {
+        int id = symbols.find(owner);
+        return (id < 0 || id >= owners.length) ? null : owners[id];
+    }
+
+    String lookup(String owner, String name, String desc) {
+        MemberTable table = table(owner);
+        if (table == null) {
+            return null;
+        }
+        int nameId = symbols.find(name);
+        int descId = symbols.find(desc);
+        if (nameId < 0 || (descId < 0 && desc != null)) {
+            return null;
+        }
+        int value = table.get(nameId, descId);
+        return (value < 0) ? null : symbols.get(value);
+    }
+
+    /**
+     * Visit every member, with the members of each class together. Members
+     * added through keys which could not be split are not included, see
+     * {@link #forEachUnsplit}.
+     */
+    public void forEachMember(MemberConsumer consumer) {
+        for (int ownerId = 0; ownerId < ownerLimit(); ownerId++) {
+            forEachMember(ownerId, consumer);
+        }
+    }
+
+    /**
+     * One more than the largest owner id which may have members.
+     */
+    int ownerLimit() {
+        return owners.length;
+    }
+
+    /**
+     * Visit the members of the owner with the given symbol id.
+     */
+    void forEachMember(int ownerId, MemberConsumer consumer) {
+        MemberTable table = (ownerId < owners.length) ? owners[ownerId] : null;
+        if (table == null) {
+            return;
+        }
+        String owner = symbols.get(ownerId);
+        for (int i = 0; i < table.names.length; i++) {
+            if (table.values[i] >= 0) {
+                consumer.accept(owner, symbols.get(table.names[i]), (table.descs[i] < 0) ? null : symbols.get(table.descs[i]), symbols.get(table.values[i]));
+            }
+        }
+    }
+
+    /**
+     * Get the entries whose keys could not be split into owner, name and
+     * descriptor.
+     */
+    public Map<String, String> getUnsplit() {
+        return Collections.unmodifiableMap(unsplit);
+    }
+
+    /**
+     * Build the string key of a member.
+     */
+    public String toKey(String owner, String name, String desc) {
+        if (type == NodeType.METHOD) {
+            return owner + "/" + name + " " + desc;
+        }
+        return (desc == null) ? owner + "/" + name : owner + "/" + name + "/" + desc;
+    }
+
+    /**
+     * Split a string key into its possible owner, name and descriptor
+     * triples.
+     */
+    private List<String[]> split(String key) {
+        List<String[]> candidates = new ArrayList<String[]>(1);
+        if (type == NodeType.METHOD) {
+            int space = key.indexOf(' ');
+            int slash = (space == -1) ? -1 : key.lastIndexOf('/', space);
+            if (slash > 0 && slash < space - 1) {
+                candidates.add(new String[]{key.substring(0, slash), key.substring(slash + 1, space), key.substring(space + 1)});
+            }
+            return candidates;
+        }
+
+        int last = key.lastIndexOf('/');
+        if (last > 0 && last < key.length() - 1 && isName(key, last + 1, key.length())) {
+            candidates.add(new String[]{key.substring(0, last), key.substring(last + 1), null});
+        }
+
+        // Any other '/' could be the start of a descriptor
+        for (int desc = key.indexOf('/'); desc != -1; desc = key.indexOf('/', desc + 1)) {
+            if (!isFieldDescriptor(key, desc + 1)) {
+                continue;
+            }
+            int name = key.lastIndexOf('/', desc - 1);
+            if (name > 0 && name < desc - 1 && isName(key, name + 1, desc)) {
+                candidates.add(new String[]{key.substring(0, name), key.substring(name + 1, desc), key.substring(desc + 1)});
+            }
+        }
+        return candidates;
+    }
+
+    private static boolean isName(String key, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = key.charAt(i);
+            if (c == '/' || c == ';' || c == '[') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFieldDescriptor(String key, int start) {
+        int i = start;
+        while (i < key.length() && key.charAt(i) == '[') {
+            i++;
+        }
+        if (i >= key.length()) {
+            return false;
+        }
+        switch (key.charAt(i)) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+                return i == key.length() - 1;
+            case 'L':
+                return key.length() - i >= 3 && key.indexOf(';', i) == key.length() - 1;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        String value = unsplit.isEmpty() ? null : unsplit.get(key);
+        if (value == null) {
+            for (String[] member : split((String) key)) {
+                value = lookup(member[0], member[1], member[2]);
+                if (value != null) {
+                    break;
+                }
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        Objects.requireNonNull(value, "value");
+        modCount++;
+        if (unsplit.containsKey(key)) {
+            return unsplit.put(key, value);
+        }
+
+        List<String[]> candidates = split(key);
+        String[] member = null;
+        if (candidates.size() == 1) {
+            member = candidates.get(0);
+        } else {
+            for (String[] candidate : candidates) {
+                if (lookup(candidate[0], candidate[1], candidate[2]) != null) {
+                    // Replace the existing entry
+                    member = candidate;
+                    break;
+                }
+            }
+
+            if (member == null) {
+                // Otherwise try the split with the only known owner
+                for (String[] candidate : candidates) {
+                    if (hasOwner(candidate[0]) || classes.containsKey(candidate[0])) {
+                        if (member != null) {
+                            member = null;
+                            break;
+                        }
+                        member = candidate;
+                    }
+                }
+            }
+        }
+
+        if (member == null) {
+            return unsplit.put(key, value);
+        }
+        return put(member[0], member[1], member[2], value);
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        modCount++;
+        String removed = unsplit.remove(key);
+        if (removed == null) {
+            for (String[] member : split((String) key)) {
+                removed = remove(member[0], member[1], member[2]);
+                if (removed != null) {
+                    break;
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return size + unsplit.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0 && unsplit.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        owners = new MemberTable[0];
+        unsplit.clear();
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return MemberMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    MemberMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Iterates over copies of the entries, so the map can be changed while
+     * iterating. They are copied one owner at a time, with the unsplit keys
+     * last.
+     */
+    private class EntryIterator implements Iterator<Entry<String, String>> {
+
+        private final List<Entry<String, String>> buffer = new ArrayList<Entry<String, String>>();
+        private Iterator<Entry<String, String>> entries = buffer.iterator();
+        private int nextOwner;
+        private boolean unsplitCopied;
+        private String current;
+
+        @Override
+        public boolean hasNext() {
+            while (!entries.hasNext()) {
+                buffer.clear();
+                if (nextOwner < ownerLimit()) {
+                    forEachMember(nextOwner++, new MemberConsumer() {
+                        @Override
+                        public void accept(String owner, String name, String desc, String value) {
+                            buffer.add(new SimpleImmutableEntry<String, String>(toKey(owner, name, desc), value));
+                        }
+                    });
+                } else if (!unsplitCopied) {
+                    buffer.addAll(unsplit.entrySet());
+                    unsplitCopied = true;
+                } else {
+                    return false;
+                }
+                entries = buffer.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<String, String> next = entries.next();
+            final String key = next.getKey();
+            current = key;
+            return new SimpleEntry<String, String>(key, next.getValue()) {
+                @Override
+                public String setValue(String value) {
+                    super.setValue(value);
+                    return put(key, value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            MemberMap.this.remove(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Get a view of this map which is always iterated in key order. Changes,
+     * including through the ranged views, go through to this map.
+     *
+     * The views share an index of the keys in order, which is built when
+     * first needed and only built again once this map has changed. Finding a
+     * range of keys is then a binary search.
+     */
+    public SortedMap<String, String> sortedView() {
+        return new SortedView(null, null);
+    }
+
+    private SortedIndex sortedIndex() {
+        SortedIndex index = sortedIndex;
+        if (index == null || index.modCount != getModCount()) {
+            index = new SortedIndex(getModCount());
+            sortedIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * The keys and values of the map at one point, sorted by key.
+     */
+    private class SortedIndex {
+
+        private final int modCount;
+        private final String[] keys;
+        private final String[] values;
+
+        private SortedIndex(int modCount) {
+            this.modCount = modCount;
+
+            final String[][] entries = new String[size()][];
+            forEachMember(new MemberConsumer() {
+                private int i;
+
+                @Override
+                public void accept(String owner, String name, String desc, String value) {
+                    entries[i++] = new String[]{toKey(owner, name, desc), value};
+                }
+            });
+            int i = size;
+            for (Entry<String, String> entry : unsplit.entrySet()) {
+                entries[i++] = new String[]{entry.getKey(), entry.getValue()};
+            }
+            Arrays.sort(entries, new Comparator<String[]>() {
+                @Override
+                public int compare(String[] o1, String[] o2) {
+                    return o1[0].compareTo(o2[0]);
+                }
+            });
+
+            keys = new String[entries.length];
+            values = new String[entries.length];
+            for (i = 0; i < entries.length; i++) {
+                keys[i] = entries[i][0];
+                values[i] = entries[i][1];
+            }
+        }
+
+        /**
+         * Get the position of the first key not less than the given key, or
+         * of the end if the key is null.
+         */
+        private int position(String key, int end) {
+            if (key == null) {
+                return end;
+            }
+            int found = Arrays.binarySearch(keys, key);
+            return (found >= 0) ? found : -found - 1;
+        }
+    }
+
+    /**
+     * A sorted view of the keys from one key, inclusive, to another,
+     * exclusive, either of which may be null for no bound.
+     */
+    private class SortedView extends AbstractMap<String, String> implements SortedMap<String, String> {
+
+        private final String fromKey;
+        private final String toKey;
+        private Set<Entry<String, String>> entrySet;
+
+        private SortedView(String fromKey, String toKey) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+        }
+
+        private boolean isBounded() {
+            return fromKey != null || toKey != null;
+        }
+
+        private boolean inRange(Object key) {
+            return key instanceof String
+                    && (fromKey == null || fromKey.compareTo((String) key) <= 0)
+                    && (toKey == null || toKey.compareTo((String) key) > 0);
+        }
+
+        private int start(SortedIndex index) {
+            return (fromKey == null) ? 0 : index.position(fromKey, 0);
+        }
+
+        private int end(SortedIndex index) {
+            return Math.max(start(index), index.position(toKey, index.keys.length));
+        }
+
+        @Override
+        public String get(Object key) {
+            return inRange(key) ? MemberMap.this.get(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return inRange(key) && MemberMap.this.containsKey(key);
+        }
+
+        @Override
+        public String put(String key, String value) {
+            if (!inRange(key)) {
+                throw new IllegalArgumentException("Key out of range: " + key);
+            }
+            return MemberMap.this.put(key, value);
+        }
+
+        @Override
+        public String remove(Object key) {
+            return inRange(key) ? MemberMap.this.remove(key) : null;
+        }
+
+        @Override
+        public int size() {
+            if (!isBounded()) {
+                return MemberMap.this.size();
+            }
+            SortedIndex index = sortedIndex();
+            return end(index) - start(index);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public void clear() {
+            if (!isBounded()) {
+                MemberMap.this.clear();
+                return;
+            }
+            SortedIndex index = sortedIndex();
+            for (int i = start(index), end = end(index); i < end; i++) {
+                MemberMap.this.remove(index.keys[i]);
+            }
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Entry<String, String>>() {
+                    @Override
+                    public Iterator<Entry<String, String>> iterator() {
+                        SortedIndex index = sortedIndex();
+                        return new SortedIterator(index, start(index), end(index));
+                    }
+
+                    @Override
+                    public int size() {
+                        return SortedView.this.size();
+                    }
+
+                    @Override
+                    public void clear() {
+                        SortedView.this.clear();
+                    }
+                };
+            }
+            return entrySet;
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        @Override
+        public SortedMap<String, String> subMap(String fromKey, String toKey) {
+            if (fromKey.compareTo(toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return new SortedView(max(this.fromKey, fromKey), min(this.toKey, toKey));
+        }
+
+        @Override
+        public SortedMap<String, String> headMap(String toKey) {
+            return new SortedView(fromKey, min(this.toKey, toKey));
+        }
+
+        @Override
+        public SortedMap<String, String> tailMap(String fromKey) {
+            return new SortedView(max(this.fromKey, fromKey), toKey);
+        }
+
+        private String min(String bound, String key) {
+            return (bound == null || key.compareTo(bound) < 0) ? key : bound;
+        }
+
+        private String max(String bound, String key) {
+            return (bound == null || key.compareTo(bound) > 0) ? key : bound;
+        }
+
+        @Override
+        public String firstKey() {
+            SortedIndex index = sortedIndex();
+            int start = start(index);
+            if (start == end(index)) {
+                throw new NoSuchElementException();
+            }
+            return index.keys[start];
+        }
+
+        @Override
+        public String lastKey() {
+            SortedIndex index = sortedIndex();
+            int end = end(index);
+            if (start(index) == end) {
+                throw new NoSuchElementException();
+            }
+            return index.keys[end - 1];
+        }
+    }
+
+    /**
+     * Iterates over part of a sorted index, which is left as it is when the
+     * map is changed while iterating.
+     */
+    private class SortedIterator implements Iterator<Entry<String, String>> {
+
+        private final SortedIndex index;
+        private final int end;
+        private int next;
+        private String current;
+
+        private SortedIterator(SortedIndex index, int start, int end) {
+            this.index = index;
+            this.next = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final String key = index.keys[next];
+            String value = index.values[next++];
+            current = key;
+            return new SimpleEntry<String, String>(key, value) {
+                @Override
+                public String setValue(String value) {
+                    super.setValue(value);
+                    return put(key, value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            MemberMap.this.remove(current);
+            current = null;
+        }
+    }
+
+    /**
+     * An immutable member map. The members are kept in arrays grouped by
+     * owner, and found through a perfect hash of their owner, name and
+     * descriptor ids.
+     */
+    private static class Frozen extends MemberMap {
+
+        private final SymbolTable symbols;
+        // Members of each owner id are from ownerStart[id] to ownerStart[id + 1]
+        private final int[] ownerStart;
+        private final int[] names;
+        private final int[] descs;
+        private final int[] values;
+        private final PerfectHash perfectHash;
+        private final int[] perfectIndex;
+        private final long hashSeed;
+
+        private Frozen(MemberMap source, SymbolTable symbols, Map<String, String> classes) {
+            super(source.type, classes, symbols);
+            this.symbols = symbols;
+            ((MemberMap) this).unsplit.putAll(source.unsplit);
+            ((MemberMap) this).size = source.size;
+
+            int count = source.size;
+            ownerStart = new int[symbols.size() + 1];
+            names = new int[count];
+            descs = new int[count];
+            values = new int[count];
+            int n = 0;
+            for (int ownerId = 0; ownerId < symbols.size(); ownerId++) {
+                ownerStart[ownerId] = n;
+                MemberTable table = (ownerId < source.owners.length) ? source.owners[ownerId] : null;
+                if (table != null) {
+                    // Sorted by name, so members can be found by name alone
+                    long[] order = new long[table.size];
+                    int k = 0;
+                    for (int i = 0; i < table.names.length; i++) {
+                        if (table.values[i] >= 0) {
+                            order[k++] = ((long) table.names[i] << 32) | i;
+                        }
+                    }
+                    Arrays.sort(order);
+                    for (long entry : order) {
+                        int i = (int) entry;
+                        names[n] = table.names[i];
+                        descs[n] = table.descs[i];
+                        values[n] = table.values[i];
+                        n++;
+                    }
+                }
+            }
+            ownerStart[symbols.size()] = n;
+
+            // Retry with another seed in the unlikely case two members hash the same
+            long[] keys = new long[count];
+            PerfectHash hash = null;
+            long seed = 0;
+            while (hash == null) {
+                for (int ownerId = 0; ownerId < symbols.size(); ownerId++) {
+                    for (int i = ownerStart[ownerId]; i < ownerStart[ownerId + 1]; i++) {
+                        keys[i] = key(ownerId, names[i], descs[i], seed);
+                    }
+                }
+                try {
+                    hash = PerfectHash.build(keys);
+                } catch (IllegalArgumentException ex) {
+                    seed++;
+                }
+            }
+            perfectHash = hash;
+            hashSeed = seed;
+            perfectIndex = new int[count];
+            for (int i = 0; i < count; i++) {
+                perfectIndex[perfectHash.get(keys[i])] = i;
+            }
+        }
+
+        private static long key(int owner, int name, int desc, long seed) {
+            return PerfectHash.mix((((long) owner << 32) | (name & 0xFFFFFFFFL)) ^ PerfectHash.mix(desc + seed));
+        }
+
+        @Override
+        String lookup(String owner, String name, String desc) {
+            int ownerId = symbols.find(owner);
+            int nameId = symbols.find(name);
+            int descId = symbols.find(desc);
+            if (ownerId < 0 || nameId < 0 || (descId < 0 && desc != null) || values.length == 0) {
+                return null;
+            }
+
+            int i = perfectIndex[perfectHash.get(key(ownerId, nameId, descId, hashSeed))];
+            if (i < ownerStart[ownerId] || i >= ownerStart[ownerId + 1] || names[i] != nameId || descs[i] != descId) {
+                return null;
+            }
+            return symbols.get(values[i]);
+        }
+
+        @Override
+        String[] findByName(String owner, String name, Predicate<String> descFilter) {
+            String[] best = null;
+
+            int ownerId = symbols.find(owner);
+            int nameId = symbols.find(name);
+            if (ownerId >= 0 && nameId >= 0) {
+                int end = ownerStart[ownerId + 1];
+                int i = Arrays.binarySearch(names, ownerStart[ownerId], end, nameId);
+                if (i < 0) {
+                    return null;
+                }
+                while (i > ownerStart[ownerId] && names[i - 1] == nameId) {
+                    i--;
+                }
+                for (; i < end && names[i] == nameId; i++) {
+                    if (descs[i] < 0) {
+                        continue;
+                    }
+                    String desc = symbols.get(descs[i]);
+                    if (descFilter.test(desc) && (best == null || desc.compareTo(best[0]) < 0)) {
+                        best = new String[]{desc, symbols.get(values[i])};
+                    }
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public boolean hasOwner(String owner) {
+            int ownerId = symbols.find(owner);
+            return ownerId >= 0 && ownerStart[ownerId] < ownerStart[ownerId + 1];
+        }
+
+        @Override
+        int ownerLimit() {
+            return symbols.size();
+        }
+
+        @Override
+        void forEachMember(int ownerId, MemberConsumer consumer) {
+            for (int i = ownerStart[ownerId]; i < ownerStart[ownerId + 1]; i++) {
+                consumer.accept(symbols.get(ownerId), symbols.get(names[i]), (descs[i] < 0) ? null : symbols.get(descs[i]), symbols.get(values[i]));
+            }
+        }
+
+        @Override
+        public MemberMap freeze(SymbolTable frozenSymbols, Map<String, String> frozenClasses) {
+            return (frozenSymbols == symbols) ? this : super.freeze(frozenSymbols, frozenClasses);
+        }
+
+        @Override
+        public String put(String owner, String name, String desc, String value) {
+            throw new UnsupportedOperationException("Mapping is frozen");
+        }
+
+        @Override
+        public String put(String key, String value) {
+            throw new UnsupportedOperationException("Mapping is frozen");
+        }
+
+        @Override
+        public String remove(String owner, String name, String desc) {
+            throw new UnsupportedOperationException("Mapping is frozen");
+        }
+
+        @Override
+        public String remove(Object key) {
+            throw new UnsupportedOperationException("Mapping is frozen");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Mapping is frozen");
+        }
+    }
+
+    /**
+     * The members of a single class, in an open addressing hash table of
+     * symbol ids so that lookups by name and descriptor don't allocate. A
+     * descriptor of -1 stands for none, and a value of -1 for an empty slot.
+     */
+    private static class MemberTable {
+
+        private int[] names = new int[4];
+        private int[] descs = new int[4];
+        private int[] values = newValues(4);
+        private int size;
+        // Descriptors of each name, as desc * 2 for a single one, or as
+        // index * 2 + 1 into variants for more. Only kept for fields
+        private final IntIntMap byName;
+        private int[][] variants;
+        private int variantCount;
+
+        private MemberTable(boolean indexNames) {
+            this.byName = indexNames ? new IntIntMap(4) : null;
+        }
+
+        private static int[] newValues(int length) {
+            int[] values = new int[length];
+            Arrays.fill(values, -1);
+            return values;
+        }
+
+        private static int hash(int name, int desc) {
+            int h = (name * 31 + desc) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private int find(int name, int desc) {
+            int mask = names.length - 1;
+            int i = hash(name, desc) & mask;
+            while (values[i] >= 0) {
+                if (names[i] == name && descs[i] == desc) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -(i + 1);
+        }
+
+        private int get(int name, int desc) {
+            int i = find(name, desc);
+            return (i >= 0) ? values[i] : -1;
+        }
+
+        private int put(int name, int desc, int value) {
+            int i = find(name, desc);
+            if (i >= 0) {
+                int old = values[i];
+                values[i] = value;
+                return old;
+            }
+
+            if ((size + 1) * 4 > names.length * 3) {
+                resize();
+                i = find(name, desc);
+            }
+            i = -(i + 1);
+            names[i] = name;
+            descs[i] = desc;
+            values[i] = value;
+            size++;
+            if (byName != null && desc >= 0) {
+                addDescriptor(name, desc);
+            }
+            return -1;
+        }
+
+        /**
+         * Get the descriptors of the members with the given name, ignoring
+         * those without one. Tables which do not index names are scanned.
+         *
+         * @return the descriptor ids, or null if there are none
+         */
+        private int[] descriptors(int name) {
+            if (byName == null) {
+                int[] found = new int[size];
+                int n = 0;
+                for (int i = 0; i < names.length; i++) {
+                    if (values[i] >= 0 && names[i] == name && descs[i] >= 0) {
+                        found[n++] = descs[i];
+                    }
+                }
+                return (n == 0) ? null : Arrays.copyOf(found, n);
+            }
+
+            int entry = byName.get(name);
+            if (entry < 0) {
+                return null;
+            }
+            if ((entry & 1) == 0) {
+                return new int[]{entry >>> 1};
+            }
+            int[] list = variants[entry >>> 1];
+            return (list[0] == 0) ? null : Arrays.copyOfRange(list, 1, list[0] + 1);
+        }
+
+        private void addDescriptor(int name, int desc) {
+            int entry = byName.get(name);
+            if (entry < 0) {
+                byName.put(name, desc << 1);
+                return;
+            }
+
+            int slot;
+            if ((entry & 1) == 0) {
+                // Second descriptor, move both to a list
+                if (variants == null) {
+                    variants = new int[4][];
+                } else if (variantCount == variants.length) {
+                    variants = Arrays.copyOf(variants, variantCount * 2);
+                }
+                slot = variantCount++;
+                variants[slot] = new int[]{1, entry >>> 1, 0, 0};
+                byName.put(name, (slot << 1) | 1);
+            } else {
+                slot = entry >>> 1;
+            }
+
+            int[] list = variants[slot];
+            int count = list[0];
+            if (count + 1 == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+                variants[slot] = list;
+            }
+            list[count + 1] = desc;
+            list[0] = count + 1;
+        }
+
+        private void removeDescriptor(int name, int desc) {
+            int entry = byName.get(name);
+            if (entry < 0) {
+                return;
+            }
+            if ((entry & 1) == 0) {
+                byName.remove(name);
+                return;
+            }
+
+            // Lists are left in place, even when empty
+            int[] list = variants[entry >>> 1];
+            int count = list[0];
+            for (int i = 1; i <= count; i++) {
+                if (list[i] == desc) {
+                    list[i] = list[count];
+                    list[0] = count - 1;
+                    return;
+                }
+            }
+        }
+
+        private int remove(int name, int desc) {
+            if (name < 0) {
+                return -1;
+            }
+            int i = find(name, desc);
+            if (i < 0) {
+                return -1;
+            }
+            int old = values[i];
+            size--;
+            if (byName != null && desc >= 0) {
+                removeDescriptor(name, desc);
+            }
+
+            // Shift back any following entries which would no longer be found
+            int mask = names.length - 1;
+            int j = i;
+            while (true) {
+                values[i] = -1;
+                while (true) {
+                    j = (j + 1) & mask;
+                    if (values[j] < 0) {
+                        return old;
+                    }
+                    int home = hash(names[j], descs[j]) & mask;
+                    if ((j > i) ? (home <= i || home > j) : (home <= i && home > j)) {
+                        break;
+                    }
+                }
+                names[i] = names[j];
+                descs[i] = descs[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+
+        private void resize() {
+            int[] oldNames = names;
+            int[] oldDescs = descs;
+            int[] oldValues = values;
+            names = new int[oldNames.length * 2];
+            descs = new int[oldNames.length * 2];
+            values = newValues(oldNames.length * 2);
+            for (int i = 0; i < oldNames.length; i++) {
+                if (oldValues[i] >= 0) {
+                    int j = -(find(oldNames[i], oldDescs[i]) + 1);
+                    names[j] = oldNames[i];
+                    descs[j] = oldDescs[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -41,11 +41,15 @@ public class ProgressMeter {
     public static double printInterval;
 
     public void makeProgress() {
+        makeProgress(1);
+    }
+
+    public void makeProgress(int amount) {
         if (!SpecialSource.verbose()) {
             return;
         }
 
-        this.progress++;
+        this.progress += amount;
 
         double percent = ((double) progress / (double) total) * 100.0;
         int currentInterval = (int) (Math.floor(percent / printInterval));
@@ -29,7 +29,10 @@
 package net.md_5.specialsource;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
@@ -38,7 +41,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.regex.Pattern;
+import net.md_5.specialsource.provider.MappingProvider;
 
 /**
  * "Pre-process" a class file, intended to be used before remapping with
@@ -54,7 +57,7 @@ public class RemapperProcessor {
 
     public boolean debug = false;
     private InheritanceMap inheritanceMap;
-    private JarMapping jarMapping;
+    private MappingProvider mapping;
     private AccessMap accessMap;
     private boolean remapReflectField;
     private boolean remapReflectClass;
@@ -63,20 +66,28 @@ public class RemapperProcessor {
      *
      * @param inheritanceMap Map to add extracted inheritance information too,
      * or null to not extract inheritance
-     * @param jarMapping Mapping for reflection remapping, or null to not remap
+     * @param mapping Mapping for reflection remapping, or null to not remap
      * reflection
      * @param accessMap Access transformer mappings, or null to not apply AT
      */
-    public RemapperProcessor(InheritanceMap inheritanceMap, JarMapping jarMapping, AccessMap accessMap) {
+    public RemapperProcessor(InheritanceMap inheritanceMap, MappingProvider mapping, AccessMap accessMap) {
         this.inheritanceMap = inheritanceMap;
-        this.jarMapping = jarMapping;
+        this.mapping = mapping;
         this.accessMap = accessMap;
         this.remapReflectField = true;
         this.remapReflectClass = false;
     }
 
+    public RemapperProcessor(InheritanceMap inheritanceMap, MappingProvider mapping) {
+        this(inheritanceMap, mapping, null);
+    }
+
+    public RemapperProcessor(InheritanceMap inheritanceMap, JarMapping jarMapping, AccessMap accessMap) {
+        this(inheritanceMap, (MappingProvider) jarMapping, accessMap);
+    }
+
     public RemapperProcessor(InheritanceMap inheritanceMap, JarMapping jarMapping) {
-        this(inheritanceMap, jarMapping, null);
+        this(inheritanceMap, (MappingProvider) jarMapping);
     }
 
     public byte[] process(InputStream inputStream) throws IOException {
@@ -89,7 +100,7 @@ public class RemapperProcessor {
 
     /**
      * Enable or disable remapping reflection field string constants.
-     * Requires a jarMapping, enabled by default if present.
+     * Requires a mapping, enabled by default if present.
      */
     public void setRemapReflectField(boolean b) {
         remapReflectField = b;
@@ -97,96 +108,137 @@ public class RemapperProcessor {
 
     /**
      * Enable or disable remapping reflection class name string constants.
-     * Requires a jarMapping.
+     * Requires a mapping.
      */
     public void setRemapReflectClass(boolean b) {
         remapReflectClass = b;
     }
 
-    @SuppressWarnings("unchecked")
     public byte[] process(ClassReader classReader) {
-        byte[] bytecode = null;
-        ClassNode classNode = new ClassNode();
-        int flags = 0;
-
         if (!isRewritingNeeded()) {
             // Not rewriting the class - skip the code, not needed
-            flags |= ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG;
+            classReader.accept(createVisitor(null), ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+            return null;
+        }
+
+        ClassWriter cw = new ClassWriter(0);
+        classReader.accept(createVisitor(cw), 0);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Create a visitor which processes a class as it passes through to
+     * another, so processing can share a single read and write of the class
+     * with other visitors, such as {@link RemappingClassAdapter}.
+     *
+     * @param cv the visitor to pass the processed class to, or null to only
+     * extract inheritance
+     */
+    public ClassVisitor createVisitor(ClassVisitor cv) {
+        return new ProcessingClassVisitor(cv);
+    }
+
+    private class ProcessingClassVisitor extends ClassVisitor {
+
+        private String className;
+
+        private ProcessingClassVisitor(ClassVisitor cv) {
+            super(Opcodes.ASM9, cv);
         }
 
-        classReader.accept(classNode, flags);
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            className = name;
 
-        String className = classNode.name;
+            // Inheritance extraction
+            if (inheritanceMap != null) {
+                logI("Loading plugin class inheritance for " + className);
 
-        // Inheritance extraction
-        if (inheritanceMap != null) {
-            logI("Loading plugin class inheritance for " + className);
+                // Get inheritance
+                ArrayList<String> parents = new ArrayList<String>();
 
-            // Get inheritance
-            ArrayList<String> parents = new ArrayList<String>();
+                if (interfaces != null) {
+                    for (String iface : interfaces) {
+                        parents.add(iface);
+                    }
+                }
+                parents.add(superName);
+
+                inheritanceMap.setParents(className.replace('.', '/'), parents);
 
-            for (String iface : classNode.interfaces) {
-                parents.add(iface);
+                logI("Inheritance added " + className + " parents " + parents.size());
             }
-            parents.add(classNode.superName);
 
-            inheritanceMap.setParents(className.replace('.', '/'), parents);
+            // Class access
+            if (accessMap != null) {
+                access = accessMap.applyClassAccess(className, access);
+            }
 
-            logI("Inheritance added " + className + " parents " + parents.size());
+            super.visit(version, access, name, signature, superName, interfaces);
         }
 
-        if (isRewritingNeeded()) {
-            // Class access
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
             if (accessMap != null) {
-                classNode.access = accessMap.applyClassAccess(className, classNode.access);
-                for (InnerClassNode inner : classNode.innerClasses) {
-                    inner.access = accessMap.applyClassAccess(inner.name, inner.access);
-                }
+                access = accessMap.applyClassAccess(name, access);
             }
 
+            super.visitInnerClass(name, outerName, innerName, access);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
             // Field access
             if (accessMap != null) {
-                for (FieldNode fieldNode : classNode.fields) {
-                    fieldNode.access = accessMap.applyFieldAccess(className, fieldNode.name, fieldNode.access);
-                }
+                access = accessMap.applyFieldAccess(className, name, access);
             }
 
-            for (MethodNode methodNode : classNode.methods) {
-                // Method access
-                if (accessMap != null) {
-                    methodNode.access = accessMap.applyMethodAccess(className, methodNode.name, methodNode.desc, methodNode.access);
-                }
+            return super.visitField(access, name, descriptor, signature, value);
+        }
 
-                // Reflection remapping
-                if (jarMapping != null) {
-                    AbstractInsnNode insn = methodNode.instructions.getFirst();
-                    while (insn != null) {
-                        switch (insn.getOpcode())
-                        {
-                            case Opcodes.INVOKEVIRTUAL:
-                                remapGetDeclaredField(insn);
-                                break;
-
-                            case Opcodes.INVOKESTATIC:
-                                remapClassForName(insn);
-                                break;
-                        }
-
-                        insn = insn.getNext();
-                    }
-                }
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            // Method access
+            if (accessMap != null) {
+                access = accessMap.applyMethodAccess(className, name, descriptor, access);
+            }
+
+            final MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (next == null || mapping == null || !(remapReflectField || remapReflectClass)) {
+                return next;
             }
 
-            ClassWriter cw = new ClassWriter(0);
-            classNode.accept(cw);
-            bytecode = cw.toByteArray();
+            // Reflection remapping looks back over the instructions, so only this method is buffered
+            return new MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+                @Override
+                public void visitEnd() {
+                    remapReflection(this);
+                    accept(next);
+                }
+            };
         }
+    }
+
+    private void remapReflection(MethodNode methodNode) {
+        AbstractInsnNode insn = methodNode.instructions.getFirst();
+        while (insn != null) {
+            switch (insn.getOpcode())
+            {
+                case Opcodes.INVOKEVIRTUAL:
+                    remapGetDeclaredField(insn);
+                    break;
+
+                case Opcodes.INVOKESTATIC:
+                    remapClassForName(insn);
+                    break;
+            }
 
-        return bytecode;
+            insn = insn.getNext();
+        }
     }
 
     private boolean isRewritingNeeded() {
-        return jarMapping != null || accessMap != null;
+        return mapping != null || accessMap != null;
     }
 
     /**
@@ -239,38 +291,28 @@ public class RemapperProcessor {
         }
     }
 
-    private static final Pattern JVM_TYPE_PATTERN = Pattern.compile("^\\[*L.+;$");
     private String getDeclaredFieldMapping(String className, String fieldName) {
-        String exactKey = className + '/' + fieldName;
-
         // Perform direct lookup first.
-        String exactResult = jarMapping.fields.get(exactKey);
+        String exactResult = mapping.getFieldMapping(className, fieldName, null);
         if (exactResult != null) {
             return exactResult;
         }
 
         // Fall through to an indirect lookup in case the mapping is from Proguard.
-        int exactLen = exactKey.length();
-        // Exclusive upper bound is the next character to ensure that all keys start with the exact key.
-        // Ex: "abc/Def/player" to "abc/Def/playes"
-        String high = exactKey.substring(0, exactLen - 1) + ((char) (exactKey.charAt(exactLen - 1) + 1));
-        Map<String, String> submap = jarMapping.fields.subMap(exactKey, high);
-        for (Map.Entry<String, String> entry : submap.entrySet()) {
-            // Due to the map bounds and the fact that the exact key isn't contained,
-            // all entries should have keys that are longer than and start with the exact key.
-            if (entry.getKey().charAt(exactLen) != '/') {
-                // Skip fields with a common prefix (i.e. abc/Def/players)
-                continue;
-            }
+        // If the descriptor appears to be a type, accept the match.
+        return mapping.getFieldMappingByName(className, fieldName, RemapperProcessor::isObjectType);
+    }
 
-            // If the suffix appears to be a type, accept the match.
-            String type = entry.getKey().substring(exactLen + 1);
-          if (type.length() >= 3 && JVM_TYPE_PATTERN.matcher(type).find()) {
-                return entry.getValue();
-            }
+    /**
+     * Check if a descriptor is an object or array of objects type, such as
+     * Ljava/lang/String; or [[Ljava/lang/Object;
+     */
+    private static boolean isObjectType(String desc) {
+        int i = 0;
+        while (i < desc.length() && desc.charAt(i) == '[') {
+            i++;
         }
-
-        return null;
+        return desc.length() - i >= 3 && desc.charAt(i) == 'L' && desc.charAt(desc.length() - 1) == ';';
     }
 
      /**
@@ -303,7 +345,7 @@ public class RemapperProcessor {
          }
          String className = (String) ldcClassName.cst;
 
-         String newName = jarMapping.classes.get(className.replace('.', '/')); // TODO: ToInternalName
+         String newName = mapping.getClassMapping(className.replace('.', '/')); // TODO: ToInternalName
          logR("Remapping " + className + " -> " + newName);
 
          if (newName != null) {
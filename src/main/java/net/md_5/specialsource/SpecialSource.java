@@ -32,11 +32,21 @@ import net.md_5.specialsource.util.Pair;
 import net.md_5.specialsource.util.FileLocator;
 import net.md_5.specialsource.provider.JointProvider;
 import net.md_5.specialsource.provider.JarProvider;
+import net.md_5.specialsource.provider.MappingProvider;
+import net.md_5.specialsource.provider.RecordingMappingProvider;
+import net.md_5.specialsource.format.MappingConverter;
+import net.md_5.specialsource.writer.CompactSearge;
+import net.md_5.specialsource.writer.MappingWriter;
+import net.md_5.specialsource.writer.Searge;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import joptsimple.OptionException;
@@ -79,6 +89,18 @@ public class SpecialSource {
                         .ofType(File.class);
 
                 acceptsAll(asList("c", "compact"), "Output mapping file in compact format");
+
+                acceptsAll(asList("compile-mappings"), "Compiled binary mapping file output")
+                        .withRequiredArg()
+                        .ofType(File.class);
+                acceptsAll(asList("convert-mappings"), "Convert srg-in to another format without loading it, written as srg or compact")
+                        .withRequiredArg()
+                        .ofType(File.class);
+                acceptsAll(asList("sort-mappings"), "Sort the output of convert-mappings");
+                acceptsAll(asList("chain-mappings"), "Compose the srg-in files in order (A->B then B->C gives A->C) instead of merging them");
+                acceptsAll(asList("write-mappings"), "Write the loaded mappings out as srg, or compact with --compact")
+                        .withRequiredArg()
+                        .ofType(File.class);
                 acceptsAll(asList("f", "generate-dupes"), "Include unrenamed symbols in mapping file output");
 
                 acceptsAll(asList("m", "srg-in"), "Mapping file input")
@@ -94,6 +116,12 @@ public class SpecialSource {
                         .withRequiredArg();
 
                 acceptsAll(asList("r", "reverse"), "Reverse input/output names on srg-in");
+                acceptsAll(asList("lazy-members"), "Only load srg-in field and method mappings for classes which are remapped");
+                acceptsAll(asList("prune-mappings"), "Drop srg-in mappings which in-jar never refers to before remapping");
+                acceptsAll(asList("flatten-mappings"), "Copy inherited srg-in field and method mappings down to the in-jar classes before remapping");
+                acceptsAll(asList("write-used-mappings"), "Write the mappings used to remap in-jar as srg, or compact with --compact")
+                        .withRequiredArg()
+                        .ofType(File.class);
 
                 acceptsAll(asList("i", "in-jar"), "Input jar(s) to remap")
                         .withRequiredArg()
@@ -105,6 +133,7 @@ public class SpecialSource {
 
 
                 acceptsAll(asList("force-redownload"), "Force redownloading remote resources (invalid cache)");
+                acceptsAll(asList("no-mapping-cache"), "Do not cache compiled copies of srg-in files next to them");
 
                 acceptsAll(asList("l", "live"), "Enable runtime inheritance lookup");
                 acceptsAll(asList("L", "live-remapped"), "Enable runtime inheritance lookup through a mapping");
@@ -141,6 +170,11 @@ public class SpecialSource {
                         .withRequiredArg()
                         .ofType(String.class);
 
+                acceptsAll(asList("threads"), "Number of threads to load mappings and remap classes with")
+                        .withRequiredArg()
+                        .ofType(Integer.class)
+                        .defaultsTo(1);
+
                 acceptsAll(asList("log"), "Output log to write")
                         .withRequiredArg()
                         .ofType(File.class);
@@ -182,6 +216,8 @@ public class SpecialSource {
         }
 
         JarMapping jarMapping;
+        CompiledMapping compiledMapping = null;
+        int threads = (Integer) options.valueOf("threads");
         verbose = !options.has("quiet");
         kill_source = options.has("kill-source");
         kill_lvt = options.has("kill-lvt");
@@ -199,8 +235,40 @@ public class SpecialSource {
         }
 
         FileLocator.useCache = !options.has("force-redownload");
+        CompiledMapping.useCache = !options.has("no-mapping-cache");
         SpecialSource.stable = options.has("stable");
 
+        if (options.has("convert-mappings")) {
+            if (!options.has("srg-in") || options.valuesOf("srg-in").size() != 1) {
+                System.err.println("convert-mappings requires a single srg-in file");
+                System.exit(-1);
+                return;
+            }
+            if (options.has("in-shade-relocation") || options.has("out-shade-relocation") || options.has("excluded-packages")) {
+                System.err.println("convert-mappings does not support shade relocation or excluded packages");
+                System.exit(-1);
+                return;
+            }
+
+            String input = (String) options.valueOf("srg-in");
+            File output = (File) options.valueOf("convert-mappings");
+            log("Converting mappings to " + output);
+            try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)))) {
+                boolean sorted = options.has("sort-mappings");
+                MappingWriter writer;
+                if (options.has("compact")) {
+                    writer = sorted ? new CompactSearge(input, output.getName()) : new CompactSearge(input, output.getName(), out);
+                } else {
+                    writer = sorted ? new Searge(input, output.getName()) : new Searge(input, output.getName(), out);
+                }
+                MappingConverter.convert(FileLocator.getFile(input), writer, options.has("reverse"));
+                if (sorted) {
+                    writer.write(out);
+                }
+            }
+            return;
+        }
+
         Jar jar1 = null, jar2 = null, jar3 = null;
 
         if (options.has("first-jar") && options.has("second-jar")) {
@@ -233,6 +301,8 @@ public class SpecialSource {
             {
                 jarMapping.addExcludedPackage(pkg);
             }
+            jarMapping.setLazyMembers(options.has("lazy-members"));
+            jarMapping.setThreads(threads);
 
             // Loading options
             boolean reverse = options.has("reverse");
@@ -243,8 +313,32 @@ public class SpecialSource {
             // Load each mapping
             @SuppressWarnings("unchecked")
             List<String> filenames = (List<String>) options.valuesOf("srg-in");
-            for (String filename : filenames) {
-                jarMapping.loadMappings(filename, reverse, numeric, inShadeRelocation, outShadeRelocation);
+            if (canRemapCompiled(filenames)) {
+                // Remap straight from the memory mapped cache
+                compiledMapping = jarMapping.openCompiled(filenames.get(0), reverse, inShadeRelocation, outShadeRelocation);
+            } else if (options.has("chain-mappings")) {
+                // Reversed links are applied from the last file back to the first
+                List<String> links = new ArrayList<String>(filenames);
+                if (reverse) {
+                    Collections.reverse(links);
+                }
+                List<JarMapping> chain = new ArrayList<JarMapping>();
+                for (int i = 0; i < links.size(); i++) {
+                    JarMapping link = new JarMapping();
+                    for (String pkg : excluded) {
+                        link.addExcludedPackage(pkg);
+                    }
+                    link.setThreads(threads);
+                    // Relocate the input names of the first mapping and the output names of the last
+                    link.loadMappings(links.get(i), reverse, numeric,
+                            (i == 0) ? inShadeRelocation : null,
+                            (i == links.size() - 1) ? outShadeRelocation : null);
+                    chain.add(link);
+                }
+                log("Composing " + chain.size() + " mappings");
+                jarMapping = MappingComposer.compose(chain);
+            } else {
+                jarMapping.loadMappings(filenames, reverse, numeric, inShadeRelocation, outShadeRelocation);
             }
         } else {
             System.err.println("No mappings given, first-jar/second-jar or srg-in required");
@@ -252,33 +346,46 @@ public class SpecialSource {
             System.exit(-1);
             return;
         }
-        log(jarMapping.packages.size() + " packages, " + jarMapping.classes.size() + " classes, " + jarMapping.fields.size() + " fields, " + jarMapping.methods.size() + " methods");
+        if (compiledMapping != null) {
+            log(compiledMapping.getPackageMappings().size() + " packages, " + compiledMapping.getClassCount() + " classes, " + compiledMapping.getFieldCount() + " fields, " + compiledMapping.getMethodCount() + " methods");
+        } else {
+            log(jarMapping.packages.size() + " packages, " + jarMapping.classes.size() + " classes, " + jarMapping.fields.size() + " fields, " + jarMapping.methods.size() + " methods");
+        }
+
+        if (options.has("write-mappings")) {
+            @SuppressWarnings("unchecked")
+            String input = options.has("srg-in") ? String.join(", ", (List<String>) options.valuesOf("srg-in")) : jar1.getFilename();
+            writeMappings(jarMapping, (File) options.valueOf("write-mappings"), input, options.has("compact"));
+        }
+
+        if (options.has("compile-mappings")) {
+            File compiledFile = (File) options.valueOf("compile-mappings");
+            log("Writing compiled mappings to " + compiledFile);
+            CompiledMapping.write(jarMapping, compiledFile);
+        }
 
         JointProvider inheritanceProviders = new JointProvider();
         jarMapping.setFallbackInheritanceProvider(inheritanceProviders);
+        if (compiledMapping != null) {
+            compiledMapping.setInheritanceProvider(inheritanceProviders);
+        }
 
         if (options.has("live")) {
             inheritanceProviders.add(new ClassLoaderProvider(ClassLoader.getSystemClassLoader()));
         }
 
         if (options.has("read-inheritance")) {
-            InheritanceMap inheritanceMap = new InheritanceMap();
+            InheritanceMap inheritanceMap = new InheritanceMap(jarMapping.getSymbols());
 
-            BiMap<String, String> inverseClassMap = HashBiMap.create(jarMapping.classes).inverse();
             File inheritanceFile = FileLocator.getFile((String) options.valueOf("read-inheritance"));
-            try (BufferedReader reader = new BufferedReader(new FileReader(inheritanceFile))) {
-                inheritanceMap.load(reader, inverseClassMap);
-            }
+            // Only the class names are inverted, as they always have been
+            BiMap<String, String> inverseClassMap = HashBiMap.create(jarMapping.classes).inverse();
+            inheritanceMap.load(inheritanceFile, inverseClassMap);
             log("Loaded inheritance map for " + inheritanceMap.size() + " classes");
 
             inheritanceProviders.add(inheritanceMap);
         }
 
-        RemapperProcessor reflectionMapper = null;
-        if (options.has("remap-reflect-field")) {
-            reflectionMapper = new RemapperProcessor(null, jarMapping, null);
-        }
-
         RemapperProcessor accessMapper = null;
         AccessMap access = null;
         if (options.has("access-transformer")) {
@@ -299,19 +406,59 @@ public class SpecialSource {
 
             inheritanceProviders.add(new JarProvider(jar3));
 
+            if (options.has("prune-mappings")) {
+                int pruned = jarMapping.prune(JarReferences.scan(jar3, inheritanceProviders));
+                log("Pruned " + pruned + " mappings not referenced by the input jar");
+            }
+
+            MappingProvider mapping;
+            if (compiledMapping != null) {
+                mapping = compiledMapping;
+            } else {
+                // Only a frozen mapping can be shared between threads
+                JarMapping remapMapping = (threads > 1) ? jarMapping.freeze() : jarMapping;
+
+                mapping = remapMapping;
+                if (options.has("flatten-mappings")) {
+                    log("Flattening mappings");
+                    mapping = new FlattenedMapping(remapMapping, jar3.getClassNames());
+                }
+            }
+
+            RecordingMappingProvider recorder = null;
+            if (options.has("write-used-mappings")) {
+                recorder = new RecordingMappingProvider(mapping);
+                mapping = recorder;
+            }
+
+            RemapperProcessor reflectionMapper = null;
+            if (options.has("remap-reflect-field")) {
+                reflectionMapper = new RemapperProcessor(null, mapping, null);
+            }
+
             log("Remapping final jar");
-            JarRemapper jarRemapper = new JarRemapper(reflectionMapper, jarMapping, accessMapper);
+            JarRemapper jarRemapper = new JarRemapper(reflectionMapper, mapping, accessMapper);
             if (options.has("log")) {
                 File logOutput = (File) options.valueOf("log");
                 jarRemapper.setLogFile(logOutput);
             }
+            jarRemapper.setThreads(threads);
 
             jarRemapper.remapJar(jar3, (File) options.valueOf("out-jar"), new HashSet<String>((Collection<String>) options.valuesOf("only")));
+            log("Skipped " + jarRemapper.getSkippedClassLookups() + " class and " + jarRemapper.getSkippedMemberLookups() + " member lookups with no possible mapping");
+            for (Map.Entry<String, CacheStats> entry : jarRemapper.getCacheStats().entrySet()) {
+                CacheStats stats = entry.getValue();
+                log(String.format("Remapped %d %s(s), %.1f%% from cache", stats.requestCount(), entry.getKey(), stats.hitRate() * 100));
+            }
+
+            if (recorder != null) {
+                writeMappings(recorder.getUsedMapping(), (File) options.valueOf("write-used-mappings"), jar3.getFilename(), options.has("compact"));
+            }
         }
 
 
         if (options.has("write-inheritance")) {
-            InheritanceMap inheritanceMap = new InheritanceMap();
+            InheritanceMap inheritanceMap = new InheritanceMap(jarMapping.getSymbols());
 
             inheritanceMap.generate(inheritanceProviders, jarMapping.classes.values());
             try (PrintWriter printWriter = new PrintWriter((File) options.valueOf("write-inheritance"))) {
@@ -331,12 +478,38 @@ public class SpecialSource {
         if (jar3 != null) jar3.close();
     }
 
+    /**
+     * Whether the srg-in mappings can be remapped with directly as a
+     * {@link CompiledMapping}, which needs a single cached file and no
+     * options that modify or write out the loaded mappings.
+     */
+    private static boolean canRemapCompiled(List<String> filenames) {
+        if (!CompiledMapping.useCache || filenames.size() != 1 || new File(filenames.get(0)).isDirectory() || filenames.get(0).endsWith("/")) {
+            return false;
+        }
+        for (String option : asList("numeric-srg", "chain-mappings", "write-mappings", "compile-mappings", "prune-mappings", "flatten-mappings", "read-inheritance", "write-inheritance")) {
+            if (options.has(option)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void log(String message) {
         if (options != null && !options.has("quiet")) {
             System.out.println(message);
         }
     }
 
+    private static void writeMappings(JarMapping mapping, File output, String input, boolean compact) throws IOException {
+        log("Writing mappings to " + output);
+        MappingWriter writer = compact ? new CompactSearge(input, output.getName()) : new Searge(input, output.getName());
+        mapping.writeTo(writer);
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)))) {
+            writer.write(out);
+        }
+    }
+
     private static void visit(Pair<Jar> jars, Pair<JarComparer> visitors, Pair<String> classes) throws IOException {
         JarComparer visitor1 = visitors.first;
         JarComparer visitor2 = visitors.second;
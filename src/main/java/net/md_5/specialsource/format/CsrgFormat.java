@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.IOException;
+import net.md_5.specialsource.util.LineTokenizer;
+
+/**
+ * The compact srg format, with one class, field or method per line:
+ * <pre>
+ * oldClass newClass
+ * oldClass oldField newField
+ * oldClass oldMethod oldDescriptor newMethod
+ * </pre> Classes ending in '/' are package mappings. Tab indented tsrg member
+ * lines are also accepted, in case a tsrg file was not recognised from its
+ * first lines.
+ */
+public class CsrgFormat implements MappingFormat {
+
+    @Override
+    public String getName() {
+        return "csrg";
+    }
+
+    @Override
+    public boolean matches(LineTokenizer header) throws IOException {
+        if (!header.next()) {
+            return false;
+        }
+        int tokens = header.getTokenCount();
+        return header.getIndent() == 0 && tokens >= 2 && tokens <= 4 && !header.contains(':');
+    }
+
+    @Override
+    public MappingParser newParser(final MappingSink sink) {
+        return new MappingParser() {
+            private String currentClass;
+
+            @Override
+            public void parseLine(LineTokenizer line) throws IOException {
+                if (line.getIndent() == 0) {
+                    switch (line.getTokenCount()) {
+                        case 2:
+                            currentClass = line.getToken(0);
+                            sink.visitClass(currentClass, line.getToken(1));
+                            break;
+                        case 3:
+                            sink.visitField(line.getToken(0), line.getToken(1), null, null, line.getToken(2));
+                            break;
+                        case 4:
+                            sink.visitMethod(line.getToken(0), line.getToken(1), line.getToken(2), null, line.getToken(3), null);
+                            break;
+                        default:
+                            throw new IOException("Invalid csrg file line, token count " + line.getTokenCount() + " unexpected in " + line);
+                    }
+                } else if (line.getIndent() == 1) {
+                    if (currentClass == null) {
+                        throw new IOException("Invalid tsrg file, tsrg field/method line before class line: " + line);
+                    }
+                    TsrgFormat.parseMember(sink, currentClass, line);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.NodeType;
+import net.md_5.specialsource.Ownable;
+import net.md_5.specialsource.util.FileLocator;
+import net.md_5.specialsource.util.LineTokenizer;
+import net.md_5.specialsource.writer.MappingWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Converts a mapping file to another format one entry at a time, without
+ * loading it into a {@link net.md_5.specialsource.JarMapping}. Only the
+ * package and class names are kept in memory, for formats which leave out the
+ * new owners and descriptors of members; the fields and methods are passed
+ * straight on to the writer.
+ *
+ * Whether the output is sorted depends on how the writer was created, see
+ * {@link MappingWriter}.
+ */
+public class MappingConverter implements MappingSink {
+
+    private final MappingWriter writer;
+    private final boolean reverse;
+    private final Map<String, String> packages = new LinkedHashMap<String, String>();
+    private final Map<String, String> classes = new HashMap<String, String>();
+    private final Map<String, String> oldClassNames = new HashMap<String, String>();
+    // Set while reading the class names ahead of converting
+    private boolean collecting;
+    // Mapped by package and class as JarRemapper would, once per class
+    private final Map<String, String> mappedTypes = new HashMap<String, String>();
+    private final Remapper classMapper = new Remapper(Opcodes.ASM9) {
+        @Override
+        public String map(String cls) {
+            return mappedTypes.computeIfAbsent(cls, name -> JarRemapper.mapTypeName(name, packages, classes, name));
+        }
+    };
+
+    private MappingConverter(MappingWriter writer, boolean reverse) {
+        this.writer = writer;
+        this.reverse = reverse;
+    }
+
+    /**
+     * Convert a mapping file, which may be gzip or zip compressed.
+     *
+     * @param input the mapping file to read, in any known format
+     * @param writer the writer for the output format
+     * @param reverse swap the old and new names
+     */
+    public static void convert(File input, MappingWriter writer, boolean reverse) throws IOException {
+        MappingConverter converter = new MappingConverter(writer, reverse);
+
+        MappingFormat format;
+        try (ReadableByteChannel channel = Channels.newChannel(FileLocator.openStream(input))) {
+            LineTokenizer line = new LineTokenizer(channel);
+            format = MappingFormats.detect(line.peek(MappingFormats.HEADER_SIZE));
+
+            if (format == MappingFormats.SRG) {
+                // Every line is complete, so one pass is enough
+                converter.parse(format, line);
+                return;
+            }
+
+            converter.collecting = true;
+            converter.parse(format, line);
+            converter.collecting = false;
+        }
+
+        try (ReadableByteChannel channel = Channels.newChannel(FileLocator.openStream(input))) {
+            converter.parse(format, new LineTokenizer(channel));
+        }
+    }
+
+    private void parse(MappingFormat format, LineTokenizer line) throws IOException {
+        MappingParser parser = format.newParser(this);
+        while (line.next()) {
+            parser.parseLine(line);
+        }
+    }
+
+    @Override
+    public void visitPackage(String oldName, String newName) {
+        if (collecting) {
+            packages.put(oldName, newName);
+            return;
+        }
+
+        if (reverse) {
+            writer.addPackageMap(newName, oldName);
+        } else {
+            writer.addPackageMap(oldName, newName);
+        }
+    }
+
+    @Override
+    public void visitClass(String oldName, String newName) {
+        if (oldName.endsWith("/")) {
+            visitPackage(oldName, newName);
+            return;
+        }
+        if (collecting) {
+            classes.put(oldName, newName);
+            oldClassNames.put(newName, oldName);
+            return;
+        }
+
+        if (reverse) {
+            writer.addClassMap(newName, oldName);
+        } else {
+            writer.addClassMap(oldName, newName);
+        }
+    }
+
+    @Override
+    public void visitField(String owner, String name, String desc, String newOwner, String newName) {
+        if (collecting) {
+            return;
+        }
+
+        Ownable oldField = new Ownable(NodeType.FIELD, owner, name, desc, 0);
+        Ownable newField = new Ownable(NodeType.FIELD, (newOwner != null) ? newOwner : classMapper.map(owner), newName,
+                (desc != null) ? classMapper.mapDesc(desc) : null, 0);
+        if (reverse) {
+            writer.addFieldMap(newField, oldField);
+        } else {
+            writer.addFieldMap(oldField, newField);
+        }
+    }
+
+    @Override
+    public void visitMethod(String owner, String name, String desc, String newOwner, String newName, String newDesc) {
+        if (collecting) {
+            return;
+        }
+
+        Ownable oldMethod = new Ownable(NodeType.METHOD, owner, name, desc, 0);
+        Ownable newMethod = new Ownable(NodeType.METHOD, (newOwner != null) ? newOwner : classMapper.map(owner), newName,
+                (newDesc != null) ? newDesc : classMapper.mapMethodDesc(desc), 0);
+        if (reverse) {
+            writer.addMethodMap(newMethod, oldMethod);
+        } else {
+            writer.addMethodMap(oldMethod, newMethod);
+        }
+    }
+
+    @Override
+    public void afterClasses(Runnable task) {
+        // Classes are read ahead, so they are always complete when converting
+        if (!collecting) {
+            task.run();
+        }
+    }
+
+    @Override
+    public String getOldClassName(String newName) {
+        return oldClassNames.get(newName);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.IOException;
+import net.md_5.specialsource.util.LineTokenizer;
+
+/**
+ * A text mapping file format. Formats are picked once per file by
+ * {@link MappingFormats#detect}, after which every line is handed to a parser
+ * for that format alone.
+ *
+ * Additional formats can be registered through {@link java.util.ServiceLoader}
+ * by listing the implementation in
+ * {@code META-INF/services/net.md_5.specialsource.format.MappingFormat}, these
+ * are tried before the built in formats.
+ */
+public interface MappingFormat {
+
+    /**
+     * Get a short name for this format, such as "srg".
+     */
+    String getName();
+
+    /**
+     * Check whether a file is in this format.
+     *
+     * @param header the lines at the start of the file, the last of which may
+     * be cut short
+     */
+    boolean matches(LineTokenizer header) throws IOException;
+
+    /**
+     * Whether entries which conflict with ones already loaded are an error,
+     * rather than replacing them.
+     */
+    default boolean rejectsDuplicates() {
+        return false;
+    }
+
+    /**
+     * Create a parser for a single file, which will send its entries to the
+     * given sink.
+     */
+    MappingParser newParser(MappingSink sink);
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+import net.md_5.specialsource.util.LineTokenizer;
+
+/**
+ * The known mapping formats, in the order they are tried.
+ */
+public class MappingFormats {
+
+    public static final MappingFormat SRG = new SrgFormat();
+    public static final MappingFormat CSRG = new CsrgFormat();
+    public static final MappingFormat TSRG = new TsrgFormat();
+    public static final MappingFormat TSRG2 = new Tsrg2Format();
+    public static final MappingFormat PROGUARD = new ProguardFormat();
+    /**
+     * The number of bytes from the start of a file which formats may look at.
+     */
+    public static final int HEADER_SIZE = 1 << 16;
+    private static final List<MappingFormat> formats;
+
+    static {
+        List<MappingFormat> list = new ArrayList<MappingFormat>();
+        for (MappingFormat format : ServiceLoader.load(MappingFormat.class, MappingFormats.class.getClassLoader())) {
+            list.add(format);
+        }
+        list.add(TSRG2);
+        list.add(SRG);
+        list.add(PROGUARD);
+        list.add(TSRG);
+        list.add(CSRG);
+        formats = Collections.unmodifiableList(list);
+    }
+
+    private MappingFormats() {
+    }
+
+    public static List<MappingFormat> getFormats() {
+        return formats;
+    }
+
+    /**
+     * Find a format by its name.
+     *
+     * @return the format, or null if there is none with that name
+     */
+    public static MappingFormat get(String name) {
+        for (MappingFormat format : formats) {
+            if (format.getName().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Work out the format of a file from its first bytes. Files which no
+     * format recognises, such as empty files, are treated as compact srg.
+     *
+     * @param header up to {@link #HEADER_SIZE} bytes from the start of the
+     * file
+     */
+    public static MappingFormat detect(ByteBuffer header) throws IOException {
+        for (MappingFormat format : formats) {
+            if (format.matches(new LineTokenizer(header.duplicate()))) {
+                return format;
+            }
+        }
+        return CSRG;
+    }
+}
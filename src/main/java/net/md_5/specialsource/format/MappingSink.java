@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+/**
+ * Receives the entries of a mapping file from a {@link MappingParser}. All
+ * names are passed exactly as written in the file, in internal form, and any
+ * transformation or reversing is left to the sink.
+ */
+public interface MappingSink {
+
+    void visitPackage(String oldName, String newName);
+
+    void visitClass(String oldName, String newName);
+
+    /**
+     * @param owner the old name of the class declaring the field
+     * @param name the old name of the field
+     * @param desc the old descriptor of the field, or null if the format does
+     * not include it
+     * @param newOwner the new name of the declaring class if the format
+     * includes it, otherwise null
+     * @param newName the new name of the field
+     */
+    void visitField(String owner, String name, String desc, String newOwner, String newName);
+
+    /**
+     * @param owner the old name of the class declaring the method
+     * @param name the old name of the method
+     * @param desc the old descriptor of the method
+     * @param newOwner the new name of the declaring class if the format
+     * includes it, otherwise null
+     * @param newName the new name of the method
+     * @param newDesc the new descriptor of the method if the format includes
+     * it, otherwise null
+     */
+    void visitMethod(String owner, String name, String desc, String newOwner, String newName, String newDesc);
+
+    /**
+     * Run a task once every class in the file has been visited, which may be
+     * straight away.
+     */
+    void afterClasses(Runnable task);
+
+    /**
+     * Look up the old name of a class by its new name, for formats whose
+     * descriptors are written with new names. Only complete from within a
+     * task passed to {@link #afterClasses(Runnable)}.
+     *
+     * @return the old name, or null if the class has not been visited
+     */
+    String getOldClassName(String newName);
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.IOException;
+import net.md_5.specialsource.util.LineTokenizer;
+
+/**
+ * ProGuard mapping files, as written by obfuscators. These map from the
+ * original names to the obfuscated ones, so they are loaded the other way
+ * around: the obfuscated names are the old names.
+ */
+public class ProguardFormat implements MappingFormat {
+
+    @Override
+    public String getName() {
+        return "proguard";
+    }
+
+    @Override
+    public boolean matches(LineTokenizer header) throws IOException {
+        return header.next() && header.indexOfToken("->") != -1;
+    }
+
+    @Override
+    public MappingParser newParser(final MappingSink sink) {
+        return new MappingParser() {
+            private String currentClass;
+
+            @Override
+            public void parseLine(LineTokenizer line) throws IOException {
+                int last = line.getTokenCount() - 1;
+                if (line.tokenEndsWith(last, ':')) {
+                    String orig = line.getToken(0).replace('.', '/');
+                    String obf = line.getToken(2);
+                    obf = obf.substring(0, obf.length() - 1).replace('.', '/');
+
+                    if (obf.endsWith("/")) {
+                        // Special case: mapping an entire hierarchy of classes
+                        sink.visitPackage(obf, orig);
+                    } else {
+                        currentClass = obf;
+                        sink.visitClass(obf, orig);
+                    }
+                } else {
+                    if (currentClass == null) {
+                        throw new IOException("Invalid proguard file, field/method line before class line: " + line);
+                    }
+                    if (line.getTokenCount() != 4) {
+                        throw new IOException("Invalid proguard file line, token count " + line.getTokenCount() + " unexpected in " + line);
+                    }
+
+                    String type = line.getToken(0);
+                    if (Character.isDigit(type.charAt(0))) {
+                        // strip line numbers
+                        type = type.substring(type.lastIndexOf(':') + 1);
+                    }
+
+                    // Member types refer to classes by their original names, which may not have been read yet
+                    final String owner = currentClass;
+                    final String returnType = type;
+                    final String nameDesc = line.getToken(1);
+                    final String obfName = line.getToken(3);
+                    sink.afterClasses(new Runnable() {
+                        @Override
+                        public void run() {
+                            int args = nameDesc.indexOf('(');
+                            if (args != -1) {
+                                String desc = ProguardUtil.csrgDesc(sink, nameDesc.substring(args), returnType);
+                                sink.visitMethod(owner, obfName, desc, null, nameDesc.substring(0, args), null);
+                            } else {
+                                sink.visitField(owner, obfName, ProguardUtil.toJVMType(sink, returnType), null, nameDesc);
+                            }
+                        }
+                    });
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+/**
+ * Converts the Java source style types of ProGuard files to descriptors, using
+ * the obfuscated class names.
+ */
+class ProguardUtil {
+
+    static String csrgDesc(MappingSink classes, String args, String ret) {
+        String[] parts = args.substring(1, args.length() - 1).split(",");
+        StringBuilder desc = new StringBuilder("(");
+        for (String part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            desc.append(toJVMType(classes, part));
+        }
+        desc.append(")");
+        desc.append(toJVMType(classes, ret));
+        return desc.toString();
+    }
+
+    static String toJVMType(MappingSink classes, String type) {
+        switch (type) {
+            case "byte":
+                return "B";
+            case "char":
+                return "C";
+            case "double":
+                return "D";
+            case "float":
+                return "F";
+            case "int":
+                return "I";
+            case "long":
+                return "J";
+            case "short":
+                return "S";
+            case "boolean":
+                return "Z";
+            case "void":
+                return "V";
+            default:
+                if (type.endsWith("[]")) {
+                    return "[" + toJVMType(classes, type.substring(0, type.length() - 2));
+                }
+                String clazzType = type.replace('.', '/');
+                String mappedType = classes.getOldClassName(clazzType);
+
+                return "L" + ((mappedType != null) ? mappedType : clazzType) + ";";
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.md_5.specialsource.util.FileLocator;
+import net.md_5.specialsource.util.LineTokenizer;
+
+/**
+ * The entries of a mapping file, parsed once and kept in memory so that they
+ * can be sent to several sinks.
+ */
+public class RecordedMappings implements MappingSink {
+
+    private final MappingFormat format;
+    private final List<String[]> entries = new ArrayList<String[]>();
+    private final Map<String, String> oldClassNames = new HashMap<String, String>();
+    private final List<Runnable> deferred = new ArrayList<Runnable>();
+
+    private RecordedMappings(MappingFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Parse a mapping file, which may be gzip or zip compressed.
+     */
+    public static RecordedMappings read(File file) throws IOException {
+        try (ReadableByteChannel channel = Channels.newChannel(FileLocator.openStream(file))) {
+            LineTokenizer line = new LineTokenizer(channel);
+            RecordedMappings recorded = new RecordedMappings(MappingFormats.detect(line.peek(MappingFormats.HEADER_SIZE)));
+
+            MappingParser parser = recorded.format.newParser(recorded);
+            while (line.next()) {
+                parser.parseLine(line);
+            }
+
+            for (Runnable task : recorded.deferred) {
+                task.run();
+            }
+            recorded.deferred.clear();
+            return recorded;
+        }
+    }
+
+    public MappingFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Send every entry to the given sink, in the order they were read.
+     */
+    public void replay(MappingSink sink) {
+        for (String[] entry : entries) {
+            switch (entry[0]) {
+                case "PK":
+                    sink.visitPackage(entry[1], entry[2]);
+                    break;
+                case "CL":
+                    sink.visitClass(entry[1], entry[2]);
+                    break;
+                case "FD":
+                    sink.visitField(entry[1], entry[2], entry[3], entry[4], entry[5]);
+                    break;
+                case "MD":
+                    sink.visitMethod(entry[1], entry[2], entry[3], entry[4], entry[5], entry[6]);
+                    break;
+                default:
+                    throw new IllegalStateException(entry[0]);
+            }
+        }
+    }
+
+    @Override
+    public void visitPackage(String oldName, String newName) {
+        entries.add(new String[]{"PK", oldName, newName});
+    }
+
+    @Override
+    public void visitClass(String oldName, String newName) {
+        entries.add(new String[]{"CL", oldName, newName});
+        oldClassNames.put(newName, oldName);
+    }
+
+    @Override
+    public void visitField(String owner, String name, String desc, String newOwner, String newName) {
+        entries.add(new String[]{"FD", owner, name, desc, newOwner, newName});
+    }
+
+    @Override
+    public void visitMethod(String owner, String name, String desc, String newOwner, String newName, String newDesc) {
+        entries.add(new String[]{"MD", owner, name, desc, newOwner, newName, newDesc});
+    }
+
+    @Override
+    public void afterClasses(Runnable task) {
+        deferred.add(task);
+    }
+
+    @Override
+    public String getOldClassName(String newName) {
+        return oldClassNames.get(newName);
+    }
+}
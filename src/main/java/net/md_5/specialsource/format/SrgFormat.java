@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.IOException;
+import net.md_5.specialsource.util.LineTokenizer;
+
+/**
+ * The standard srg format, with one "PK:", "CL:", "FD:" or "MD:" entry per
+ * line giving both the old and new names in full.
+ */
+public class SrgFormat implements MappingFormat {
+
+    @Override
+    public String getName() {
+        return "srg";
+    }
+
+    @Override
+    public boolean matches(LineTokenizer header) throws IOException {
+        return header.next() && (header.tokenEquals(0, "PK:") || header.tokenEquals(0, "CL:") || header.tokenEquals(0, "FD:") || header.tokenEquals(0, "MD:"));
+    }
+
+    @Override
+    public boolean rejectsDuplicates() {
+        return true;
+    }
+
+    @Override
+    public MappingParser newParser(final MappingSink sink) {
+        return new MappingParser() {
+            @Override
+            public void parseLine(LineTokenizer line) throws IOException {
+                if (line.tokenEquals(0, "CL:")) {
+                    String oldClassName = line.getToken(1);
+                    String newClassName = line.getToken(2);
+
+                    if (oldClassName.endsWith("/*") && newClassName.endsWith("/*")) {
+                        // extension for remapping class name prefixes
+                        sink.visitPackage(oldClassName.substring(0, oldClassName.length() - 1), newClassName.substring(0, newClassName.length() - 1));
+                    } else {
+                        sink.visitClass(oldClassName, newClassName);
+                    }
+                } else if (line.tokenEquals(0, "PK:")) {
+                    sink.visitPackage(line.getToken(1), line.getToken(2));
+                } else if (line.tokenEquals(0, "FD:")) {
+                    String oldFull = line.getToken(1);
+                    String newFull = line.getToken(2);
+
+                    // Split the qualified field names into their classes and actual names
+                    int splitOld = oldFull.lastIndexOf('/');
+                    int splitNew = newFull.lastIndexOf('/');
+                    if (splitOld == -1 || splitNew == -1) {
+                        throw new IllegalArgumentException("Field name is invalid, not fully-qualified: " + oldFull
+                                + " -> " + newFull + " in line=" + line);
+                    }
+
+                    sink.visitField(oldFull.substring(0, splitOld), oldFull.substring(splitOld + 1), null,
+                            newFull.substring(0, splitNew), newFull.substring(splitNew + 1));
+                } else if (line.tokenEquals(0, "MD:")) {
+                    String oldFull = line.getToken(1);
+                    String newFull = line.getToken(3);
+
+                    // Split the qualified method names into their classes and actual names
+                    int splitOld = oldFull.lastIndexOf('/');
+                    int splitNew = newFull.lastIndexOf('/');
+                    if (splitOld == -1 || splitNew == -1) {
+                        throw new IllegalArgumentException("Method name is invalid, not fully-qualified: " + oldFull
+                                + " -> " + newFull + " in line=" + line);
+                    }
+
+                    sink.visitMethod(oldFull.substring(0, splitOld), oldFull.substring(splitOld + 1), line.getToken(2),
+                            newFull.substring(0, splitNew), newFull.substring(splitNew + 1), line.getToken(4));
+                } else {
+                    throw new IllegalArgumentException("Unable to parse srg file, unrecognized mapping type in line=" + line);
+                }
+            }
+        };
+    }
+}
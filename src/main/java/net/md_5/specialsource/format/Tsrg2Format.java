@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.IOException;
+import net.md_5.specialsource.util.LineTokenizer;
+
+/**
+ * Version 2 of the tsrg format, which starts with a "tsrg2" header line
+ * listing the namespaces and gives one name per namespace on each line.
+ * Mappings are loaded from the first namespace to the second, and the
+ * parameter and other extra data on more deeply indented lines is ignored.
+ */
+public class Tsrg2Format implements MappingFormat {
+
+    @Override
+    public String getName() {
+        return "tsrg2";
+    }
+
+    @Override
+    public boolean matches(LineTokenizer header) throws IOException {
+        return header.next() && header.getIndent() == 0 && header.tokenEquals(0, "tsrg2");
+    }
+
+    @Override
+    public MappingParser newParser(final MappingSink sink) {
+        return new MappingParser() {
+            private int names = 2;
+            private String currentClass;
+
+            @Override
+            public void parseLine(LineTokenizer line) throws IOException {
+                if (line.getIndent() == 0) {
+                    if (line.tokenEquals(0, "tsrg2")) {
+                        // header
+                        names = line.getTokenCount() - 1;
+                        return;
+                    }
+                    if (line.getTokenCount() < 2) {
+                        throw new IOException("Invalid tsrg2 file line, token count " + line.getTokenCount() + " unexpected in " + line);
+                    }
+                    // Files may be split up, in which case the header is only seen by the first parser
+                    names = line.getTokenCount();
+                    currentClass = line.getToken(0);
+                    sink.visitClass(currentClass, line.getToken(1));
+                } else if (line.getIndent() == 1) {
+                    if (currentClass == null) {
+                        throw new IOException("Invalid tsrg2 file, field/method line before class line: " + line);
+                    }
+
+                    if (line.getTokenCount() == names) {
+                        sink.visitField(currentClass, line.getToken(0), null, null, line.getToken(1));
+                    } else if (line.getTokenCount() == names + 1) {
+                        String desc = line.getToken(1);
+                        if (desc.startsWith("(")) {
+                            sink.visitMethod(currentClass, line.getToken(0), desc, null, line.getToken(2), null);
+                        } else {
+                            sink.visitField(currentClass, line.getToken(0), desc, null, line.getToken(2));
+                        }
+                    } else {
+                        throw new IOException("Invalid tsrg2 file line, token count " + line.getTokenCount() + " unexpected in " + line);
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.IOException;
+import net.md_5.specialsource.util.LineTokenizer;
+
+/**
+ * The tsrg format, the same as compact srg except that members are listed
+ * below their class on tab indented lines, without the class name.
+ */
+public class TsrgFormat implements MappingFormat {
+
+    @Override
+    public String getName() {
+        return "tsrg";
+    }
+
+    @Override
+    public boolean matches(LineTokenizer header) throws IOException {
+        if (!header.next() || header.getIndent() != 0 || header.getTokenCount() != 2 || header.contains(':')) {
+            return false;
+        }
+        while (header.next()) {
+            if (header.getIndent() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public MappingParser newParser(final MappingSink sink) {
+        return new MappingParser() {
+            private String currentClass;
+
+            @Override
+            public void parseLine(LineTokenizer line) throws IOException {
+                if (line.getIndent() == 0) {
+                    if (line.getTokenCount() != 2) {
+                        throw new IOException("Invalid tsrg file line, token count " + line.getTokenCount() + " unexpected in " + line);
+                    }
+                    currentClass = line.getToken(0);
+                    sink.visitClass(currentClass, line.getToken(1));
+                } else if (line.getIndent() == 1) {
+                    if (currentClass == null) {
+                        throw new IOException("Invalid tsrg file, tsrg field/method line before class line: " + line);
+                    }
+                    parseMember(sink, currentClass, line);
+                }
+            }
+        };
+    }
+
+    static void parseMember(MappingSink sink, String owner, LineTokenizer line) throws IOException {
+        switch (line.getTokenCount()) {
+            case 2:
+                sink.visitField(owner, line.getToken(0), null, null, line.getToken(1));
+                break;
+            case 3:
+                sink.visitMethod(owner, line.getToken(0), line.getToken(1), null, line.getToken(2), null);
+                break;
+            default:
+                throw new IOException("Invalid tsrg file line, token count " + line.getTokenCount() + " unexpected in " + line);
+        }
+    }
+}
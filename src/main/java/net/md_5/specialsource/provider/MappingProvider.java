@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.provider;
+
+import java.util.Map;
+import java.util.function.Predicate;
+import net.md_5.specialsource.NodeType;
+
+/**
+ * The lookups needed to remap classes, so that remapping can run against any
+ * store of mappings, such as a {@link net.md_5.specialsource.JarMapping} on
+ * the heap or a memory mapped
+ * {@link net.md_5.specialsource.CompiledMapping}. Class names are internal
+ * names, and all methods return null when there is no mapping.
+ */
+public interface MappingProvider {
+
+    /**
+     * Get the new name of a class which is mapped by its exact name.
+     */
+    String getClassMapping(String className);
+
+    /**
+     * Get the package mappings, which are tried in iteration order. Keys are
+     * package names with a trailing '/', or "." for the default package.
+     */
+    Map<String, String> getPackageMappings();
+
+    /**
+     * Get the new name of a field declared by the given class.
+     *
+     * @param desc the field descriptor, or null for a mapping without one
+     */
+    String getFieldMapping(String owner, String name, String desc);
+
+    /**
+     * Get the new name of a field with any descriptor accepted by the filter,
+     * using the lowest descriptor if there is more than one.
+     */
+    String getFieldMappingByName(String owner, String name, Predicate<String> descFilter);
+
+    /**
+     * Get the new name of a method declared by the given class.
+     */
+    String getMethodMapping(String owner, String name, String desc);
+
+    /**
+     * Find the mapping of a field or method, looking through the super classes
+     * and interfaces of the owner if it is not mapped there and is
+     * inheritable.
+     *
+     * @param desc the member descriptor, which may be null for fields
+     * @param access the member access flags, or -1 if unknown
+     */
+    String tryClimb(NodeType type, String owner, String name, String desc, int access);
+
+    /**
+     * Quickly check if a class, or any class it is nested in, may have a
+     * mapping of its own, not counting package mappings. Used to skip lookups
+     * which can not find anything.
+     *
+     * @return false only if there is definitely no such mapping
+     */
+    default boolean mightMapClass(String className) {
+        return true;
+    }
+
+    /**
+     * Quickly check if any class may have a field or method mapping with the
+     * given name, so that lookups which can not find anything, even by
+     * climbing the inheritance tree, can be skipped.
+     *
+     * @return false only if there is definitely no such mapping
+     */
+    default boolean mightMapMember(NodeType type, String name) {
+        return true;
+    }
+
+    /**
+     * Get a count which changes whenever a class or package mapping is added,
+     * changed or removed, so results worked out from them can tell when they
+     * are out of date. Providers which never change return 0.
+     */
+    default int getClassModCount() {
+        return 0;
+    }
+
+    /**
+     * Make sure the members of a class are available, for providers which
+     * load them lazily.
+     */
+    default void loadMembers(String owner) {
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.provider;
+
+import java.util.Map;
+import java.util.function.Predicate;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.NodeType;
+
+/**
+ * Passes lookups through to another mapping, and records every mapping that
+ * is found. After remapping a jar the recorded mapping holds just what that
+ * jar used, and can be written out and loaded instead of the full mapping the
+ * next time the same jar is remapped.
+ *
+ * Members found by climbing the inheritance tree are recorded against the
+ * owner they were looked up by, so the recorded mapping finds them directly.
+ * Fields found without a descriptor are recorded without one. All package
+ * mappings are kept.
+ */
+public class RecordingMappingProvider implements MappingProvider {
+
+    private final MappingProvider mapping;
+    private final JarMapping used = new JarMapping();
+
+    public RecordingMappingProvider(MappingProvider mapping) {
+        this.mapping = mapping;
+        this.used.packages.putAll(mapping.getPackageMappings());
+    }
+
+    /**
+     * Get the mappings recorded so far.
+     */
+    public JarMapping getUsedMapping() {
+        return used;
+    }
+
+    @Override
+    public String getClassMapping(String className) {
+        String mapped = mapping.getClassMapping(className);
+        if (mapped != null) {
+            synchronized (used) {
+                used.classes.put(className, mapped);
+            }
+        }
+        return mapped;
+    }
+
+    @Override
+    public Map<String, String> getPackageMappings() {
+        return mapping.getPackageMappings();
+    }
+
+    @Override
+    public String getFieldMapping(String owner, String name, String desc) {
+        return record(NodeType.FIELD, owner, name, desc, mapping.getFieldMapping(owner, name, desc));
+    }
+
+    @Override
+    public String getFieldMappingByName(String owner, String name, Predicate<String> descFilter) {
+        return record(NodeType.FIELD, owner, name, null, mapping.getFieldMappingByName(owner, name, descFilter));
+    }
+
+    @Override
+    public String getMethodMapping(String owner, String name, String desc) {
+        return record(NodeType.METHOD, owner, name, desc, mapping.getMethodMapping(owner, name, desc));
+    }
+
+    @Override
+    public String tryClimb(NodeType type, String owner, String name, String desc, int access) {
+        return record(type, owner, name, desc, mapping.tryClimb(type, owner, name, desc, access));
+    }
+
+    @Override
+    public boolean mightMapClass(String className) {
+        return mapping.mightMapClass(className);
+    }
+
+    @Override
+    public boolean mightMapMember(NodeType type, String name) {
+        return mapping.mightMapMember(type, name);
+    }
+
+    @Override
+    public int getClassModCount() {
+        return mapping.getClassModCount();
+    }
+
+    @Override
+    public void loadMembers(String owner) {
+        mapping.loadMembers(owner);
+    }
+
+    private String record(NodeType type, String owner, String name, String desc, String mapped) {
+        if (mapped != null) {
+            synchronized (used) {
+                if (type == NodeType.FIELD) {
+                    used.getFieldMap().put(owner, name, desc, mapped);
+                } else {
+                    used.getMethodMap().put(owner, name, desc, mapped);
+                }
+            }
+        }
+        return mapped;
+    }
+}
@@ -40,7 +40,7 @@ public class ChainingTransformer extends MappingTransformer {
 
     public ChainingTransformer(JarRemapper jarRemapper) {
         this.jarRemapper = jarRemapper;
-        this.methodTransformer = new MethodDescriptor(jarRemapper.jarMapping.packages, jarRemapper.jarMapping.classes);
+        this.methodTransformer = new MethodDescriptor(jarRemapper.getMapping());
     }
 
     @Override
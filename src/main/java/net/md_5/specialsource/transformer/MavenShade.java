@@ -29,6 +29,8 @@
 package net.md_5.specialsource.transformer;
 
 import java.util.*;
+import net.md_5.specialsource.util.ModCountMap;
+import net.md_5.specialsource.util.PrefixMatcher;
 
 /**
  * Simulate a small subset of the maven-shade-plugin class relocation
@@ -36,9 +38,10 @@ import java.util.*;
  */
 public class MavenShade extends MappingTransformer {
 
-    public LinkedHashMap<String, String> relocations = new LinkedHashMap<String, String>();
+    public LinkedHashMap<String, String> relocations = new ModCountMap<String, String>();
     // No relocations
     public static final MavenShade IDENTITY = new MavenShade();
+    private volatile CompiledRelocations compiled;
 
     private MavenShade() {
     }
@@ -79,21 +82,34 @@ public class MavenShade extends MappingTransformer {
 
     @Override
     public String transformClassName(String className) {
-        for (Map.Entry<String, String> entry : relocations.entrySet()) {
-            String pattern = entry.getKey();
-            String shadedPattern = entry.getValue();
-
-            // Match the pattern.. currently, only _exact prefixes_ and replacements are supported
-            if (className.startsWith(toInternalName(pattern))) { // TODO: regex support?
-                String newClassName = toInternalName(shadedPattern) + className.substring(pattern.length());
+        // Match the pattern.. currently, only _exact prefixes_ and replacements are supported
+        PrefixMatcher patterns = getMatcher();
+        int match = patterns.match(className); // TODO: regex support?
+        if (match != -1) {
+            String pattern = patterns.getPrefix(match);
+            String shadedPattern = relocations.get(pattern);
 
-                return newClassName;
-            }
+            return toInternalName(shadedPattern) + className.substring(pattern.length());
         }
 
         return className;
     }
 
+    /**
+     * Get the relocation patterns compiled into a matcher, compiled again
+     * whenever the relocations change.
+     */
+    private PrefixMatcher getMatcher() {
+        LinkedHashMap<String, String> patterns = relocations;
+        int modCount = (patterns instanceof ModCountMap) ? ((ModCountMap<String, String>) patterns).getModCount() : -1;
+        CompiledRelocations current = compiled;
+        if (current == null || !current.isFor(patterns, modCount)) {
+            current = new CompiledRelocations(patterns, modCount);
+            compiled = current;
+        }
+        return current.matcher;
+    }
+
     @Override
     public String transformMethodDescriptor(String oldDescriptor) {
         MethodDescriptor methodDescriptorTransformer = new MethodDescriptor(relocations, null);
@@ -103,4 +119,27 @@ public class MavenShade extends MappingTransformer {
     public static String toInternalName(String className) {
         return className.replace('.', '/');
     }
+
+    private static class CompiledRelocations {
+
+        private final Map<String, String> relocations;
+        private final int modCount;
+        // Only kept for maps which do not count their changes
+        private final List<String> patterns;
+        private final PrefixMatcher matcher;
+
+        private CompiledRelocations(Map<String, String> relocations, int modCount) {
+            this.relocations = relocations;
+            this.modCount = modCount;
+            this.patterns = (modCount == -1) ? new ArrayList<String>(relocations.keySet()) : null;
+            this.matcher = new PrefixMatcher(relocations.keySet(), false);
+        }
+
+        private boolean isFor(Map<String, String> relocations, int modCount) {
+            if (this.relocations != relocations || this.modCount != modCount) {
+                return false;
+            }
+            return patterns == null || patterns.equals(new ArrayList<String>(relocations.keySet()));
+        }
+    }
 }
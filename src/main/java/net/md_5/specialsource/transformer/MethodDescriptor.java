@@ -30,17 +30,23 @@ package net.md_5.specialsource.transformer;
 
 import java.util.Map;
 import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.provider.MappingProvider;
 
 public class MethodDescriptor {
 
     private Map<String, String> packageMap;
     private Map<String, String> classMap;
+    private MappingProvider mapping;
 
     public MethodDescriptor(Map<String, String> packageMap, Map<String, String> classMap) {
         this.packageMap = packageMap;
         this.classMap = classMap;
     }
 
+    public MethodDescriptor(MappingProvider mapping) {
+        this.mapping = mapping;
+    }
+
     public String transform(String input) {
         StringBuilder output = new StringBuilder();
 
@@ -59,7 +65,9 @@ public class MethodDescriptor {
                     String className = rest.substring(1, end);
                     i += className.length() + 1;
 
-                    String newClassName = JarRemapper.mapTypeName(className, packageMap, classMap, className);
+                    String newClassName = (mapping != null)
+                            ? JarRemapper.mapTypeName(className, mapping, className)
+                            : JarRemapper.mapTypeName(className, packageMap, classMap, className);
 
                     output.append("L").append(newClassName).append(";");
                     break;
@@ -28,15 +28,12 @@
  */
 package net.md_5.specialsource.transformer;
 
-import com.google.common.base.Preconditions;
-import com.opencsv.CSVReader;
-
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.util.CsvReader;
 
 /**
  * For reading a srg through MCP's fields.csv and methods.csv Maps func_### and
@@ -50,11 +47,11 @@ public class MinecraftCodersPack extends MappingTransformer {
 
     public MinecraftCodersPack(File fieldsCsv, File methodsCsv, File packagesCsv) throws IOException {
         if (fieldsCsv != null && fieldsCsv.exists()) {
-            readIntoMap(fieldsCsv, fieldMap);
+            CsvReader.readIntoMap(fieldsCsv, fieldMap);
         }
 
         if (methodsCsv != null && methodsCsv.exists()) {
-            readIntoMap(methodsCsv, methodMap);
+            CsvReader.readIntoMap(methodsCsv, methodMap);
         }
 
         if (packagesCsv != null && packagesCsv.exists()) {
@@ -62,7 +59,7 @@ public class MinecraftCodersPack extends MappingTransformer {
             classPackageMap = new HashMap<String, String>();
 
             Map<String, String> packages = new HashMap<String, String>();
-            readIntoMap(packagesCsv, packages);
+            CsvReader.readIntoMap(packagesCsv, packages);
             for (Map.Entry<String, String> entry : packages.entrySet()) {
                 classPackageMap.put("net/minecraft/src/" + entry.getKey(), entry.getValue() + "/" + entry.getKey());
             }
@@ -72,19 +69,16 @@ public class MinecraftCodersPack extends MappingTransformer {
         }
     }
 
-    private void readIntoMap(File file, Map<String, String> map) throws IOException {
-        try (FileReader fileReader = new FileReader(file);
-             CSVReader csvReader = new CSVReader(fileReader)) {
+    private MinecraftCodersPack(Map<String, String> classPackageMap) {
+        this.classPackageMap = classPackageMap;
+    }
 
-            String[] line;
-            while ((line = csvReader.readNextSilently()) != null) {
-                if (line.length == 0) {
-                    continue;
-                }
-                Preconditions.checkArgument(line.length >= 2, "Invalid csv line: %s", (Object) line);
-                map.put(line[0], line[1]);
-            }
-        }
+    /**
+     * Get a transformer which only applies the repackaging of this one,
+     * leaving field and method names as they are.
+     */
+    public MinecraftCodersPack withoutNames() {
+        return new MinecraftCodersPack(classPackageMap);
     }
 
     @Override
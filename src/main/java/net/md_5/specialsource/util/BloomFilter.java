@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+/**
+ * A Bloom filter over 32 bit hash codes, used to rule out lookups of names
+ * which were never added. Callers pass {@link String#hashCode()}, which
+ * strings cache, so checking a name does not have to read it again. Adding a
+ * name more than once is harmless, but names can not be removed.
+ */
+public final class BloomFilter {
+
+    // About 1% false positives with ten bits per name
+    private static final int BITS_PER_NAME = 10;
+    private static final int HASH_COUNT = 7;
+    //
+    private final long[] bits;
+    private final int mask;
+
+    /**
+     * @param expected the number of names which will be added, any more and
+     * the false positive rate goes up
+     */
+    public BloomFilter(int expected) {
+        long wanted = Math.max(64L, (long) expected * BITS_PER_NAME);
+        int size = (int) Math.min(1L << 30, Long.highestOneBit(wanted - 1) << 1);
+        this.bits = new long[size >>> 6];
+        this.mask = size - 1;
+    }
+
+    public void add(int hash) {
+        long mixed = PerfectHash.mix(hash);
+        int h1 = (int) mixed;
+        int h2 = (int) (mixed >>> 32) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Check if a name may have been added.
+     *
+     * @return false only if it was definitely never added
+     */
+    public boolean mightContain(int hash) {
+        long mixed = PerfectHash.mix(hash);
+        int h1 = (int) mixed;
+        int h2 = (int) (mixed >>> 32) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
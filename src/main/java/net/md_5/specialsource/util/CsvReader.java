@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reads the first two columns of csv files such as MCP's fields.csv, as
+ * quickly as possible. Quoted values may contain commas, line breaks and
+ * quotes, which are escaped by doubling them or with a backslash. Only the
+ * first two columns of each row are decoded.
+ *
+ * Large files are split at line breaks and the pieces are parsed on the
+ * common fork join pool. If a piece turns out to have started inside a quoted
+ * value the file is parsed again from the start in one go.
+ */
+public class CsvReader {
+
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
+    private static final int MIN_CHUNK_SIZE = 1 << 18;
+
+    private CsvReader() {
+    }
+
+    /**
+     * Put the first column of every row into the map as the key for the
+     * second, with later rows replacing earlier ones. Blank lines are
+     * skipped.
+     *
+     * @throws IllegalArgumentException if a row has less than two columns
+     */
+    public static void readIntoMap(File file, Map<String, String> map) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+
+        int chunkCount = (int) Math.min(ForkJoinPool.getCommonPoolParallelism() * 4L, data.length / MIN_CHUNK_SIZE);
+        List<Chunk> chunks = null;
+        if (data.length >= PARALLEL_THRESHOLD && chunkCount > 1) {
+            chunks = parseParallel(data, chunkCount);
+        }
+        if (chunks == null) {
+            chunks = new ArrayList<Chunk>();
+            chunks.add(parse(data, 0, data.length));
+        }
+
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.keys.size(); i++) {
+                map.put(chunk.keys.get(i), chunk.values.get(i));
+            }
+        }
+    }
+
+    private static List<Chunk> parseParallel(final byte[] data, int chunkCount) {
+        final List<Integer> starts = new ArrayList<Integer>();
+        starts.add(0);
+        for (int i = 1; i < chunkCount; i++) {
+            int start = (int) ((long) data.length * i / chunkCount);
+            while (start < data.length && data[start - 1] != '\n') {
+                start++;
+            }
+            if (start > starts.get(starts.size() - 1) && start < data.length) {
+                starts.add(start);
+            }
+        }
+        starts.add(data.length);
+
+        List<Chunk> chunks = IntStream.range(0, starts.size() - 1).parallel()
+                .mapToObj(i -> {
+                    try {
+                        return parse(data, starts.get(i), starts.get(i + 1));
+                    } catch (IllegalArgumentException ex) {
+                        // Possibly started inside a quoted value, the whole input is parsed again to tell
+                        return null;
+                    }
+                })
+                .collect(Collectors.toList());
+
+        // A piece which ends inside quotes means the next one did not start at the beginning of a row
+        for (int i = 0; i < chunks.size(); i++) {
+            if (chunks.get(i) == null || (i < chunks.size() - 1 && chunks.get(i).unterminated)) {
+                return null;
+            }
+        }
+        return chunks;
+    }
+
+    private static Chunk parse(byte[] data, int start, int end) {
+        Chunk chunk = new Chunk();
+        ByteArrayOutputStream quoted = new ByteArrayOutputStream();
+        String[] row = new String[2];
+
+        int i = start;
+        while (i < end) {
+            int rowStart = i;
+            int column = 0;
+            boolean rowEnd = false;
+
+            while (!rowEnd) {
+                String value = null;
+                if (i < end && data[i] == '"') {
+                    // Quoted value, which carries on until the closing quote
+                    quoted.reset();
+                    i++;
+                    while (true) {
+                        if (i >= end) {
+                            chunk.unterminated = true;
+                            break;
+                        }
+                        byte b = data[i];
+                        if (b == '\\' && i + 1 < end && (data[i + 1] == '"' || data[i + 1] == '\\')) {
+                            quoted.write(data[i + 1]);
+                            i += 2;
+                        } else if (b == '"') {
+                            if (i + 1 < end && data[i + 1] == '"') {
+                                quoted.write('"');
+                                i += 2;
+                            } else {
+                                i++;
+                                break;
+                            }
+                        } else {
+                            quoted.write(b);
+                            i++;
+                        }
+                    }
+                    // Anything after the closing quote is part of the value too
+                    int rest = i;
+                    while (i < end && data[i] != ',' && data[i] != '\n') {
+                        i++;
+                    }
+                    if (column < 2) {
+                        quoted.write(data, rest, trimCarriageReturn(data, rest, i) - rest);
+                        value = new String(quoted.toByteArray(), StandardCharsets.UTF_8);
+                    }
+                } else {
+                    int valueStart = i;
+                    while (i < end && data[i] != ',' && data[i] != '\n') {
+                        i++;
+                    }
+                    if (column < 2) {
+                        value = new String(data, valueStart, trimCarriageReturn(data, valueStart, i) - valueStart, StandardCharsets.UTF_8);
+                    }
+                }
+
+                if (column < 2) {
+                    row[column] = value;
+                }
+                column++;
+
+                if (i < end && data[i] == ',') {
+                    i++;
+                } else {
+                    // End of line or input
+                    i++;
+                    rowEnd = true;
+                }
+            }
+
+            if (column == 1 && row[0].isEmpty()) {
+                // blank line
+                continue;
+            }
+            if (column < 2) {
+                throw new IllegalArgumentException("Invalid csv line: " + new String(data, rowStart, Math.min(i, end) - rowStart, StandardCharsets.UTF_8).trim());
+            }
+            chunk.keys.add(row[0]);
+            chunk.values.add(row[1]);
+        }
+        return chunk;
+    }
+
+    private static int trimCarriageReturn(byte[] data, int start, int end) {
+        return (end > start && data[end - 1] == '\r') ? end - 1 : end;
+    }
+
+    private static class Chunk {
+
+        private final List<String> keys = new ArrayList<String>();
+        private final List<String> values = new ArrayList<String>();
+        // Ended inside a quoted value
+        private boolean unterminated;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts lines of text using a bounded amount of memory. Once too many lines
+ * have been added they are sorted and written out to a temporary file, and
+ * these files are merged back together when the result is written.
+ */
+public class ExternalSorter implements Closeable {
+
+    private static final int DEFAULT_MAX_LINES = 1 << 20;
+    //
+    private final int maxLines;
+    private final List<String> lines = new ArrayList<String>();
+    private final List<File> runs = new ArrayList<File>();
+
+    public ExternalSorter() {
+        this(DEFAULT_MAX_LINES);
+    }
+
+    /**
+     * @param maxLines the most lines to hold in memory at once
+     */
+    public ExternalSorter(int maxLines) {
+        this.maxLines = maxLines;
+    }
+
+    public void add(String line) throws IOException {
+        lines.add(line);
+        if (lines.size() >= maxLines) {
+            spill();
+        }
+    }
+
+    private void spill() throws IOException {
+        Collections.sort(lines);
+
+        File run = File.createTempFile("ss-sort", ".txt");
+        run.deleteOnExit();
+        runs.add(run);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        lines.clear();
+    }
+
+    /**
+     * Write every line added so far in sorted order, after which the sorter
+     * is empty.
+     */
+    public void writeTo(PrintWriter out) throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(lines);
+            for (String line : lines) {
+                out.println(line);
+            }
+            lines.clear();
+            return;
+        }
+
+        if (!lines.isEmpty()) {
+            spill();
+        }
+
+        PriorityQueue<Run> queue = new PriorityQueue<Run>();
+        try {
+            for (File file : runs) {
+                Run run = new Run(file);
+                if (run.next()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                out.println(run.line);
+                if (run.next()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+        } finally {
+            for (Run run : queue) {
+                run.close();
+            }
+            close();
+        }
+    }
+
+    /**
+     * Discard any lines which have not been written, and delete the
+     * temporary files.
+     */
+    @Override
+    public void close() {
+        lines.clear();
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private static class Run implements Comparable<Run>, Closeable {
+
+        private final BufferedReader reader;
+        private String line;
+
+        private Run(File file) throws IOException {
+            this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        }
+
+        private boolean next() throws IOException {
+            line = reader.readLine();
+            return line != null;
+        }
+
+        @Override
+        public int compareTo(Run o) {
+            return line.compareTo(o.line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
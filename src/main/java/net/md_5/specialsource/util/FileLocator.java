@@ -33,11 +33,15 @@ import java.io.*;
 import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import net.md_5.specialsource.SpecialSource;
 
 public class FileLocator {
 
     public static boolean useCache = true;
+    private static final int BUFFER_SIZE = 1 << 16;
 
     private static File download(String url) throws IOException {
         // Create temporary dir in system location
@@ -93,6 +97,79 @@ public class FileLocator {
         return new File(path);
     }
 
+    /**
+     * Open a file for reading, decompressing it on the fly if it is gzip or
+     * zip compressed. Zip files are read from their first file entry.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static InputStream openStream(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            switch (getCompression(in)) {
+                case GZIP:
+                    return new GZIPInputStream(in, BUFFER_SIZE);
+                case ZIP:
+                    ZipInputStream zip = new ZipInputStream(in);
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null) {
+                        if (!entry.isDirectory()) {
+                            return zip;
+                        }
+                    }
+                    throw new IOException("No files in zip " + file);
+                default:
+                    return in;
+            }
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Open a text file for reading with the default charset, as a
+     * {@link java.io.FileReader} would, see {@link #openStream(File)}.
+     */
+    public static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(openStream(file)));
+    }
+
+    /**
+     * Check whether a file is gzip or zip compressed.
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 4)) {
+            return getCompression(in) != Compression.NONE;
+        }
+    }
+
+    private static Compression getCompression(InputStream in) throws IOException {
+        in.mark(4);
+        byte[] magic = new byte[4];
+        int read = 0;
+        int n;
+        while (read < magic.length && (n = in.read(magic, read, magic.length - read)) != -1) {
+            read += n;
+        }
+        in.reset();
+
+        if (read >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            return Compression.GZIP;
+        }
+        if (read == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+            return Compression.ZIP;
+        }
+        return Compression.NONE;
+    }
+
+    private enum Compression {
+
+        NONE, GZIP, ZIP;
+    }
+
     public static boolean isHTTPURL(String string) {
         return string.startsWith("http://") || string.startsWith("https://");
     }
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from non-negative ints to ints, kept in open addressing arrays so
+ * that nothing is boxed. Missing keys are reported as -1, so values should
+ * not be negative either.
+ */
+public class IntIntMap {
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, -1);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != -1) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -(i + 1);
+    }
+
+    /**
+     * @return the value, or -1 if the key is not in the map
+     */
+    public int get(int key) {
+        int i = find(key);
+        return (i >= 0) ? values[i] : -1;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return the previous value, or -1 if there was none
+     */
+    public int put(int key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key " + key);
+        }
+
+        int i = find(key);
+        if (i >= 0) {
+            int old = values[i];
+            values[i] = value;
+            return old;
+        }
+
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize();
+            i = find(key);
+        }
+        i = -(i + 1);
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return -1;
+    }
+
+    /**
+     * @return the removed value, or -1 if there was none
+     */
+    public int remove(int key) {
+        int i = find(key);
+        if (i < 0) {
+            return -1;
+        }
+        int old = values[i];
+        size--;
+
+        // Shift back any following entries which would no longer be found
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            keys[i] = -1;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == -1) {
+                    return old;
+                }
+                int home = hash(keys[j]) & mask;
+                if ((j > i) ? (home <= i || home > j) : (home <= i && home > j)) {
+                    break;
+                }
+            }
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, -1);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a copy of the keys, in no particular order.
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != -1) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, -1);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != -1) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits mapping files into lines of space separated tokens, working directly
+ * on the raw bytes. Comments (from '#' to the end of the line) and blank lines
+ * are skipped, and leading tabs are counted as the line's indent rather than
+ * being returned as tokens. Any other spaces before the first token are
+ * skipped without counting towards the indent.
+ *
+ * Only the tokens which are actually requested are turned into strings, so
+ * parsers can check the shape of a line without allocating anything. Bytes
+ * are decoded with the platform's default charset, as the mapping files have
+ * always been read, except when reading from a {@link Reader}.
+ */
+public class LineTokenizer {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    //
+    private final ReadableByteChannel channel;
+    private final Charset charset;
+    private ByteBuffer buffer;
+    private byte[] scratch;
+    private boolean eof;
+    private int position;
+    private long consumed;
+    // Current line
+    private int lineEnd;
+    private int indent;
+    private boolean ascii;
+    private int tokenCount;
+    private int[] tokenStart = new int[8];
+    private int[] tokenEnd = new int[8];
+
+    /**
+     * Read lines from a channel, which will be read in blocks as needed.
+     */
+    public LineTokenizer(ReadableByteChannel channel) {
+        this(channel, Charset.defaultCharset());
+    }
+
+    private LineTokenizer(ReadableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        this.charset = charset;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Read lines from a reader, the characters will be encoded as UTF-8.
+     */
+    public LineTokenizer(Reader reader) {
+        this(new ReaderChannel(reader), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read lines from the remaining bytes of a buffer, which may be direct or
+     * memory mapped.
+     */
+    public LineTokenizer(ByteBuffer buffer) {
+        this.channel = null;
+        this.charset = Charset.defaultCharset();
+        this.buffer = buffer.slice();
+        this.eof = true;
+    }
+
+    /**
+     * Advance to the next line which has at least one token.
+     *
+     * @return false if the end of the input has been reached
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int end = findLineEnd();
+            if (end == -1) {
+                return false;
+            }
+
+            int start = position;
+            position = (end < buffer.limit()) ? end + 1 : end;
+            consumed += position - start;
+
+            if (tokenize(start, end)) {
+                return true;
+            }
+        }
+    }
+
+    private int findLineEnd() throws IOException {
+        int i = position;
+        while (true) {
+            int limit = buffer.limit();
+            for (; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    return i;
+                }
+            }
+
+            if (eof) {
+                return (position < limit) ? limit : -1;
+            }
+
+            // Line continues past the end of the buffer, move it to the front and read some more
+            int scanned = i - position;
+            fill();
+            i = position + scanned;
+        }
+    }
+
+    private void fill() throws IOException {
+        int remaining = buffer.limit() - position;
+        if (remaining == buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.position(position);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.position(position);
+            buffer.compact();
+        }
+        position = 0;
+
+        if (channel.read(buffer) == -1) {
+            eof = true;
+        }
+        buffer.flip();
+    }
+
+    private boolean tokenize(int start, int end) {
+        ascii = true;
+        tokenCount = 0;
+
+        int i = start;
+        while (i < end && buffer.get(i) == '\t') {
+            i++;
+        }
+        indent = i - start;
+        lineEnd = end;
+
+        while (i < end) {
+            byte b = buffer.get(i);
+            if (b == '#' || b == '\r' || b == '\n') {
+                break;
+            }
+            if (isWhitespace(b)) {
+                i++;
+                continue;
+            }
+
+            int tokenBegin = i;
+            while (i < end) {
+                b = buffer.get(i);
+                if (isWhitespace(b) || b == '#' || b == '\r') {
+                    break;
+                }
+                if (b < 0) {
+                    ascii = false;
+                }
+                i++;
+            }
+
+            if (tokenCount == tokenStart.length) {
+                tokenStart = Arrays.copyOf(tokenStart, tokenCount * 2);
+                tokenEnd = Arrays.copyOf(tokenEnd, tokenCount * 2);
+            }
+            tokenStart[tokenCount] = tokenBegin;
+            tokenEnd[tokenCount] = i;
+            tokenCount++;
+        }
+        lineEnd = i;
+
+        return tokenCount > 0;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Look ahead at the bytes after the current line without consuming them,
+     * reading more from the channel if needed.
+     *
+     * @param length the most bytes to return
+     * @return a read only buffer of up to length bytes, fewer if the input
+     * ends first
+     */
+    public ByteBuffer peek(int length) throws IOException {
+        while (buffer.limit() - position < length && !eof) {
+            fill();
+        }
+
+        ByteBuffer peek = buffer.asReadOnlyBuffer();
+        peek.position(position).limit(Math.min(buffer.limit(), position + length));
+        return peek.slice();
+    }
+
+    /**
+     * Get the number of tab characters at the start of the line.
+     */
+    public int getIndent() {
+        return indent;
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Get the total number of bytes consumed, up to and including the current
+     * line.
+     */
+    public long getConsumed() {
+        return consumed;
+    }
+
+    public String getToken(int index) {
+        checkIndex(index);
+        return decode(tokenStart[index], tokenEnd[index]);
+    }
+
+    public boolean tokenEquals(int index, String value) {
+        checkIndex(index);
+        int start = tokenStart[index];
+        int length = tokenEnd[index] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean tokenEndsWith(int index, char c) {
+        checkIndex(index);
+        return buffer.get(tokenEnd[index] - 1) == c;
+    }
+
+    /**
+     * Find the first token equal to the given value.
+     *
+     * @return the index of the token, or -1 if there is none
+     */
+    public int indexOfToken(String value) {
+        for (int i = 0; i < tokenCount; i++) {
+            if (tokenEquals(i, value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if the given character appears anywhere within the tokens of the
+     * current line.
+     */
+    public boolean contains(char c) {
+        for (int i = tokenStart[0]; i < lineEnd; i++) {
+            if (buffer.get(i) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= tokenCount) {
+            throw new IndexOutOfBoundsException("Token " + index + " out of range in line=" + this);
+        }
+    }
+
+    private String decode(int start, int end) {
+        int length = end - start;
+        byte[] array;
+        int offset;
+        if (buffer.hasArray()) {
+            array = buffer.array();
+            offset = buffer.arrayOffset() + start;
+        } else {
+            if (scratch == null || scratch.length < length) {
+                scratch = new byte[Math.max(length, 256)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(start + i);
+            }
+            array = scratch;
+            offset = 0;
+        }
+
+        // Plain ASCII can be copied straight across
+        return new String(array, offset, length, ascii ? StandardCharsets.ISO_8859_1 : charset);
+    }
+
+    /**
+     * Returns the current line, without any comment or indent.
+     */
+    @Override
+    public String toString() {
+        return (tokenCount == 0) ? "" : decode(tokenStart[0], lineEnd);
+    }
+
+    /**
+     * Adapts a {@link Reader} to a byte channel by encoding it as UTF-8.
+     */
+    private static class ReaderChannel implements ReadableByteChannel {
+
+        private final Reader reader;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE / 4);
+        private boolean eof;
+
+        private ReaderChannel(Reader reader) {
+            this.reader = reader;
+            this.chars.limit(0);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            while (dst.hasRemaining()) {
+                if (!eof) {
+                    chars.compact();
+                    if (reader.read(chars) == -1) {
+                        eof = true;
+                    }
+                    chars.flip();
+                }
+
+                CoderResult result = encoder.encode(chars, dst, eof);
+                if (result.isOverflow() || eof) {
+                    break;
+                }
+            }
+
+            int read = dst.position() - start;
+            return (read == 0 && eof) ? -1 : read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
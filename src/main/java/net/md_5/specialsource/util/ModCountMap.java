@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import com.google.common.collect.ForwardingCollection;
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.collect.ForwardingMapEntry;
+import com.google.common.collect.ForwardingSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A {@link LinkedHashMap} which counts the changes made to it, including
+ * values replaced without changing the size and changes made through its
+ * views, so results worked out from its contents can tell when they are out
+ * of date.
+ */
+public class ModCountMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+    private int modCount;
+
+    public ModCountMap() {
+    }
+
+    public ModCountMap(Map<? extends K, ? extends V> map) {
+        super(map);
+    }
+
+    /**
+     * Get the number of changes made so far, which never goes down.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        modCount++;
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        modCount++;
+        super.putAll(map);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V old = super.putIfAbsent(key, value);
+        if (old == null) {
+            modCount++;
+        }
+        return old;
+    }
+
+    @Override
+    public V remove(Object key) {
+        modCount++;
+        return super.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        modCount++;
+        return super.remove(key, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        modCount++;
+        return super.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        modCount++;
+        return super.replace(key, value);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        modCount++;
+        super.replaceAll(function);
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        int size = size();
+        V value = super.computeIfAbsent(key, mappingFunction);
+        if (size() != size) {
+            modCount++;
+        }
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        modCount++;
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        modCount++;
+        return super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        modCount++;
+        return super.merge(key, value, remappingFunction);
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        super.clear();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new CountingSet<K>(super.keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new CountingCollection<V>(super.values());
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new CountingSet<Map.Entry<K, V>>(super.entrySet()) {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                final Iterator<Map.Entry<K, V>> iterator = super.iterator();
+                return new ForwardingIterator<Map.Entry<K, V>>() {
+                    @Override
+                    protected Iterator<Map.Entry<K, V>> delegate() {
+                        return iterator;
+                    }
+
+                    @Override
+                    public Map.Entry<K, V> next() {
+                        return new CountingEntry(super.next());
+                    }
+                };
+            }
+        };
+    }
+
+    private class CountingEntry extends ForwardingMapEntry<K, V> {
+
+        private final Map.Entry<K, V> entry;
+
+        private CountingEntry(Map.Entry<K, V> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        protected Map.Entry<K, V> delegate() {
+            return entry;
+        }
+
+        @Override
+        public V setValue(V value) {
+            modCount++;
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * Counts removals through a view, other changes go through its iterator.
+     */
+    private class CountingCollection<E> extends ForwardingCollection<E> {
+
+        private final Collection<E> delegate;
+
+        private CountingCollection(Collection<E> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected Collection<E> delegate() {
+            return delegate;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            final Iterator<E> iterator = delegate.iterator();
+            return new ForwardingIterator<E>() {
+                @Override
+                protected Iterator<E> delegate() {
+                    return iterator;
+                }
+
+                @Override
+                public void remove() {
+                    modCount++;
+                    super.remove();
+                }
+            };
+        }
+
+        @Override
+        public boolean remove(Object object) {
+            modCount++;
+            return delegate.remove(object);
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> collection) {
+            modCount++;
+            return delegate.removeAll(collection);
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> collection) {
+            modCount++;
+            return delegate.retainAll(collection);
+        }
+
+        @Override
+        public void clear() {
+            modCount++;
+            delegate.clear();
+        }
+    }
+
+    private class CountingSet<E> extends CountingCollection<E> implements Set<E> {
+
+        private CountingSet(Set<E> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object == this || delegate().equals(object);
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate().hashCode();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.util.Arrays;
+
+/**
+ * A minimal perfect hash function over a fixed set of 64 bit keys, mapping
+ * each of the n keys to a different slot from 0 to n - 1. Keys are split into
+ * buckets, and each bucket is given a seed which sends all of its keys to free
+ * slots, so a lookup only needs two array reads. Keys which were not in the
+ * set are mapped to an arbitrary slot, so callers must check the entry they
+ * find.
+ */
+public final class PerfectHash {
+
+    // Average number of keys per bucket
+    private static final int BUCKET_SIZE = 3;
+    private static final int MAX_SEED = 1 << 24;
+    //
+    private final int size;
+    private final int[] seeds;
+
+    private PerfectHash(int size, int[] seeds) {
+        this.size = size;
+        this.seeds = seeds;
+    }
+
+    /**
+     * Build a perfect hash function over the given keys, which should already
+     * be well mixed, see {@link #mix(long)}.
+     *
+     * @throws IllegalArgumentException if any key appears more than once
+     */
+    public static PerfectHash build(long[] keys) {
+        int n = keys.length;
+        int bucketCount = n / BUCKET_SIZE + 1;
+
+        // Group the keys by bucket
+        int[] bucketStart = new int[bucketCount + 1];
+        for (long key : keys) {
+            bucketStart[bucket(key, bucketCount) + 1]++;
+        }
+        int maxBucket = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            maxBucket = Math.max(maxBucket, bucketStart[i + 1]);
+            bucketStart[i + 1] += bucketStart[i];
+        }
+        long[] grouped = new long[n];
+        int[] fill = Arrays.copyOf(bucketStart, bucketCount);
+        for (long key : keys) {
+            grouped[fill[bucket(key, bucketCount)]++] = key;
+        }
+
+        // Place the largest buckets first, while there are most free slots
+        int[] sizeStart = new int[maxBucket + 2];
+        for (int i = 0; i < bucketCount; i++) {
+            sizeStart[maxBucket - (bucketStart[i + 1] - bucketStart[i]) + 1]++;
+        }
+        for (int i = 0; i <= maxBucket; i++) {
+            sizeStart[i + 1] += sizeStart[i];
+        }
+        int[] order = new int[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            order[sizeStart[maxBucket - (bucketStart[i + 1] - bucketStart[i])]++] = i;
+        }
+
+        int[] seeds = new int[bucketCount];
+        boolean[] taken = new boolean[n];
+        int[] slots = new int[maxBucket];
+        for (int bucket : order) {
+            int start = bucketStart[bucket];
+            int count = bucketStart[bucket + 1] - start;
+            if (count == 0) {
+                break;
+            }
+            for (int i = 1; i < count; i++) {
+                for (int j = 0; j < i; j++) {
+                    if (grouped[start + i] == grouped[start + j]) {
+                        throw new IllegalArgumentException("Duplicate key " + grouped[start + i]);
+                    }
+                }
+            }
+
+            int seed = 0;
+            while (!place(grouped, start, count, seed, n, taken, slots)) {
+                if (++seed == MAX_SEED) {
+                    throw new IllegalStateException("Unable to place bucket of " + count + " keys");
+                }
+            }
+            seeds[bucket] = seed;
+        }
+        return new PerfectHash(n, seeds);
+    }
+
+    private static boolean place(long[] keys, int start, int count, int seed, int n, boolean[] taken, int[] slots) {
+        for (int i = 0; i < count; i++) {
+            int slot = slot(keys[start + i], seed, n);
+            if (taken[slot]) {
+                return false;
+            }
+            for (int j = 0; j < i; j++) {
+                if (slots[j] == slot) {
+                    return false;
+                }
+            }
+            slots[i] = slot;
+        }
+        for (int i = 0; i < count; i++) {
+            taken[slots[i]] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Get the slot of a key, from 0 to {@link #size()} - 1.
+     */
+    public int get(long key) {
+        return slot(key, seeds[bucket(key, seeds.length)], size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int bucket(long key, int bucketCount) {
+        return (int) (((key >>> 32) * bucketCount) >>> 32);
+    }
+
+    private static int slot(long key, int seed, int n) {
+        long h = mix(key + seed * 0x9E3779B97F4A7C15L);
+        return (int) (((h >>> 32) * n) >>> 32);
+    }
+
+    /**
+     * Spread the bits of a value, so that it can be used as a key.
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Hash a string to 64 bits, with a seed which can be changed should two
+     * strings ever collide.
+     */
+    public static long hash(String value, long seed) {
+        long h = seed ^ value.length();
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(h);
+    }
+}
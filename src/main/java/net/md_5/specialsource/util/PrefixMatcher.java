@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Finds which of a list of prefixes a name starts with, such as the package
+ * prefixes of package mappings or relocations. The prefixes are compiled into
+ * a trie, so a name is matched in a single pass over its characters however
+ * many prefixes there are. Where more than one prefix matches, the first in
+ * the original order wins.
+ */
+public final class PrefixMatcher {
+
+    /**
+     * The prefix which stands for the default package, when enabled.
+     */
+    public static final String DEFAULT_PACKAGE = ".";
+    //
+    private final String[] prefixes;
+    private final Node root = new Node();
+    private final int defaultPackage;
+
+    /**
+     * @param prefixes the prefixes, in the order they should be tried
+     * @param defaultPackage if true, a "." prefix matches names without any
+     * '/' instead of names starting with a '.'
+     */
+    public PrefixMatcher(Collection<String> prefixes, boolean defaultPackage) {
+        this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+        int defaultIndex = -1;
+        for (int i = 0; i < this.prefixes.length; i++) {
+            String prefix = this.prefixes[i];
+            if (defaultPackage && prefix.equals(DEFAULT_PACKAGE)) {
+                if (defaultIndex == -1) {
+                    defaultIndex = i;
+                }
+                continue;
+            }
+
+            Node node = root;
+            for (int j = 0; j < prefix.length(); j++) {
+                node = node.add(prefix.charAt(j));
+            }
+            if (node.index == -1) {
+                node.index = i;
+            }
+        }
+        this.defaultPackage = defaultIndex;
+    }
+
+    /**
+     * Find the first prefix the name starts with.
+     *
+     * @return the index of the prefix, or -1 if none match
+     */
+    public int match(String name) {
+        int best = Integer.MAX_VALUE;
+        if (defaultPackage != -1 && name.indexOf('/') == -1) {
+            best = defaultPackage;
+        }
+
+        Node node = root;
+        for (int i = 0; node != null; i++) {
+            if (node.index != -1 && node.index < best) {
+                best = node.index;
+            }
+            node = (i < name.length()) ? node.get(name.charAt(i)) : null;
+        }
+        return (best == Integer.MAX_VALUE) ? -1 : best;
+    }
+
+    /**
+     * Check if the name starts with any of the prefixes.
+     */
+    public boolean matches(String name) {
+        return match(name) != -1;
+    }
+
+    public String getPrefix(int index) {
+        return prefixes[index];
+    }
+
+    public int size() {
+        return prefixes.length;
+    }
+
+    private static final class Node {
+
+        private char[] chars = new char[0];
+        private Node[] children = new Node[0];
+        // Index of the first prefix ending here, or -1 if none
+        private int index = -1;
+
+        private Node get(char c) {
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node add(char c) {
+            Node child = get(c);
+            if (child == null) {
+                child = new Node();
+                chars = Arrays.copyOf(chars, chars.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                chars[chars.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
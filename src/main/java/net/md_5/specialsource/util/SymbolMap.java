@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A map of strings to strings, stored as the ids of a {@link SymbolTable} so
+ * that names shared with other tables are only kept once. Iteration is over a
+ * copy of the keys taken when it starts.
+ */
+public class SymbolMap extends AbstractMap<String, String> {
+
+    private final SymbolTable symbols;
+    private final IntIntMap map = new IntIntMap();
+    private int modCount;
+    private Set<Entry<String, String>> entrySet;
+
+    public SymbolMap(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Get an immutable copy of this map.
+     *
+     * @param frozenSymbols a frozen copy of this map's symbol table
+     */
+    public FrozenSymbolMap freeze(SymbolTable frozenSymbols) {
+        if (frozenSymbols.size() < symbols.size()) {
+            throw new IllegalArgumentException("Symbol table is not a copy of this map's");
+        }
+        return new FrozenSymbolMap(frozenSymbols, map);
+    }
+
+    /**
+     * Get the number of changes made to this map, so anything built from it
+     * can tell when it is out of date. Never decreases.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int id = symbols.find((String) key);
+        if (id < 0) {
+            return null;
+        }
+        int value = map.get(id);
+        return (value < 0) ? null : symbols.get(value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        Objects.requireNonNull(value, "value");
+        modCount++;
+        int old = map.put(symbols.intern(key), symbols.intern(value));
+        return (old < 0) ? null : symbols.get(old);
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int id = symbols.find((String) key);
+        modCount++;
+        int old = (id < 0) ? -1 : map.remove(id);
+        return (old < 0) ? null : symbols.get(old);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        map.clear();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return map.size();
+                }
+
+                @Override
+                public void clear() {
+                    SymbolMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, String>> {
+
+        private final int[] keys = map.keys();
+        private int next;
+        private int current = -1;
+
+        @Override
+        public boolean hasNext() {
+            // Skip keys removed since the copy was taken
+            while (next < keys.length && !map.containsKey(keys[next])) {
+                next++;
+            }
+            return next < keys.length;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = keys[next++];
+            final String key = symbols.get(current);
+            return new SimpleEntry<String, String>(key, symbols.get(map.get(current))) {
+                @Override
+                public String setValue(String value) {
+                    super.setValue(value);
+                    return put(key, value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            map.remove(current);
+            modCount++;
+            current = -1;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.util.Arrays;
+
+/**
+ * Interns strings to small integer ids, so that tables holding class names,
+ * member names and descriptors only need to keep each distinct string once
+ * and can store ints instead. Ids are given out in order starting at 0 and
+ * are never reused.
+ *
+ * A table can be frozen into an immutable copy with the same ids, which finds
+ * symbols through a {@link PerfectHash} and is safe to share between threads.
+ */
+public class SymbolTable {
+
+    private String[] symbols = new String[64];
+    private int[] hashes = new int[64];
+    // Open addressing table of id + 1, 0 marks an empty slot
+    private int[] slots = new int[128];
+    private int size;
+    // Only set once frozen
+    private PerfectHash perfectHash;
+    private int[] perfectIds;
+    private long hashSeed;
+
+    public SymbolTable() {
+    }
+
+    private SymbolTable(SymbolTable source) {
+        symbols = Arrays.copyOf(source.symbols, source.size);
+        size = source.size;
+        hashes = null;
+        slots = null;
+
+        // Retry with another seed in the unlikely case two symbols hash the same
+        long[] keys = new long[size];
+        for (long seed = 0;; seed++) {
+            for (int id = 0; id < size; id++) {
+                keys[id] = PerfectHash.hash(symbols[id], seed);
+            }
+            try {
+                perfectHash = PerfectHash.build(keys);
+                hashSeed = seed;
+                break;
+            } catch (IllegalArgumentException ex) {
+                // Duplicate hash
+            }
+        }
+
+        perfectIds = new int[size];
+        for (int id = 0; id < size; id++) {
+            perfectIds[perfectHash.get(keys[id])] = id;
+        }
+    }
+
+    /**
+     * Get an immutable copy of this table, with the same ids.
+     */
+    public SymbolTable freeze() {
+        return isFrozen() ? this : new SymbolTable(this);
+    }
+
+    public boolean isFrozen() {
+        return perfectHash != null;
+    }
+
+    /**
+     * Get the id of a string, adding it to the table if needed.
+     */
+    public int intern(String symbol) {
+        if (isFrozen()) {
+            int id = find(symbol);
+            if (id < 0) {
+                throw new UnsupportedOperationException("Symbol table is frozen");
+            }
+            return id;
+        }
+
+        int hash = hash(symbol);
+        int slot = findSlot(symbol, hash);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+
+        int id = size++;
+        if (id == symbols.length) {
+            symbols = Arrays.copyOf(symbols, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        symbols[id] = symbol;
+        hashes[id] = hash;
+
+        if (size * 4 > slots.length * 3) {
+            rehash();
+        } else {
+            slots[slot] = id + 1;
+        }
+        return id;
+    }
+
+    /**
+     * Get the id of a string without adding it.
+     *
+     * @return the id, or -1 if the string has not been interned
+     */
+    public int find(String symbol) {
+        if (symbol == null) {
+            return -1;
+        }
+        if (isFrozen()) {
+            if (size == 0) {
+                return -1;
+            }
+            int id = perfectIds[perfectHash.get(PerfectHash.hash(symbol, hashSeed))];
+            return symbols[id].equals(symbol) ? id : -1;
+        }
+        return slots[findSlot(symbol, hash(symbol))] - 1;
+    }
+
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Symbol " + id + " out of range");
+        }
+        return symbols[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int hash(String symbol) {
+        int h = symbol.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int findSlot(String symbol, int hash) {
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        while (slots[i] != 0) {
+            int id = slots[i] - 1;
+            if (hashes[id] == hash && symbols[id].equals(symbol)) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+}
@@ -28,6 +28,7 @@
  */
 package net.md_5.specialsource.writer;
 
+import java.io.PrintWriter;
 import net.md_5.specialsource.Ownable;
 
 public class CompactSearge extends MappingWriter {
@@ -36,6 +37,16 @@ public class CompactSearge extends MappingWriter {
         super(oldJarName, newJarName);
     }
 
+    public CompactSearge(String oldJarName, String newJarName, PrintWriter out) {
+        super(oldJarName, newJarName, out);
+    }
+
+    @Override
+    public void addPackageMap(String oldPackage, String newPackage) {
+        // Compact package lines are told apart from classes by the trailing '/'
+        addLine((oldPackage.endsWith("/") ? oldPackage : oldPackage + "/") + " " + (newPackage.endsWith("/") ? newPackage : newPackage + "/"));
+    }
+
     @Override
     public void addClassMap(String oldClass, String newClass) {
         addLine(oldClass + " " + newClass);
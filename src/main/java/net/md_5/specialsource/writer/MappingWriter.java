@@ -28,26 +28,56 @@
  */
 package net.md_5.specialsource.writer;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.List;
-import lombok.RequiredArgsConstructor;
 import net.md_5.specialsource.Ownable;
+import net.md_5.specialsource.util.ExternalSorter;
 
-@RequiredArgsConstructor
 public abstract class MappingWriter {
 
     private static final String HEADER = ""
             + "# THESE ARE AUTOMATICALLY GENERATED MAPPINGS BETWEEN {0} and {1}\n"
             + "# THEY WERE GENERATED ON {2} USING Special Source (c) md_5 2012-2013.\n"
             + "# PLEASE DO NOT REMOVE THIS HEADER!\n";
-    private final List<String> lines = new ArrayList<String>();
+    private final ExternalSorter lines;
+    private final PrintWriter out;
     private final String oldJarName;
     private final String newJarName;
 
+    /**
+     * Create a writer which collects lines to be written in sorted order by
+     * {@link #write(PrintWriter)}. Large mappings are sorted using temporary
+     * files rather than held in memory.
+     */
+    public MappingWriter(String oldJarName, String newJarName) {
+        this.lines = new ExternalSorter();
+        this.out = null;
+        this.oldJarName = oldJarName;
+        this.newJarName = newJarName;
+    }
+
+    /**
+     * Create a writer which writes each line straight to the given output, in
+     * the order they are added.
+     */
+    public MappingWriter(String oldJarName, String newJarName, PrintWriter out) {
+        this.lines = null;
+        this.out = out;
+        this.oldJarName = oldJarName;
+        this.newJarName = newJarName;
+        writeHeader(out);
+    }
+
+    /**
+     * Add a package mapping. Formats without package mappings leave them out,
+     * which is what this does unless overridden.
+     */
+    public void addPackageMap(String oldPackage, String newPackage) {
+    }
+
     public abstract void addClassMap(String oldClass, String newClass);
 
     public abstract void addFieldMap(Ownable oldField, Ownable newField);
@@ -55,18 +85,33 @@ public abstract class MappingWriter {
     public abstract void addMethodMap(Ownable oldMethod, Ownable newMethod);
 
     public final void write(PrintWriter out) {
+        if (lines == null) {
+            throw new IllegalStateException("Lines have already been written out");
+        }
+        writeHeader(out);
         // Sort lines for easy finding
-        Collections.sort(lines);
-        // Format header
-        out.println(MessageFormat.format(HEADER, oldJarName, newJarName, new Date()));
-        // Write out lines
-        for (String s : lines) {
-            out.println(s);
+        try {
+            lines.writeTo(out);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
         }
         // Caller is in charge of closes the output stream
     }
 
+    private void writeHeader(PrintWriter out) {
+        out.println(MessageFormat.format(HEADER, oldJarName, newJarName, new Date()));
+    }
+
     protected final void addLine(String line) {
-        lines.add(line);
+        if (out != null) {
+            out.println(line);
+            return;
+        }
+
+        try {
+            lines.add(line);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 }
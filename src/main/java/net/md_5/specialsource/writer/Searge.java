@@ -28,6 +28,7 @@
  */
 package net.md_5.specialsource.writer;
 
+import java.io.PrintWriter;
 import net.md_5.specialsource.Ownable;
 
 public class Searge extends MappingWriter {
@@ -36,6 +37,15 @@ public class Searge extends MappingWriter {
         super(oldJarName, newJarName);
     }
 
+    public Searge(String oldJarName, String newJarName, PrintWriter out) {
+        super(oldJarName, newJarName, out);
+    }
+
+    @Override
+    public void addPackageMap(String oldPackage, String newPackage) {
+        addLine("PK: " + oldPackage + " " + newPackage);
+    }
+
     @Override
     public void addClassMap(String oldClass, String newClass) {
         addLine("CL: " + oldClass + " " + newClass);
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompiledMappingTest {
+
+    private static final String SRG = "PK: ./ net/minecraft\n"
+            + "CL: a net/A\n"
+            + "CL: b net/B\n"
+            + "FD: a/x net/A/field\n"
+            + "MD: a/y (Lb;)La; net/A/method (Lnet/B;)Lnet/A;\n"
+            + "MD: b/z ()V net/B/run ()V\n";
+    //
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void resetCache() {
+        CompiledMapping.useCache = false;
+    }
+
+    private static JarMapping load(String text) throws IOException {
+        JarMapping mapping = new JarMapping();
+        mapping.loadMappings(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        return mapping;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        JarMapping mapping = load(SRG);
+        File file = folder.newFile("mapping.ssm");
+        CompiledMapping.write(mapping, file);
+
+        CompiledMapping compiled = CompiledMapping.open(file);
+        assertTrue(compiled.isSrg());
+        assertEquals("net/A", compiled.getClassMapping("a"));
+        assertNull(compiled.getClassMapping("d"));
+        assertEquals("field", compiled.getFieldMapping("a", "x", null));
+        assertEquals("run", compiled.getMethodMapping("b", "z", "()V"));
+        assertEquals(mapping.packages, compiled.getPackageMappings());
+        assertEquals(2, compiled.getClassCount());
+        assertEquals(1, compiled.getFieldCount());
+        assertEquals(2, compiled.getMethodCount());
+
+        Map<String, String> classes = new HashMap<String, String>();
+        Map<String, String> fields = new HashMap<String, String>();
+        Map<String, String> methods = new HashMap<String, String>();
+        compiled.forEachClass(classes::put);
+        compiled.forEachField(fields::put);
+        compiled.forEachMethod(methods::put);
+        assertEquals(mapping.classes, classes);
+        assertEquals(mapping.fields, fields);
+        assertEquals(mapping.methods, methods);
+
+        // And loaded back in like any mapping file
+        JarMapping loaded = new JarMapping();
+        loaded.loadMappings(file);
+        assertEquals(mapping.classes, loaded.classes);
+        assertEquals(mapping.fields, loaded.fields);
+        assertEquals(mapping.methods, loaded.methods);
+        assertEquals(mapping.packages, loaded.packages);
+    }
+
+    @Test
+    public void fieldsByName() throws IOException {
+        JarMapping mapping = load(SRG);
+        mapping.getFieldMap().put("a", "f", "I", "count");
+        mapping.getFieldMap().put("a", "f", "Ljava/lang/String;", "name");
+        mapping.getFieldMap().put("a", "f", "Lb;", "other");
+        mapping.getFieldMap().put("b", "f", "J", "time");
+        File file = folder.newFile("mapping.ssm");
+        CompiledMapping.write(mapping, file);
+
+        for (CompiledMapping compiled : new CompiledMapping[]{CompiledMapping.open(file), CompiledMapping.compile(mapping)}) {
+            for (Predicate<String> filter : Arrays.<Predicate<String>>asList(desc -> true, desc -> desc.startsWith("L"), desc -> desc.equals("J"))) {
+                for (String owner : new String[]{"a", "b", "c"}) {
+                    for (String name : new String[]{"f", "x"}) {
+                        assertEquals(owner + "/" + name, mapping.getFieldMappingByName(owner, name, filter), compiled.getFieldMappingByName(owner, name, filter));
+                    }
+                }
+            }
+        }
+        assertEquals("count", CompiledMapping.open(file).getFieldMappingByName("a", "f", desc -> true));
+        assertEquals("name", CompiledMapping.open(file).getFieldMappingByName("a", "f", desc -> desc.startsWith("Ljava")));
+    }
+
+    @Test
+    public void cachedCopy() throws IOException {
+        CompiledMapping.useCache = true;
+        File text = folder.newFile("mapping.srg");
+        Files.write(text.toPath(), SRG.getBytes(StandardCharsets.UTF_8));
+        File cache = new File(text.getPath() + ".ssm");
+
+        CompiledMapping first = new JarMapping().openCompiled(text.getPath(), false, null, null);
+        assertTrue(cache.isFile());
+        assertEquals("net/A", first.getClassMapping("a"));
+        byte[] key = CompiledMapping.open(cache).getKey();
+
+        // Unchanged, so the cached copy is used as it is
+        long modified = cache.lastModified();
+        JarMapping loaded = new JarMapping();
+        loaded.loadMappings(text.getPath(), false, false, null, null);
+        assertEquals(load(SRG).classes, loaded.classes);
+        assertEquals(modified, cache.lastModified());
+
+        // Reversing gives a different cached copy
+        CompiledMapping reversed = new JarMapping().openCompiled(text.getPath(), true, null, null);
+        assertEquals("a", reversed.getClassMapping("net/A"));
+        assertFalse(Arrays.equals(key, CompiledMapping.open(cache).getKey()));
+
+        // As does changing the file
+        Files.write(text.toPath(), SRG.replace("net/B", "net/C").getBytes(StandardCharsets.UTF_8));
+        loaded = new JarMapping();
+        loaded.loadMappings(text.getPath(), false, false, null, null);
+        assertEquals("net/C", loaded.classes.get("b"));
+        assertEquals("net/C", CompiledMapping.open(cache).getClassMapping("b"));
+    }
+
+    @Test
+    public void cachedCopyPermissions() throws IOException {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        CompiledMapping.useCache = true;
+        File text = folder.newFile("mapping.srg");
+        Files.write(text.toPath(), SRG.getBytes(StandardCharsets.UTF_8));
+
+        new JarMapping().openCompiled(text.getPath(), false, null, null);
+        File cache = new File(text.getPath() + ".ssm");
+        assertEquals(Files.getPosixFilePermissions(text.toPath()), Files.getPosixFilePermissions(cache.toPath()));
+        // And no temporary files are left behind
+        assertEquals(new TreeSet<String>(Arrays.asList("mapping.srg", "mapping.srg.ssm")), new TreeSet<String>(Arrays.asList(folder.getRoot().list())));
+    }
+
+    @Test
+    public void uncachedInMemory() throws IOException {
+        File text = folder.newFile("mapping.srg");
+        Files.write(text.toPath(), SRG.getBytes(StandardCharsets.UTF_8));
+
+        CompiledMapping compiled = new JarMapping().openCompiled(text.getPath(), false, null, null);
+        assertEquals("method", compiled.getMethodMapping("a", "y", "(Lb;)La;"));
+        assertFalse(new File(text.getPath() + ".ssm").exists());
+    }
+}
@@ -0,0 +1,453 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.Opcodes;
+
+public class JarMappingTest {
+
+    private static final String SRG = "PK: ./ net/minecraft\n"
+            + "CL: a net/A\n"
+            + "CL: b net/B\n"
+            + "CL: a$c net/A$Inner\n"
+            + "FD: a/x net/A/field\n"
+            + "FD: a$c/x net/A$Inner/inner\n"
+            + "MD: a/y (Lb;)La; net/A/method (Lnet/B;)Lnet/A;\n"
+            + "MD: a/y (I)V net/A/other (I)V\n"
+            + "MD: b/z ()V net/B/run ()V\n";
+    private static final String CSRG = "a net/A\n"
+            + "b net/B\n"
+            + "a$c net/A$Inner\n"
+            + "a x field\n"
+            + "a$c x inner\n"
+            + "a y (Lb;)La; method\n"
+            + "a y (I)V other\n"
+            + "b z ()V run\n";
+    private static final String TSRG = "a net/A\n"
+            + "\tx field\n"
+            + "\ty (Lb;)La; method\n"
+            + "\ty (I)V other\n"
+            + "a$c net/A$Inner\n"
+            + "\tx inner\n"
+            + "b net/B\n"
+            + "\tz ()V run\n";
+    //
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    // A tsrg file larger than JarMapping splits into chunks
+    private File largeTsrg() throws IOException {
+        File file = folder.newFile("large.tsrg");
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            for (int i = 0; i < 60000; i++) {
+                out.println("a" + i + " net/Class" + i);
+                out.println("\tf field" + i);
+                out.println("\tg ()La" + (i + 1) + "; other" + i);
+                out.println("\tm (La" + (i / 2) + ";I)La" + (i + 7) + "; method" + i);
+            }
+        }
+        return file;
+    }
+
+    private static JarMapping load(String text) throws IOException {
+        JarMapping mapping = new JarMapping();
+        mapping.loadMappings(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        return mapping;
+    }
+
+    private static Map<String, String> expectedClasses() {
+        Map<String, String> classes = new HashMap<String, String>();
+        classes.put("a", "net/A");
+        classes.put("b", "net/B");
+        classes.put("a$c", "net/A$Inner");
+        return classes;
+    }
+
+    private static Map<String, String> expectedFields() {
+        Map<String, String> fields = new TreeMap<String, String>();
+        fields.put("a/x", "field");
+        fields.put("a$c/x", "inner");
+        return fields;
+    }
+
+    private static Map<String, String> expectedMethods() {
+        Map<String, String> methods = new HashMap<String, String>();
+        methods.put("a/y (Lb;)La;", "method");
+        methods.put("a/y (I)V", "other");
+        methods.put("b/z ()V", "run");
+        return methods;
+    }
+
+    private static void assertMaps(Map<String, String> classes, Map<String, String> fields, Map<String, String> methods, JarMapping mapping) {
+        assertEquals(classes, mapping.classes);
+        assertEquals(fields, mapping.fields);
+        assertEquals(methods, mapping.methods);
+    }
+
+    @Test
+    public void formatsAgree() throws IOException {
+        assertMaps(expectedClasses(), expectedFields(), expectedMethods(), load(SRG));
+        assertMaps(expectedClasses(), expectedFields(), expectedMethods(), load(CSRG));
+        assertMaps(expectedClasses(), expectedFields(), expectedMethods(), load(TSRG));
+        // "./" is the default package, and package names end with '/'
+        assertEquals("net/minecraft/", load(SRG).packages.get("."));
+    }
+
+    @Test
+    public void chunkedParsing() throws IOException {
+        File file = largeTsrg();
+        for (boolean reverse : new boolean[]{false, true}) {
+            JarMapping single = new JarMapping();
+            single.loadMappings(file, null, null, reverse);
+
+            // Reversing needs the classes of other chunks for the member descriptors
+            JarMapping chunked = new JarMapping();
+            chunked.setThreads(4);
+            chunked.loadMappings(file, null, null, reverse);
+
+            assertEquals(120000, single.methods.size());
+            assertMaps(single.classes, single.fields, single.methods, chunked);
+        }
+    }
+
+    @Test
+    public void severalFiles() throws IOException {
+        File srg = folder.newFile("first.srg");
+        Files.write(srg.toPath(), SRG.getBytes(StandardCharsets.UTF_8));
+        File csrg = folder.newFile("second.csrg");
+        Files.write(csrg.toPath(), "a net/Renamed\nb z ()V go\nd net/D\n".getBytes(StandardCharsets.UTF_8));
+        List<String> filenames = Arrays.asList(srg.getPath(), csrg.getPath(), largeTsrg().getPath());
+
+        JarMapping single = new JarMapping();
+        single.loadMappings(filenames, false, false, null, null);
+        // Later files replace earlier ones, whichever finishes first
+        assertEquals("net/Renamed", single.classes.get("a"));
+        assertEquals("go", single.methods.get("b/z ()V"));
+        assertEquals("field", single.fields.get("a/x"));
+        assertEquals("net/Class5", single.classes.get("a5"));
+
+        JarMapping parallel = new JarMapping();
+        parallel.setThreads(3);
+        parallel.loadMappings(filenames, false, false, null, null);
+        assertMaps(single.classes, single.fields, single.methods, parallel);
+        assertEquals(single.packages, parallel.packages);
+    }
+
+    @Test
+    public void onlyTabsIndent() throws IOException {
+        // Lines indented with spaces are not tsrg member or parameter lines
+        JarMapping mapping = load("a net/A\n  b net/B\n  a x field\n");
+        assertEquals("net/B", mapping.classes.get("b"));
+        assertEquals("field", mapping.fields.get("a/x"));
+    }
+
+    @Test
+    public void compose() throws IOException {
+        JarMapping first = load(SRG);
+        JarMapping second = load("CL: net/A org/A\n"
+                + "CL: net/D org/D\n"
+                + "FD: net/A$Inner/inner net/A$Inner/renamed\n"
+                + "MD: net/A/method (Lnet/B;)Lnet/A; org/A/method2 (Lnet/B;)Lorg/A;\n"
+                + "MD: net/D/stay ()V org/D/go ()V\n");
+        JarMapping composed = MappingComposer.compose(first, second);
+
+        Map<String, String> classes = expectedClasses();
+        classes.put("a", "org/A");
+        classes.put("net/D", "org/D");
+        // Inner classes follow their outer class
+        classes.put("a$c", "org/A$Inner");
+        Map<String, String> fields = expectedFields();
+        fields.put("a$c/x", "renamed");
+        Map<String, String> methods = expectedMethods();
+        methods.put("a/y (Lb;)La;", "method2");
+        methods.put("net/D/stay ()V", "go");
+        assertMaps(classes, fields, methods, composed);
+
+        // Remapping through the result is the same as through each in turn
+        JarRemapper firstRemapper = new JarRemapper(first);
+        JarRemapper secondRemapper = new JarRemapper(second);
+        JarRemapper composedRemapper = new JarRemapper(composed);
+        for (String name : new String[]{"a", "b", "a$c", "net/D", "other/E"}) {
+            assertEquals(secondRemapper.map(firstRemapper.map(name)), composedRemapper.map(name));
+        }
+        assertEquals(secondRemapper.mapMethodDesc(firstRemapper.mapMethodDesc("(Lb;La$c;)La;")), composedRemapper.mapMethodDesc("(Lb;La$c;)La;"));
+
+        // A single mapping is copied
+        JarMapping copy = MappingComposer.compose(first);
+        assertMaps(first.classes, first.fields, first.methods, copy);
+    }
+
+    @Test
+    public void composeChain() throws IOException {
+        JarMapping first = load(SRG);
+        JarMapping second = load("CL: net/A org/A\n"
+                + "MD: net/A/method (Lnet/B;)Lnet/A; org/A/method2 (Lnet/B;)Lorg/A;\n");
+        JarMapping third = load("CL: org/A com/A\n"
+                + "CL: net/B com/B\n"
+                + "MD: org/A/method2 (Lnet/B;)Lorg/A; com/A/method3 (Lcom/B;)Lcom/A;\n");
+        JarMapping composed = MappingComposer.compose(Arrays.asList(first, second, third));
+
+        assertEquals("com/A", composed.classes.get("a"));
+        assertEquals("com/B", composed.classes.get("b"));
+        assertEquals("com/A$Inner", composed.classes.get("a$c"));
+        assertEquals("method3", composed.methods.get("a/y (Lb;)La;"));
+        assertEquals("field", composed.fields.get("a/x"));
+
+        // Composing in two steps gives the same result
+        JarMapping stepwise = MappingComposer.compose(MappingComposer.compose(first, second), third);
+        assertMaps(composed.classes, composed.fields, composed.methods, stepwise);
+    }
+
+    @Test
+    public void reverse() throws IOException {
+        JarMapping mapping = load(SRG);
+        JarMapping reversed = mapping.reverse();
+        assertEquals("a", reversed.classes.get("net/A"));
+        assertEquals("x", reversed.fields.get("net/A/field"));
+        assertEquals("y", reversed.methods.get("net/A/method (Lnet/B;)Lnet/A;"));
+        assertEquals(".", reversed.packages.get("net/minecraft/"));
+
+        // Both directions are paired until either is changed
+        assertSame(reversed, mapping.reverse());
+        assertSame(mapping, reversed.reverse());
+        mapping.classes.put("d", "net/D");
+        JarMapping changed = mapping.reverse();
+        assertNotSame(reversed, changed);
+        assertEquals("d", changed.classes.get("net/D"));
+
+        // Including by clearing through a view
+        mapping.classes.entrySet().clear();
+        assertTrue(mapping.reverse().classes.isEmpty());
+        // Leaving only the package mapping for the owners and descriptors
+        assertEquals("y", mapping.reverse().methods.get("net/minecraft/a/method (Lnet/minecraft/b;)Lnet/minecraft/a;"));
+    }
+
+    @Test
+    public void lazyMembers() throws IOException {
+        for (String text : new String[]{CSRG, TSRG}) {
+            File file = folder.newFile();
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            JarMapping mapping = new JarMapping();
+            mapping.setLazyMembers(true);
+            mapping.loadMappings(file.getPath(), false, false, null, null);
+            assertEquals(expectedClasses(), mapping.classes);
+            assertTrue(mapping.methods.isEmpty());
+
+            // Members of a class are loaded when it is first looked up
+            assertEquals("method", mapping.getMethodMapping("a", "y", "(Lb;)La;"));
+            assertEquals("field", mapping.getFieldMapping("a", "x", null));
+            assertNull(mapping.methods.get("b/z ()V"));
+            assertEquals("run", mapping.tryClimb(NodeType.METHOD, "b", "z", "()V", 0));
+
+            mapping.loadAllMembers();
+            assertMaps(expectedClasses(), expectedFields(), expectedMethods(), mapping);
+        }
+
+        JarMapping eager = new JarMapping();
+        eager.loadMappings(largeTsrg().getPath(), false, false, null, null);
+        JarMapping lazy = new JarMapping();
+        lazy.setLazyMembers(true);
+        lazy.loadMappings(new File(folder.getRoot(), "large.tsrg").getPath(), false, false, null, null);
+        assertEquals("method7", lazy.getMethodMapping("a7", "m", "(La3;I)La14;"));
+        lazy.loadAllMembers();
+        assertMaps(eager.classes, eager.fields, eager.methods, lazy);
+    }
+
+    @Test
+    public void mcpDirectory() throws IOException {
+        File dir = folder.newFolder("mcp");
+        Files.write(new File(dir, "joined.srg").toPath(), ("CL: a net/minecraft/A\n"
+                + "FD: a/b net/minecraft/A/field_1_a\n"
+                + "MD: a/c (La;)V net/minecraft/A/func_2_b (Lnet/minecraft/A;)V\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "fields.csv").toPath(), "searge,name,side,desc\nfield_1_a,health,0,\"The health,\nin points\"\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "methods.csv").toPath(), "searge,name,side,desc\nfunc_2_b,tick,0,\n".getBytes(StandardCharsets.UTF_8));
+
+        JarMapping named = new JarMapping();
+        named.loadMappings(dir.getPath(), false, false, null, null);
+        assertEquals("health", named.getFieldMapping("a", "b", null));
+        assertEquals("tick", named.getMethodMapping("a", "c", "(La;)V"));
+
+        // Descriptive names to numeric srg names
+        JarMapping numeric = new JarMapping();
+        numeric.loadMappings(dir.getPath(), false, true, null, null);
+        assertEquals("net/minecraft/A", numeric.classes.get("net/minecraft/A"));
+        assertEquals("field_1_a", numeric.getFieldMapping("net/minecraft/A", "health", null));
+        assertEquals("func_2_b", numeric.getMethodMapping("net/minecraft/A", "tick", "(Lnet/minecraft/A;)V"));
+    }
+
+    @Test
+    public void frozenMatchesSource() throws IOException {
+        JarMapping mapping = load(SRG);
+        JarMapping frozen = mapping.freeze();
+        assertTrue(frozen.isFrozen());
+        assertMaps(mapping.classes, mapping.fields, mapping.methods, frozen);
+        assertEquals(mapping.packages, frozen.packages);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void frozenIsReadOnly() throws IOException {
+        load(SRG).freeze().classes.put("d", "net/D");
+    }
+
+    /**
+     * Class D extends A and implements I and J, which both extend K.
+     */
+    private static JarMapping diamond() {
+        JarMapping mapping = new JarMapping();
+        InheritanceMap inheritance = new InheritanceMap();
+        inheritance.setParents("D", Arrays.asList("A", "I", "J"));
+        inheritance.setParents("A", Arrays.asList("java/lang/Object"));
+        inheritance.setParents("I", Arrays.asList("K"));
+        inheritance.setParents("J", Arrays.asList("K"));
+        mapping.setInheritanceMap(inheritance);
+
+        // Known owners, so that the field keys can be split
+        for (String owner : Arrays.asList("A", "D", "I", "J", "K")) {
+            mapping.classes.put(owner, "net/" + owner);
+        }
+        mapping.fields.put("A/f/I", "typed");
+        mapping.fields.put("K/f", "untyped");
+        mapping.fields.put("A/g", "g1");
+        mapping.methods.put("K/k ()V", "kk");
+        mapping.methods.put("I/m ()V", "im");
+        mapping.methods.put("J/m ()V", "jm");
+        mapping.methods.put("J/n ()V", "jn");
+        mapping.methods.put("D/m ()V", "dm");
+        return mapping;
+    }
+
+    @Test
+    public void flattenedMatchesClimbing() {
+        JarMapping mapping = diamond();
+        FlattenedMapping flattened = new FlattenedMapping(mapping, Arrays.asList("D", "J"));
+        for (String owner : Arrays.asList("D", "A", "I", "J", "K", "E")) {
+            for (int access : new int[]{-1, 0, Opcodes.ACC_STATIC, Opcodes.ACC_PRIVATE}) {
+                for (String name : Arrays.asList("f", "g", "x")) {
+                    for (String desc : Arrays.asList("I", "J", null)) {
+                        String member = owner + "/" + name + " " + desc + " " + access;
+                        assertEquals(member, mapping.tryClimb(NodeType.FIELD, owner, name, desc, access),
+                                flattened.tryClimb(NodeType.FIELD, owner, name, desc, access));
+                    }
+                }
+                for (String name : Arrays.asList("k", "m", "n", "x")) {
+                    String member = owner + "/" + name + " " + access;
+                    assertEquals(member, mapping.tryClimb(NodeType.METHOD, owner, name, "()V", access),
+                            flattened.tryClimb(NodeType.METHOD, owner, name, "()V", access));
+                }
+            }
+        }
+        assertEquals("typed", flattened.tryClimb(NodeType.FIELD, "D", "f", "I", 0));
+        assertEquals("untyped", flattened.tryClimb(NodeType.FIELD, "D", "f", "J", 0));
+        assertEquals("kk", flattened.tryClimb(NodeType.METHOD, "D", "k", "()V", 0));
+        assertEquals("jn", flattened.tryClimb(NodeType.METHOD, "D", "n", "()V", 0));
+    }
+
+    @Test
+    public void climbsDiamonds() {
+        JarMapping mapping = diamond();
+        assertEquals("dm", mapping.tryClimb(NodeType.METHOD, "D", "m", "()V", 0));
+        assertEquals("jn", mapping.tryClimb(NodeType.METHOD, "D", "n", "()V", 0));
+        assertEquals("kk", mapping.tryClimb(NodeType.METHOD, "D", "k", "()V", 0));
+        assertEquals("typed", mapping.tryClimb(NodeType.FIELD, "D", "f", "I", 0));
+        assertEquals("untyped", mapping.tryClimb(NodeType.FIELD, "D", "f", "J", 0));
+        // Static and private members are not inherited
+        assertNull(mapping.tryClimb(NodeType.METHOD, "D", "k", "()V", Opcodes.ACC_STATIC));
+        assertEquals("dm", mapping.tryClimb(NodeType.METHOD, "D", "m", "()V", Opcodes.ACC_PRIVATE));
+
+        // Each ancestor is only visited once, where every path through the
+        // diamonds would be far too many
+        InheritanceMap inheritance = new InheritanceMap();
+        for (int i = 0; i < 40; i++) {
+            inheritance.setParents("C" + i, Arrays.asList("L" + i, "R" + i));
+            inheritance.setParents("L" + i, Arrays.asList("C" + (i + 1)));
+            inheritance.setParents("R" + i, Arrays.asList("C" + (i + 1)));
+        }
+        mapping.setInheritanceMap(inheritance);
+        mapping.methods.put("C40/top ()V", "found");
+        assertEquals("found", mapping.tryClimb(NodeType.METHOD, "C0", "top", "()V", 0));
+        assertNull(mapping.tryClimb(NodeType.METHOD, "C0", "missing", "()V", 0));
+    }
+
+    @Test
+    public void climbsFollowChanges() {
+        JarMapping mapping = diamond();
+        InheritanceMap inheritance = new InheritanceMap();
+        inheritance.setParents("D", Arrays.asList("A", "I", "J"));
+        inheritance.setParents("J", Arrays.asList("K"));
+        mapping.setInheritanceMap(inheritance);
+        assertNull(mapping.tryClimb(NodeType.METHOD, "D", "x", "()V", 0));
+        assertNull(mapping.tryClimb(NodeType.METHOD, "E", "k", "()V", 0));
+
+        // Results with no mapping are cached, until the mappings change
+        mapping.methods.put("K/x ()V", "kx");
+        assertEquals("kx", mapping.tryClimb(NodeType.METHOD, "D", "x", "()V", 0));
+
+        // or the inheritance does
+        inheritance.setParents("E", Arrays.asList("J"));
+        assertEquals("kk", mapping.tryClimb(NodeType.METHOD, "E", "k", "()V", 0));
+        InheritanceMap replaced = new InheritanceMap();
+        replaced.setParents("E", Arrays.asList("I"));
+        replaced.setParents("I", Arrays.asList("K"));
+        mapping.setInheritanceMap(replaced);
+        assertEquals("kx", mapping.tryClimb(NodeType.METHOD, "E", "x", "()V", 0));
+        assertNull(mapping.tryClimb(NodeType.METHOD, "D", "x", "()V", 0));
+    }
+
+    @Test
+    public void excludedPackages() throws IOException {
+        JarMapping mapping = new JarMapping();
+        mapping.addExcludedPackage("org/lib/");
+        mapping.loadMappings(new ByteArrayInputStream(("CL: org/lib/A net/A\n"
+                + "CL: org/libs/B net/B\n"
+                + "FD: org/lib/A/x net/A/field\n"
+                + "MD: org/libs/B/y ()V net/B/run ()V\n").getBytes(StandardCharsets.UTF_8)));
+        assertNull(mapping.classes.get("org/lib/A"));
+        assertNull(mapping.getFieldMapping("org/lib/A", "x", null));
+        assertEquals("net/B", mapping.classes.get("org/libs/B"));
+        assertEquals("run", mapping.getMethodMapping("org/libs/B", "y", "()V"));
+    }
+}
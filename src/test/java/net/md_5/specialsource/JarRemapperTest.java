@@ -0,0 +1,366 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import com.google.common.cache.CacheStats;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import net.md_5.specialsource.provider.JarProvider;
+import net.md_5.specialsource.provider.MappingProvider;
+import net.md_5.specialsource.provider.RecordingMappingProvider;
+import net.md_5.specialsource.repo.ClassRepo;
+import net.md_5.specialsource.repo.JarRepo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public class JarRemapperTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static JarMapping load(String text) throws IOException {
+        JarMapping mapping = new JarMapping();
+        mapping.loadMappings(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        return mapping;
+    }
+
+    private Map<String, byte[]> remap(MappingProvider mapping, Jar jar, int threads) throws IOException {
+        RemapperProcessor reflection = new RemapperProcessor(null, mapping, null);
+        JarRemapper remapper = new JarRemapper(reflection, mapping, null);
+        remapper.setThreads(threads);
+        File out = folder.newFile();
+        remapper.remapJar(jar, out);
+        return TestJars.read(out);
+    }
+
+    private static void assertJarsEqual(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private static MethodNode method(ClassNode node, String name) {
+        for (MethodNode method : node.methods) {
+            if (method.name.equals(name)) {
+                return method;
+            }
+        }
+        throw new AssertionError("No method " + name + " in " + node.name);
+    }
+
+    private static List<String> references(MethodNode method) {
+        List<String> references = new ArrayList<String>();
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof MethodInsnNode) {
+                MethodInsnNode call = (MethodInsnNode) insn;
+                references.add(call.owner + "." + call.name + call.desc);
+            } else if (insn instanceof FieldInsnNode) {
+                FieldInsnNode field = (FieldInsnNode) insn;
+                references.add(field.owner + "." + field.name);
+            } else if (insn instanceof LdcInsnNode) {
+                references.add(String.valueOf(((LdcInsnNode) insn).cst));
+            }
+        }
+        return references;
+    }
+
+    @Test
+    public void remapsThroughInheritance() throws IOException {
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            JarMapping mapping = load(TestJars.MAPPINGS);
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            Map<String, byte[]> out = remap(mapping, jar, 1);
+
+            assertTrue(out.containsKey("data/readme.txt"));
+            ClassNode a = TestJars.node(out.get("net/A.class"));
+            assertEquals("net/B", a.superName);
+            assertEquals("field", a.fields.get(0).name);
+            assertEquals(Arrays.asList("net/A.run()V", "net/A.name", "net/A.field", "x"), references(method(a, "method")));
+
+            // Reflection on a mapped field is remapped too
+            ClassNode c = TestJars.node(out.get("net/C.class"));
+            assertEquals(Arrays.asList("Lnet/A;", "field", "java/lang/Class.getDeclaredField(Ljava/lang/String;)Ljava/lang/reflect/Field;",
+                    "net/A.method(Lnet/B;)Lnet/A;"), references(method(c, "visit")));
+        }
+    }
+
+    @Test
+    public void providersAgree() throws IOException {
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            JarMapping mapping = load(TestJars.MAPPINGS);
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            Map<String, byte[]> expected = remap(mapping, jar, 1);
+
+            File file = folder.newFile("mapping.ssm");
+            CompiledMapping.write(mapping, file);
+            CompiledMapping compiled = CompiledMapping.open(file);
+            compiled.setInheritanceProvider(new JarProvider(jar));
+            assertJarsEqual(expected, remap(compiled, jar, 1));
+            assertJarsEqual(expected, remap(compiled, jar, 4));
+
+            JarMapping frozen = load(TestJars.MAPPINGS);
+            frozen.setFallbackInheritanceProvider(new JarProvider(jar));
+            assertJarsEqual(expected, remap(frozen.freeze(), jar, 4));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void jarMappingConstructors() throws IOException {
+        JarMapping mapping = load(TestJars.MAPPINGS);
+        assertSame(mapping, new JarRemapper(mapping).jarMapping);
+        assertSame(mapping, new JarRemapper(null, mapping).getMapping());
+        assertSame(mapping, new JarRemapper(null, mapping, null).jarMapping);
+
+        MappingProvider compiled = CompiledMapping.compile(mapping);
+        assertNull(new JarRemapper(compiled).jarMapping);
+        assertSame(compiled, new JarRemapper(compiled).getMapping());
+    }
+
+    @Test
+    public void cachesFollowMappingChanges() throws IOException {
+        JarMapping mapping = load(TestJars.MAPPINGS);
+        JarRemapper remapper = new JarRemapper(mapping);
+        Map<String, CacheStats> first = null;
+        for (int i = 0; i < 2; i++) {
+            assertEquals("net/A", remapper.map("a"));
+            assertEquals("net/minecraft/e", remapper.map("e"));
+            assertEquals("(Lnet/B;)Lnet/A;", remapper.mapMethodDesc("(Lb;)La;"));
+            assertEquals("Ljava/util/List<Lnet/A;>;", remapper.mapSignature("Ljava/util/List<La;>;", true));
+            if (first == null) {
+                first = remapper.getCacheStats();
+            }
+        }
+        // The second time round is all from the caches
+        Map<String, CacheStats> second = remapper.getCacheStats();
+        for (String cache : Arrays.asList("type", "method descriptor", "signature")) {
+            assertEquals(cache, first.get(cache).missCount(), second.get(cache).missCount());
+            assertTrue(cache, second.get(cache).hitCount() > first.get(cache).hitCount());
+        }
+
+        // Changing the class or package mappings replaces the caches
+        mapping.classes.put("a", "org/A");
+        assertEquals("org/A", remapper.map("a"));
+        assertEquals("(Lnet/B;)Lorg/A;", remapper.mapMethodDesc("(Lb;)La;"));
+        mapping.packages.put(".", "org/minecraft/");
+        assertEquals("org/minecraft/e", remapper.map("e"));
+
+        // Keeping the statistics of the replaced caches
+        assertTrue(remapper.getCacheStats().get("type").requestCount() > second.get("type").requestCount());
+    }
+
+    @Test
+    public void prunedMappingsRemapTheSame() throws IOException {
+        String unused = "CL: q net/Q\n"
+                + "FD: q/f net/Q/f\n"
+                + "MD: a/u ()V net/A/unused ()V\n";
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            JarMapping mapping = load(TestJars.MAPPINGS + unused);
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            Map<String, byte[]> expected = remap(mapping, jar, 1);
+
+            assertEquals(3, mapping.prune(JarReferences.scan(jar, new JarProvider(jar))));
+            assertFalse(mapping.classes.containsKey("q"));
+            assertNull(mapping.getMethodMapping("a", "u", "()V"));
+            assertEquals("net/A", mapping.classes.get("a"));
+            assertEquals("method", mapping.getMethodMapping("a", "y", "(Lb;)La;"));
+            assertJarsEqual(expected, remap(mapping, jar, 1));
+        }
+    }
+
+    @Test
+    public void usedMappingsRemapTheSame() throws IOException {
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            JarMapping mapping = load(TestJars.MAPPINGS + "CL: q net/Q\n");
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            RecordingMappingProvider recording = new RecordingMappingProvider(mapping);
+            Map<String, byte[]> expected = remap(recording, jar, 2);
+            assertJarsEqual(expected, remap(mapping, jar, 1));
+
+            JarMapping used = recording.getUsedMapping();
+            assertEquals(mapping.packages, used.packages);
+            assertFalse(used.classes.containsKey("q"));
+            // Inherited members are recorded against the owner they were
+            // looked up by
+            assertEquals("run", used.getMethodMapping("a", "z", "()V"));
+
+            used.setFallbackInheritanceProvider(new JarProvider(jar));
+            assertJarsEqual(expected, remap(used, jar, 1));
+        }
+    }
+
+    @Test
+    public void skipsUnmappedNames() throws IOException {
+        JarMapping mapping = load(TestJars.MAPPINGS);
+        mapping.packages.clear();
+        JarRemapper remapper = new JarRemapper(mapping);
+
+        assertEquals("java/lang/String", remapper.map("java/lang/String"));
+        assertEquals("net/A", remapper.map("a"));
+        assertEquals("net/A$Inner", remapper.map("a$Inner"));
+        assertEquals(1, remapper.getSkippedClassLookups());
+
+        assertEquals("hashCode", remapper.mapMethodName("java/lang/Object", "hashCode", "()I"));
+        assertEquals("out", remapper.mapFieldName("java/lang/System", "out", "Ljava/io/PrintStream;"));
+        assertEquals("field", remapper.mapFieldName("a", "x", null));
+        assertEquals(2, remapper.getSkippedMemberLookups());
+
+        // New mappings are not filtered out
+        mapping.classes.put("java/lang/String", "net/String");
+        assertEquals("net/String", remapper.map("java/lang/String"));
+        mapping.methods.put("a/hashCode ()I", "hash");
+        assertEquals("hash", remapper.mapMethodName("a", "hashCode", "()I"));
+    }
+
+    @Test
+    public void reflectionFindsTypedFields() throws IOException {
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            // Field descriptors, as ProGuard mappings have
+            JarMapping mapping = load(TestJars.MAPPINGS.replace("FD: a/x net/A/field\n", ""));
+            mapping.fields.put("a/x/I", "count");
+            mapping.fields.put("a/x/Lb;", "field");
+            assertEquals("field", mapping.getFieldMappingByName("a", "x", desc -> desc.startsWith("L")));
+            assertNull(mapping.getFieldMappingByName("a", "w", desc -> true));
+
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            ClassNode c = TestJars.node(remap(mapping, jar, 1).get("net/C.class"));
+            assertTrue(references(method(c, "visit")).contains("field"));
+        }
+    }
+
+    @Test
+    public void flattenedRemapsTheSame() throws IOException {
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            JarMapping mapping = load(TestJars.MAPPINGS);
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            Map<String, byte[]> expected = remap(mapping, jar, 1);
+
+            FlattenedMapping flattened = new FlattenedMapping(mapping, jar.getClassNames());
+            assertEquals("run", flattened.tryClimb(NodeType.METHOD, "a", "z", "()V", 0));
+            assertJarsEqual(expected, remap(flattened, jar, 1));
+            assertJarsEqual(expected, remap(flattened, jar, 4));
+        }
+    }
+
+    @Test
+    public void parallelOutputIsDeterministic() throws IOException {
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            JarMapping mapping = load(TestJars.MAPPINGS);
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            JarMapping frozen = mapping.freeze();
+            Map<String, byte[]> expected = remap(frozen, jar, 1);
+
+            // Entries are written in the order of the input
+            JarRemapper names = new JarRemapper(frozen);
+            List<String> order = new ArrayList<String>();
+            for (String name : jar.getEntryNames()) {
+                order.add(name.endsWith(".class") ? names.map(name.substring(0, name.length() - ".class".length())) + ".class" : name);
+            }
+            assertEquals(order, new ArrayList<String>(expected.keySet()));
+
+            for (int threads : new int[]{2, 8, 8}) {
+                assertJarsEqual(expected, remap(frozen, jar, threads));
+            }
+        }
+    }
+
+    @Test
+    public void streamedMatchesTree() throws IOException {
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            JarMapping mapping = load(TestJars.MAPPINGS);
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            JarRemapper remapper = new JarRemapper(mapping);
+            ClassRepo repo = new JarRepo(jar);
+
+            for (byte[] bytes : TestJars.classes().values()) {
+                // Remapped into a tree and then written out, as classes used to be
+                ClassNode node = new ClassNode();
+                new ClassReader(bytes).accept(new RemappingClassAdapter(node, remapper, repo), 0);
+                ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+                node.accept(writer);
+
+                assertArrayEquals(node.name, writer.toByteArray(), remapper.remapClassFile(bytes, repo));
+            }
+        }
+    }
+
+    @Test
+    public void processorsInTheRemappingPass() throws IOException {
+        try (Jar jar = Jar.init(TestJars.write(folder.newFile("in.jar"), TestJars.classes()))) {
+            JarMapping mapping = load(TestJars.MAPPINGS);
+            mapping.setFallbackInheritanceProvider(new JarProvider(jar));
+            AccessMap access = new AccessMap();
+            access.addAccessChange("public+f net/A");
+            ClassRepo repo = new JarRepo(jar);
+
+            // Each processor reading and writing the class itself
+            InheritanceMap separateInheritance = new InheritanceMap();
+            RemapperProcessor pre = new RemapperProcessor(separateInheritance, mapping);
+            RemapperProcessor post = new RemapperProcessor(null, null, access);
+            JarRemapper plain = new JarRemapper(mapping);
+
+            InheritanceMap fusedInheritance = new InheritanceMap();
+            JarRemapper fused = new JarRemapper(new RemapperProcessor(fusedInheritance, mapping), mapping, new RemapperProcessor(null, null, access));
+
+            for (byte[] bytes : TestJars.classes().values()) {
+                byte[] expected = post.process(plain.remapClassFile(pre.process(bytes), repo));
+                assertArrayEquals(expected, fused.remapClassFile(bytes, repo));
+            }
+            byte[] a = fused.remapClassFile(TestJars.classes().get("a"), repo);
+            assertEquals(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, TestJars.node(a).access);
+            assertEquals(Arrays.asList("b"), fusedInheritance.getParents("a"));
+            for (String name : TestJars.classes().keySet()) {
+                assertEquals(name, separateInheritance.getParents(name), fusedInheritance.getParents(name));
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import net.md_5.specialsource.util.SymbolMap;
+import net.md_5.specialsource.util.SymbolTable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class MemberMapTest {
+
+    private static String randomKey(NodeType type, Random random) {
+        String owner = "a/" + (random.nextBoolean() ? "b/" : "") + "C" + random.nextInt(40);
+        String name = "m" + random.nextInt(30);
+        if (type == NodeType.METHOD) {
+            return owner + "/" + name + " " + (random.nextBoolean() ? "()V" : "(La/C1;)La/b/C2;");
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return owner + "/" + name + "/I";
+            case 1:
+                // Descriptors with '/' can leave the split ambiguous
+                return owner + "/" + name + "/La/b/C" + random.nextInt(3) + ";";
+            default:
+                return owner + "/" + name;
+        }
+    }
+
+    // Random puts and removes, checked against a plain map after each one
+    private static void randomChanges(MemberMap map, Map<String, String> expected, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            String key = randomKey(map.getType(), random);
+            if (random.nextInt(3) == 0) {
+                assertEquals(key, expected.remove(key), map.remove(key));
+            } else {
+                String value = "v" + random.nextInt(100);
+                assertEquals(key, expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+    }
+
+    @Test
+    public void fieldsMatchTreeMap() {
+        Random random = new Random(5);
+        Map<String, String> classes = new HashMap<String, String>();
+        classes.put("a/b/C1", "x/C1");
+        MemberMap map = new MemberMap(NodeType.FIELD, classes);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+
+        randomChanges(map, expected, random, 20000);
+        assertEquals(expected, map);
+        // The sorted view is iterated in key order, as fields always have been
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(map.sortedView().keySet()));
+        for (int i = 0; i < 2000; i++) {
+            String key = randomKey(NodeType.FIELD, random);
+            assertEquals(key, expected.get(key), map.get(key));
+            assertEquals(key, expected.containsKey(key), map.containsKey(key));
+        }
+
+        SortedMap<String, String> sorted = map.sortedView();
+        assertEquals(expected.firstKey(), sorted.firstKey());
+        assertEquals(expected.lastKey(), sorted.lastKey());
+        assertEquals(expected.subMap("a/C1", "a/C3"), sorted.subMap("a/C1", "a/C3"));
+        assertEquals(expected.headMap("a/C2"), sorted.headMap("a/C2"));
+        assertEquals(expected.tailMap("a/b/C2"), sorted.tailMap("a/b/C2"));
+        assertEquals(expected.subMap("a/C1", "a/C3").headMap("a/C2"), sorted.subMap("a/C1", "a/C3").headMap("a/C2"));
+        assertEquals(expected.tailMap("a/C1").size(), sorted.tailMap("a/C1").size());
+    }
+
+    @Test
+    public void sortedViewsAreLive() {
+        MemberMap map = new MemberMap(NodeType.FIELD, new HashMap<String, String>());
+        SortedMap<String, String> sorted = map.sortedView();
+        SortedMap<String, String> range = sorted.subMap("a/C1", "a/C2");
+        assertTrue(range.isEmpty());
+
+        map.put("a/C0", "x", null, "v0");
+        map.put("a/C1", "y", null, "v1");
+        map.put("a/C1", "x", null, "v2");
+        assertEquals(Arrays.asList("a/C1/x", "a/C1/y"), new ArrayList<String>(range.keySet()));
+        assertEquals("a/C0/x", sorted.firstKey());
+        assertEquals("a/C1/y", range.lastKey());
+
+        // Changes through a range go to the map, and only within the range
+        range.put("a/C1/z", "v3");
+        assertEquals("v3", map.get("a/C1", "z", null));
+        assertNull(range.remove("a/C0/x"));
+        assertEquals("v0", map.get("a/C0/x"));
+        try {
+            range.put("a/C2/x", "v4");
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        // Removing while iterating
+        for (Iterator<Map.Entry<String, String>> it = range.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().equals("v2")) {
+                it.remove();
+            }
+        }
+        assertEquals(Arrays.asList("a/C0/x", "a/C1/y", "a/C1/z"), new ArrayList<String>(sorted.keySet()));
+        range.clear();
+        assertEquals(Collections.singletonMap("a/C0/x", "v0"), map);
+    }
+
+    @Test
+    public void fieldsByName() {
+        Random random = new Random(9);
+        Map<String, String> classes = new HashMap<String, String>();
+        classes.put("a/b/C1", "x/C1");
+        MemberMap map = new MemberMap(NodeType.FIELD, classes);
+        Map<String, String> expected = new HashMap<String, String>();
+        Predicate<String> filter = desc -> desc.startsWith("L");
+
+        for (int round = 0; round < 4; round++) {
+            randomChanges(map, expected, random, 5000);
+            for (int i = 0; i < 2000; i++) {
+                String owner = "a/" + (random.nextBoolean() ? "b/" : "") + "C" + random.nextInt(40);
+                String name = "m" + random.nextInt(30);
+
+                // The lowest accepted descriptor, as a range scan would find
+                String prefix = owner + "/" + name + "/";
+                String bestDesc = null;
+                String best = null;
+                for (Map.Entry<String, String> entry : expected.entrySet()) {
+                    String desc = entry.getKey().startsWith(prefix) ? entry.getKey().substring(prefix.length()) : null;
+                    if (desc != null && filter.test(desc) && (bestDesc == null || desc.compareTo(bestDesc) < 0)) {
+                        bestDesc = desc;
+                        best = entry.getValue();
+                    }
+                }
+                assertEquals(prefix, best, map.getByName(owner, name, filter));
+            }
+        }
+    }
+
+    @Test
+    public void methodsMatchHashMap() {
+        Random random = new Random(6);
+        MemberMap map = new MemberMap(NodeType.METHOD, new HashMap<String, String>());
+        Map<String, String> expected = new HashMap<String, String>();
+
+        randomChanges(map, expected, random, 20000);
+        assertEquals(expected, map);
+        assertEquals(new TreeMap<String, String>(expected), new TreeMap<String, String>(map));
+        assertEquals(new ArrayList<String>(new TreeMap<String, String>(expected).keySet()), new ArrayList<String>(map.sortedView().keySet()));
+
+        assertNull(map.put("a/C1", "run", "()V", "v1"));
+        assertEquals("v1", map.get("a/C1/run ()V"));
+        assertEquals("v1", map.get("a/C1", "run", "()V"));
+        assertNull(map.get("a/C1", "run", "(I)V"));
+    }
+
+    @Test
+    public void changesWhileIterating() {
+        for (NodeType type : new NodeType[]{NodeType.FIELD, NodeType.METHOD}) {
+            Random random = new Random(7);
+            MemberMap map = new MemberMap(type, new HashMap<String, String>());
+            Map<String, String> expected = new HashMap<String, String>();
+            randomChanges(map, expected, random, 5000);
+
+            int i = 0;
+            for (Iterator<Map.Entry<String, String>> it = map.entrySet().iterator(); it.hasNext(); i++) {
+                Map.Entry<String, String> entry = it.next();
+                if (i % 3 == 0) {
+                    it.remove();
+                    expected.remove(entry.getKey());
+                } else if (i % 3 == 1) {
+                    entry.setValue("changed");
+                    expected.put(entry.getKey(), "changed");
+                } else {
+                    // Adding to the map does not disturb the iteration
+                    String key = randomKey(type, random);
+                    map.put(key, "added");
+                    expected.put(key, "added");
+                }
+            }
+            assertEquals(type.toString(), expected, map);
+            assertEquals(expected.size(), map.size());
+
+            map.entrySet().clear();
+            assertEquals(0, map.size());
+            assertEquals(0, map.entrySet().size());
+        }
+    }
+
+    @Test
+    public void frozenMatchesSource() {
+        for (NodeType type : new NodeType[]{NodeType.FIELD, NodeType.METHOD}) {
+            Random random = new Random(8);
+            SymbolTable symbols = new SymbolTable();
+            SymbolMap classes = new SymbolMap(symbols);
+            classes.put("a/b/C1", "x/C1");
+            MemberMap map = new MemberMap(type, classes, symbols);
+            Map<String, String> expected = new HashMap<String, String>();
+            randomChanges(map, expected, random, 20000);
+
+            SymbolTable frozenSymbols = symbols.freeze();
+            MemberMap frozen = map.freeze(frozenSymbols, classes.freeze(frozenSymbols));
+            assertEquals(expected, frozen);
+            assertEquals(new ArrayList<String>(map.sortedView().keySet()), new ArrayList<String>(frozen.sortedView().keySet()));
+            for (int i = 0; i < 2000; i++) {
+                String key = randomKey(type, random);
+                assertEquals(key, expected.get(key), frozen.get(key));
+            }
+
+            final List<String> members = new ArrayList<String>();
+            final List<String> frozenMembers = new ArrayList<String>();
+            map.forEachMember((owner, name, desc, value) -> members.add(map.toKey(owner, name, desc) + "=" + value));
+            frozen.forEachMember((owner, name, desc, value) -> {
+                frozenMembers.add(frozen.toKey(owner, name, desc) + "=" + value);
+                assertEquals(value, frozen.get(owner, name, desc));
+            });
+            members.sort(null);
+            frozenMembers.sort(null);
+            assertEquals(members, frozenMembers);
+            assertEquals(map.getUnsplit(), frozen.getUnsplit());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void frozenIsReadOnly() {
+        SymbolTable symbols = new SymbolTable();
+        MemberMap map = new MemberMap(NodeType.METHOD, new HashMap<String, String>(), symbols);
+        map.put("a/C1/run ()V", "b");
+        map.freeze(symbols.freeze(), new HashMap<String, String>()).put("a/C1/run ()V", "c");
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource;
+
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Builds small obfuscated jars for remapping tests, see {@link #MAPPINGS}.
+ */
+class TestJars {
+
+    /**
+     * Mappings for the classes of {@link #classes()}. Class a extends b, and
+     * calls b's method z and reads b's field w through itself, so those are
+     * only found by climbing.
+     */
+    static final String MAPPINGS = "PK: ./ net/minecraft\n"
+            + "CL: a net/A\n"
+            + "CL: b net/B\n"
+            + "CL: c net/C\n"
+            + "FD: a/x net/A/field\n"
+            + "FD: b/w net/B/name\n"
+            + "MD: a/y (Lb;)La; net/A/method (Lnet/B;)Lnet/A;\n"
+            + "MD: b/z ()V net/B/run ()V\n"
+            + "MD: c/v (La;)V net/C/visit (Lnet/A;)V\n";
+
+    private TestJars() {
+    }
+
+    /**
+     * The classes of the jar by name, with a few more unmapped classes to
+     * give the remapper more to do.
+     */
+    static Map<String, byte[]> classes() {
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        classes.put("b", b());
+        classes.put("a", a());
+        classes.put("c", c());
+        for (int i = 0; i < 20; i++) {
+            classes.put("d" + i, d(i));
+        }
+        return classes;
+    }
+
+    private static byte[] b() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "b", null, "java/lang/Object", null);
+        cw.visitField(Opcodes.ACC_PUBLIC, "w", "Ljava/lang/String;", null, null).visitEnd();
+        constructor(cw, "java/lang/Object");
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "z", "()V", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] a() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "a", null, "b", null);
+        cw.visitField(Opcodes.ACC_PUBLIC, "x", "I", null, null).visitEnd();
+        constructor(cw, "b");
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "y", "(Lb;)La;", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "a", "z", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, "a", "w", "Ljava/lang/String;");
+        mv.visitInsn(Opcodes.POP);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, "a", "x", "I");
+        mv.visitInsn(Opcodes.POP);
+        mv.visitLdcInsn("x");
+        mv.visitInsn(Opcodes.POP);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] c() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "c", null, "java/lang/Object", null);
+        constructor(cw, "java/lang/Object");
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "v", "(La;)V", null, null);
+        mv.visitCode();
+        // Finds the field by name through reflection
+        mv.visitLdcInsn(Type.getObjectType("a"));
+        mv.visitLdcInsn("x");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "getDeclaredField", "(Ljava/lang/String;)Ljava/lang/reflect/Field;", false);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "a", "y", "(Lb;)La;", false);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] d(int i) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "d" + i, null, (i % 2 == 0) ? "a" : "c", null);
+        constructor(cw, (i % 2 == 0) ? "a" : "c");
+        for (int m = 0; m < 5; m++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "m" + m, "(La;Lc;)Lb;", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 2);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "c", "v", "(La;)V", false);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void constructor(ClassWriter cw, String superName) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Write the classes to a jar, along with a resource.
+     */
+    static File write(File file, Map<String, byte[]> classes) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+                out.write(entry.getValue());
+            }
+            out.putNextEntry(new JarEntry("data/readme.txt"));
+            out.write("resource".getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    /**
+     * Read every entry of a jar, in order.
+     */
+    static Map<String, byte[]> read(File file) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        try (JarFile jar = new JarFile(file)) {
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+                JarEntry entry = e.nextElement();
+                try (InputStream in = jar.getInputStream(entry)) {
+                    entries.put(entry.getName(), ByteStreams.toByteArray(in));
+                }
+            }
+        }
+        return entries;
+    }
+
+    static ClassNode node(byte[] bytes) {
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, 0);
+        return node;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.writer.CompactSearge;
+import net.md_5.specialsource.writer.MappingWriter;
+import net.md_5.specialsource.writer.Searge;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappingConverterTest {
+
+    private static final String TSRG = "pkg/ other/\n"
+            + "a net/A\n"
+            + "\tx field\n"
+            + "\ty (Lb;Lpkg/C;)La; method\n"
+            + "b net/B\n"
+            + "\tz ([Lpkg/C;)V run\n";
+    //
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> lines(MappingWriter writer) {
+        StringWriter out = new StringWriter();
+        try (PrintWriter printer = new PrintWriter(out)) {
+            writer.write(printer);
+        }
+
+        List<String> lines = new ArrayList<String>();
+        for (String line : out.toString().split("\n")) {
+            // Leave out the header, which has the date in it
+            if (!line.startsWith("#") && !line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private List<String> convert(MappingWriter writer, boolean reverse) throws IOException {
+        File input = folder.newFile();
+        Files.write(input.toPath(), TSRG.getBytes(StandardCharsets.UTF_8));
+        MappingConverter.convert(input, writer, reverse);
+        return lines(writer);
+    }
+
+    private List<String> load(MappingWriter writer, boolean reverse) throws IOException {
+        File input = folder.newFile();
+        Files.write(input.toPath(), TSRG.getBytes(StandardCharsets.UTF_8));
+        JarMapping mapping = new JarMapping();
+        mapping.loadMappings(input.getPath(), reverse, false, null, null);
+        mapping.writeTo(writer);
+        return lines(writer);
+    }
+
+    @Test
+    public void matchesLoadedMapping() throws IOException {
+        assertEquals(load(new Searge("in", "out"), false), convert(new Searge("in", "out"), false));
+        assertEquals(load(new CompactSearge("in", "out"), false), convert(new CompactSearge("in", "out"), false));
+    }
+
+    @Test
+    public void packagesInDescriptors() throws IOException {
+        List<String> lines = convert(new Searge("in", "out"), false);
+        assertTrue(lines.toString(), lines.contains("PK: pkg/ other/"));
+        assertTrue(lines.toString(), lines.contains("MD: a/y (Lb;Lpkg/C;)La; net/A/method (Lnet/B;Lother/C;)Lnet/A;"));
+        assertTrue(lines.toString(), lines.contains("MD: b/z ([Lpkg/C;)V net/B/run ([Lother/C;)V"));
+
+        lines = convert(new Searge("in", "out"), true);
+        assertTrue(lines.toString(), lines.contains("PK: other/ pkg/"));
+        assertTrue(lines.toString(), lines.contains("MD: net/A/method (Lnet/B;Lother/C;)Lnet/A; a/y (Lb;Lpkg/C;)La;"));
+    }
+}
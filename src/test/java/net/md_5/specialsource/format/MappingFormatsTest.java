@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.util.LineTokenizer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class MappingFormatsTest {
+
+    private static final String TSRG = "a net/A\n"
+            + "\tx field\n"
+            + "\ty (Lb;)La; method\n"
+            + "b net/B\n";
+    private static final String TSRG2 = "tsrg2 left right\n"
+            + "a net/A\n"
+            + "\tx field\n"
+            + "\ty (Lb;)La; method\n"
+            + "\t\t0 o p\n"
+            + "b net/B\n";
+    private static final String PROGUARD = "net.A -> a:\n"
+            + "    int field -> x\n"
+            + "    net.A method(net.B) -> y\n"
+            + "net.B -> b:\n";
+
+    /**
+     * A format registered through META-INF/services, with a class on each
+     * line after a marker.
+     */
+    public static class Marked implements MappingFormat {
+
+        @Override
+        public String getName() {
+            return "marked";
+        }
+
+        @Override
+        public boolean matches(LineTokenizer header) throws IOException {
+            return header.next() && header.tokenEquals(0, "MARKED");
+        }
+
+        @Override
+        public MappingParser newParser(final MappingSink sink) {
+            return line -> {
+                if (!line.tokenEquals(0, "MARKED")) {
+                    sink.visitClass(line.getToken(0), line.getToken(1));
+                }
+            };
+        }
+    }
+
+    private static MappingFormat detect(String text) throws IOException {
+        return MappingFormats.detect(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static JarMapping load(String text) throws IOException {
+        JarMapping mapping = new JarMapping();
+        mapping.loadMappings(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        return mapping;
+    }
+
+    @Test
+    public void detectsEachFormat() throws IOException {
+        Map<String, MappingFormat> samples = new LinkedHashMap<String, MappingFormat>();
+        samples.put("PK: ./ net/minecraft\nCL: a net/A\n", MappingFormats.SRG);
+        samples.put("a net/A\na x field\n", MappingFormats.CSRG);
+        samples.put(TSRG, MappingFormats.TSRG);
+        samples.put(TSRG2, MappingFormats.TSRG2);
+        samples.put(PROGUARD, MappingFormats.PROGUARD);
+        samples.put("", MappingFormats.CSRG);
+        for (Map.Entry<String, MappingFormat> sample : samples.entrySet()) {
+            assertSame(sample.getKey(), sample.getValue(), detect(sample.getKey()));
+        }
+    }
+
+    @Test
+    public void byName() {
+        assertSame(MappingFormats.TSRG2, MappingFormats.get("tsrg2"));
+        assertSame(MappingFormats.PROGUARD, MappingFormats.get("ProGuard"));
+        assertNull(MappingFormats.get("unknown"));
+    }
+
+    @Test
+    public void formatsAgree() throws IOException {
+        JarMapping tsrg = load(TSRG);
+        for (String text : new String[]{TSRG2, PROGUARD}) {
+            JarMapping mapping = load(text);
+            assertEquals(text, tsrg.classes, mapping.classes);
+            assertEquals(text, tsrg.methods, mapping.methods);
+        }
+        assertEquals(tsrg.fields, load(TSRG2).fields);
+        // ProGuard always carries the field type
+        assertEquals("field", load(PROGUARD).fields.get("a/x/I"));
+    }
+
+    @Test
+    public void registeredFormats() throws IOException {
+        // Tried before the built in formats
+        assertTrue(MappingFormats.getFormats().get(0) instanceof Marked);
+        assertTrue(detect("MARKED\nx net/X\n") instanceof Marked);
+        assertEquals("net/X", load("MARKED\nx net/X\ny net/Y\n").classes.get("x"));
+    }
+}
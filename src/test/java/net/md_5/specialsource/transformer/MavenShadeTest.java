@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.transformer;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class MavenShadeTest {
+
+    @Test
+    public void firstMatchingRelocation() {
+        MavenShade shade = new MavenShade("org.lib.inner=shaded.inner,org.lib=shaded.lib,org.lib.other=never");
+        assertEquals("shaded/inner/A", shade.transformClassName("org/lib/inner/A"));
+        assertEquals("shaded/lib/other/A", shade.transformClassName("org/lib/other/A"));
+        assertEquals("org/app/A", shade.transformClassName("org/app/A"));
+        assertEquals("(Lshaded/lib/A;)V", shade.transformMethodDescriptor("(Lorg/lib/A;)V"));
+    }
+
+    @Test
+    public void relocationChanges() {
+        MavenShade shade = new MavenShade("org/lib=shaded/lib");
+        assertEquals("shaded/lib/A", shade.transformClassName("org/lib/A"));
+
+        // Same number of relocations, but a different pattern
+        shade.relocations.remove("org/lib");
+        shade.relocations.put("org/app", "shaded/app");
+        assertEquals("org/lib/A", shade.transformClassName("org/lib/A"));
+        assertEquals("shaded/app/A", shade.transformClassName("org/app/A"));
+
+        shade.relocations.put("org/app", "other/app");
+        assertEquals("other/app/A", shade.transformClassName("org/app/A"));
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, String> read(String text) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        CsvReader.readIntoMap(file, map);
+        return map;
+    }
+
+    @Test
+    public void columns() throws IOException {
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("searge", "name");
+        expected.put("field_1", "plain");
+        expected.put("field_2", "with, comma");
+        expected.put("field_3", "say \"hi\"");
+        expected.put("field_4", "back\"slash");
+        expected.put("field_5", "crlf");
+        expected.put("field_6", "");
+
+        assertEquals(expected, read("searge,name,side,desc\n"
+                + "field_1,plain,0,\n"
+                + "\n"
+                + "field_2,\"with, comma\",0,\"two\nlines\"\n"
+                + "field_3,\"say \"\"hi\"\"\",1,x\n"
+                + "field_4,\"back\\\"slash\",1,x\n"
+                + "field_5,crlf,2,\"x\"\r\n"
+                + "field_6,"));
+    }
+
+    @Test
+    public void laterRowsWin() throws IOException {
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("a", "3");
+        expected.put("b", "2");
+        assertEquals(expected, read("a,1\nb,2\na,3\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingColumn() throws IOException {
+        read("a,1\nb\n");
+    }
+
+    @Test
+    public void largeFiles() throws IOException {
+        // Large enough to be split into pieces, with quoted line breaks in
+        // every row so that pieces start inside quotes and are parsed again
+        for (boolean multiline : new boolean[]{false, true}) {
+            StringBuilder text = new StringBuilder("searge,name,side,desc\n");
+            Map<String, String> expected = new LinkedHashMap<String, String>();
+            expected.put("searge", "name");
+            for (int i = 0; text.length() < (4 << 20); i++) {
+                String value = "name_" + i;
+                text.append("func_").append(i).append("_a,").append(value).append(",0,");
+                text.append(multiline ? "\"Does a thing,\nthen\n\"\"another\"\"\"" : "Does a thing").append('\n');
+                expected.put("func_" + i + "_a", value);
+            }
+            assertEquals(expected, read(text.toString()));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class ExternalSorterTest {
+
+    private static List<String> sort(List<String> lines, int maxLines) throws IOException {
+        StringWriter out = new StringWriter();
+        try (ExternalSorter sorter = new ExternalSorter(maxLines); PrintWriter writer = new PrintWriter(out)) {
+            for (String line : lines) {
+                sorter.add(line);
+            }
+            sorter.writeTo(writer);
+        }
+
+        List<String> sorted = new ArrayList<String>();
+        for (String line : out.toString().split("\n", -1)) {
+            sorted.add(line);
+        }
+        // Each line is followed by a line break
+        assertEquals("", sorted.remove(sorted.size() - 1));
+        return sorted;
+    }
+
+    @Test
+    public void matchesCollectionsSort() throws IOException {
+        Random random = new Random(3);
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            lines.add("MD: a/" + random.nextInt(3000) + " ()V b/" + random.nextInt(100) + " é");
+        }
+        List<String> expected = new ArrayList<String>(lines);
+        Collections.sort(expected);
+
+        // In memory, spilled to one run and spilled to many
+        for (int maxLines : new int[]{100000, 10000, 7, 1000}) {
+            assertEquals(expected, sort(lines, maxLines));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import com.google.common.collect.BiMap;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import net.md_5.specialsource.AccessMap;
+import net.md_5.specialsource.InheritanceMap;
+import net.md_5.specialsource.JarMapping;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.Opcodes;
+
+public class FileLocatorTest {
+
+    private static final String SRG = "CL: a net/A\n"
+            + "CL: b net/B\n"
+            + "FD: a/x net/A/field\n"
+            + "MD: a/y (Lb;)La; net/A/method (Lnet/B;)Lnet/A;\n";
+    //
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File plain(String name, String text) throws IOException {
+        File file = folder.newFile(name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private File gzip(String name, String text) throws IOException {
+        File file = folder.newFile(name);
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private File zip(String name, String text) throws IOException {
+        File file = folder.newFile(name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            // Directories before the first file are skipped
+            out.putNextEntry(new ZipEntry("mappings/"));
+            out.putNextEntry(new ZipEntry("mappings/first.srg"));
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.putNextEntry(new ZipEntry("mappings/second.srg"));
+            out.write("CL: c net/C\n".getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        try (InputStream in = FileLocator.openStream(file)) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void openStream() throws IOException {
+        File plain = plain("mapping.srg", SRG);
+        File gzip = gzip("mapping.srg.gz", SRG);
+        File zip = zip("mapping.zip", SRG);
+
+        assertFalse(FileLocator.isCompressed(plain));
+        assertTrue(FileLocator.isCompressed(gzip));
+        assertTrue(FileLocator.isCompressed(zip));
+        for (File file : Arrays.asList(plain, gzip, zip)) {
+            assertEquals(file.getName(), SRG, read(file));
+        }
+
+        // Too short to hold a header
+        assertEquals("a", read(plain("short.txt", "a")));
+        assertEquals("", read(plain("empty.txt", "")));
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyZip() throws IOException {
+        File file = folder.newFile("empty.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry("mappings/"));
+        }
+        FileLocator.openStream(file).close();
+    }
+
+    @Test
+    public void compressedMappings() throws IOException {
+        JarMapping expected = new JarMapping();
+        expected.loadMappings(plain("mapping.srg", SRG), null, null, false);
+
+        for (File file : Arrays.asList(gzip("mapping.srg.gz", SRG), zip("mapping.zip", SRG))) {
+            JarMapping mapping = new JarMapping();
+            mapping.loadMappings(file, null, null, false);
+            assertEquals(file.getName(), expected.classes, mapping.classes);
+            assertEquals(file.getName(), expected.fields, mapping.fields);
+            assertEquals(file.getName(), expected.methods, mapping.methods);
+
+            JarMapping reversed = new JarMapping();
+            reversed.loadMappings(file, null, null, true);
+            assertEquals(file.getName(), "a", reversed.classes.get("net/A"));
+        }
+    }
+
+    @Test
+    public void compressedInheritance() throws IOException {
+        InheritanceMap inheritance = new InheritanceMap();
+        inheritance.load(gzip("inheritance.txt.gz", "# comment\nnet/A net/B java/lang/Runnable\n"), (BiMap<String, String>) null);
+        assertEquals(Arrays.asList("net/B", "java/lang/Runnable"), inheritance.getParents("net/A"));
+    }
+
+    @Test
+    public void compressedAccessTransformer() throws IOException {
+        AccessMap access = new AccessMap();
+        access.loadAccessTransformer(zip("at.zip", "public net/A\n").getPath());
+        assertEquals(Opcodes.ACC_PUBLIC, access.applyClassAccess("net/A", Opcodes.ACC_PRIVATE));
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class IntIntMapTest {
+
+    @Test
+    public void matchesHashMap() {
+        Random random = new Random(1);
+        IntIntMap map = new IntIntMap();
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+
+        // Few enough keys that probe chains collide, and removals shift entries back
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(2000);
+            int value = random.nextInt(1000);
+            if (random.nextInt(3) == 0) {
+                Integer old = expected.remove(key);
+                assertEquals((old == null) ? -1 : old, map.remove(key));
+            } else {
+                Integer old = expected.put(key, value);
+                assertEquals((old == null) ? -1 : old, map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (int key = 0; key < 2000; key++) {
+            Integer value = expected.get(key);
+            assertEquals((value == null) ? -1 : value, map.get(key));
+            assertEquals(value != null, map.containsKey(key));
+        }
+
+        int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).sorted().toArray(), keys);
+    }
+
+    @Test
+    public void clear() {
+        IntIntMap map = new IntIntMap(4);
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i * 2);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(5));
+        map.put(5, 1);
+        assertTrue(map.containsKey(5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeKey() {
+        new IntIntMap().put(-1, 0);
+    }
+}
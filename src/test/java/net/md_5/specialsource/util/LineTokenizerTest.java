@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class LineTokenizerTest {
+
+    private static List<String> lines(LineTokenizer tokenizer) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        while (tokenizer.next()) {
+            StringBuilder line = new StringBuilder();
+            line.append(tokenizer.getIndent()).append(':');
+            for (int i = 0; i < tokenizer.getTokenCount(); i++) {
+                line.append('[').append(tokenizer.getToken(i)).append(']');
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    @Test
+    public void tokens() throws IOException {
+        String text = "CL: a net/A\n"
+                + "\n"
+                + "# comment only\n"
+                + "a net/A # trailing\r\n"
+                + "\tb ()V  run\n"
+                + "  \t  \r\n"
+                + "\t\tp 1\tq\n"
+                + "  spaces are not indent\n"
+                + "\t  x";
+        List<String> expected = Arrays.asList(
+                "0:[CL:][a][net/A]",
+                "0:[a][net/A]",
+                "1:[b][()V][run]",
+                "2:[p][1][q]",
+                "0:[spaces][are][not][indent]",
+                "1:[x]");
+
+        assertEquals(expected, lines(new LineTokenizer(new StringReader(text))));
+        assertEquals(expected, lines(new LineTokenizer(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)))));
+    }
+
+    @Test
+    public void decoding() throws IOException {
+        // Readers are passed through as they are, bytes use the default charset like FileReader did
+        assertEquals(Arrays.asList("0:[last][élève]"), lines(new LineTokenizer(new StringReader("last élève"))));
+
+        String text = new String("CL: é è".getBytes(Charset.defaultCharset()), Charset.defaultCharset());
+        LineTokenizer tokenizer = new LineTokenizer(ByteBuffer.wrap(text.getBytes(Charset.defaultCharset())));
+        assertTrue(tokenizer.next());
+        assertEquals(text, tokenizer.toString());
+    }
+
+    @Test
+    public void linesAcrossReads() throws IOException {
+        // Much more than one buffer, so lines straddle the reads from the channel
+        StringBuilder text = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 50000; i++) {
+            text.append("FD: pkg/Owner").append(i).append("/f net/Owner/field").append(i).append('\n');
+            expected.add("0:[FD:][pkg/Owner" + i + "/f][net/Owner/field" + i + "]");
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        LineTokenizer tokenizer = new LineTokenizer(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        assertEquals(expected, lines(tokenizer));
+        assertEquals(bytes.length, tokenizer.getConsumed());
+    }
+
+    @Test
+    public void queries() throws IOException {
+        LineTokenizer tokenizer = new LineTokenizer(new StringReader("MD: a/b (I)V net/A/run (I)V\n"));
+        assertTrue(tokenizer.next());
+        assertTrue(tokenizer.tokenEquals(0, "MD:"));
+        assertFalse(tokenizer.tokenEquals(0, "MD"));
+        assertTrue(tokenizer.tokenEndsWith(0, ':'));
+        assertEquals(2, tokenizer.indexOfToken("(I)V"));
+        assertEquals(-1, tokenizer.indexOfToken("(J)V"));
+        assertTrue(tokenizer.contains('('));
+        assertFalse(tokenizer.contains(';'));
+        assertEquals("MD: a/b (I)V net/A/run (I)V", tokenizer.toString());
+        assertFalse(tokenizer.next());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void tokenOutOfRange() throws IOException {
+        LineTokenizer tokenizer = new LineTokenizer(new StringReader("a b\n"));
+        tokenizer.next();
+        tokenizer.getToken(2);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PerfectHashTest {
+
+    @Test
+    public void distinctSlots() {
+        for (int n : new int[]{0, 1, 2, 3, 10, 1000, 100000}) {
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = PerfectHash.mix(i);
+            }
+
+            PerfectHash hash = PerfectHash.build(keys);
+            assertTrue(hash.size() >= n);
+            boolean[] used = new boolean[hash.size()];
+            for (long key : keys) {
+                int slot = hash.get(key);
+                assertTrue(slot >= 0 && slot < hash.size());
+                assertFalse("slot " + slot + " used twice", used[slot]);
+                used[slot] = true;
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateKey() {
+        PerfectHash.build(new long[]{PerfectHash.mix(1), PerfectHash.mix(2), PerfectHash.mix(1)});
+    }
+
+    @Test
+    public void frozenSymbolMapMatchesSymbolMap() {
+        Random random = new Random(2);
+        SymbolTable symbols = new SymbolTable();
+        SymbolMap map = new SymbolMap(symbols);
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 20000; i++) {
+            String key = "a/" + random.nextInt(5000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = "b/" + random.nextInt(5000);
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+        assertEquals(expected, map);
+
+        FrozenSymbolMap frozen = map.freeze(symbols.freeze());
+        assertEquals(expected, frozen);
+        assertEquals(expected.size(), frozen.size());
+        for (int i = 0; i < 5000; i++) {
+            String key = "a/" + i;
+            assertEquals(expected.get(key), frozen.get(key));
+            assertEquals(expected.containsKey(key), frozen.containsKey(key));
+        }
+        assertNull(frozen.get("missing"));
+    }
+
+    @Test
+    public void clearCountsAsChange() {
+        SymbolMap map = new SymbolMap(new SymbolTable());
+        map.put("a", "b");
+        int modCount = map.getModCount();
+        map.entrySet().clear();
+        assertTrue(map.isEmpty());
+        assertTrue(map.getModCount() != modCount);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2012, md_5. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * The name of the author may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.md_5.specialsource.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class PrefixMatcherTest {
+
+    // The first prefix the name starts with, as a list of prefixes would be checked
+    private static int linearMatch(List<String> prefixes, boolean defaultPackage, String name) {
+        for (int i = 0; i < prefixes.size(); i++) {
+            String prefix = prefixes.get(i);
+            if (defaultPackage && prefix.equals(PrefixMatcher.DEFAULT_PACKAGE)) {
+                if (name.indexOf('/') == -1) {
+                    return i;
+                }
+            } else if (name.startsWith(prefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void matchesLinearScan() {
+        List<String> prefixes = Arrays.asList("net/minecraft/", "net/", "com/google/common/", ".", "com/", "net/minecraft/", "", "org/a");
+        Random random = new Random(4);
+        String[] parts = {"net", "minecraft", "com", "google", "common", "org", "a", "ab", "."};
+
+        for (boolean defaultPackage : new boolean[]{false, true}) {
+            for (int end = 0; end <= prefixes.size(); end++) {
+                List<String> some = prefixes.subList(0, end);
+                PrefixMatcher matcher = new PrefixMatcher(some, defaultPackage);
+                assertEquals(some.size(), matcher.size());
+
+                for (int i = 0; i < 2000; i++) {
+                    StringBuilder name = new StringBuilder();
+                    int length = random.nextInt(4);
+                    for (int j = 0; j < length; j++) {
+                        if (j > 0) {
+                            name.append('/');
+                        }
+                        name.append(parts[random.nextInt(parts.length)]);
+                    }
+                    if (random.nextBoolean()) {
+                        name.append('/');
+                    }
+
+                    int expected = linearMatch(some, defaultPackage, name.toString());
+                    assertEquals(name.toString(), expected, matcher.match(name.toString()));
+                    assertEquals(expected != -1, matcher.matches(name.toString()));
+                }
+            }
+        }
+        assertEquals("net/", new PrefixMatcher(prefixes, false).getPrefix(1));
+    }
+}